@@ -16,6 +16,8 @@
 
 package com.apehat.event;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Objects;
 
 /**
@@ -31,10 +33,14 @@ public abstract class AbstractEvent implements Event {
     private final long occurredTimeMillis;
     private final int version;
 
+    /** The sequence is process local, will be reassigned on deserialize */
+    private transient long sequence;
+
     protected AbstractEvent(TriggerId triggerId) {
         this.triggerId = Objects.requireNonNull(triggerId);
-        this.occurredTimeMillis = System.nanoTime();
+        this.occurredTimeMillis = System.currentTimeMillis();
         version = INITIAL_VERSION;
+        sequence = Sequence.next();
     }
 
     /**
@@ -56,6 +62,7 @@ public abstract class AbstractEvent implements Event {
         this.triggerId = Objects.requireNonNull(triggerId);
         this.occurredTimeMillis = occurredTimeMillis;
         version = parentVersion + 1;
+        sequence = Sequence.next();
     }
 
     @Override public TriggerId triggerId() {
@@ -70,6 +77,16 @@ public abstract class AbstractEvent implements Event {
         return version;
     }
 
+    @Override public long sequence() {
+        return sequence;
+    }
+
+    private void readObject(ObjectInputStream in)
+            throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        sequence = Sequence.next();
+    }
+
     @Override public String toString() {
         return "triggerId=" + triggerId + ", occurredTimeMillis=" + occurredTimeMillis + ", version=" + version;
     }
@@ -0,0 +1,474 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event;
+
+import com.apehat.event.annotation.Subscribe;
+import com.apehat.event.annotation.SubscribeRules;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaConversionException;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * The subscribers declared by {@link Subscribe} methods, be found at runtime.
+ * <p>
+ * The methods of a class are found once, and be cached by a {@link
+ * ClassValue}. Each method is bound to a functional interface generated by
+ * {@link LambdaMetafactory}, so the subscribers invoke the methods as a direct
+ * call, rather than by {@link Method#invoke(Object, Object...)}. The method
+ * can't be accessed by this, e.g. a non-public method, is bound to a {@link
+ * MethodHandle} instead.
+ * <p>
+ * It's the runtime counterpart of the registration classes generated by
+ * {@link com.apehat.event.complier.SubscribeProcessor}, and checks the methods
+ * by the same {@link SubscribeRules}. The methods declared by the super
+ * classes and the interfaces are found also, an annotated method overridden by
+ * an annotated method of the sub type is bound once, by the overriding one.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class AnnotatedSubscribers {
+
+    private static final ClassValue<List<Binding>> BINDINGS = new ClassValue<List<Binding>>() {
+        @Override protected List<Binding> computeValue(Class<?> type) {
+            return bind(type);
+        }
+    };
+
+    private static final RuntimeRules RULES = new RuntimeRules();
+
+    private AnnotatedSubscribers() {
+    }
+
+    /**
+     * Returns the subscribers declared by the methods of specified target,
+     * and it's super types.
+     *
+     * @param target
+     *         the target to invoke subscribe methods
+     * @return the subscribers declared by specified target, or an empty list
+     * @throws NullPointerException
+     *         specified target is null
+     * @throws IllegalArgumentException
+     *         an annotated method is invalid
+     */
+    static List<Subscriber<?>> of(Object target) {
+        List<Binding> bindings = BINDINGS.get(Objects.requireNonNull(target)
+                                                     .getClass());
+        if (bindings.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Subscriber<?>> subscribers = new ArrayList<>(bindings.size());
+        for (Binding binding : bindings) {
+            subscribers.add(binding.subscriber(target));
+        }
+        return subscribers;
+    }
+
+    private static List<Binding> bind(Class<?> type) {
+        List<Binding> bindings = new ArrayList<>();
+        // the signatures of bound instance methods, those overridden by sub
+        // types needn't be bound again
+        Set<String> signatures = new HashSet<>();
+        for (Class<?> current : hierarchy(type)) {
+            Method[] methods = current.getDeclaredMethods();
+            // the order of reflected methods is unspecified
+            Arrays.sort(methods, Comparator.comparing(Method::getName)
+                                           .thenComparing(Method::toString));
+            boolean checked = false;
+            for (Method method : methods) {
+                if (method.isBridge() || method.isSynthetic()) {
+                    continue;
+                }
+                Subscribe[] annotations = method.getAnnotationsByType(
+                        Subscribe.class);
+                if (annotations.length == 0) {
+                    continue;
+                }
+                if (!checked) {
+                    check(RULES.checkDeclaringType(current), current);
+                    checked = true;
+                }
+                if (!Modifier.isStatic(method.getModifiers())
+                    && !signatures.add(signature(method))) {
+                    continue;
+                }
+                for (Subscribe subscribe : annotations) {
+                    bind(method, subscribe, bindings);
+                }
+            }
+        }
+        return bindings.isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(bindings);
+    }
+
+    /**
+     * Returns specified type, it's super classes, and then the interfaces
+     * implemented by them, the sub types before the super types.
+     */
+    private static Set<Class<?>> hierarchy(Class<?> type) {
+        Set<Class<?>> hierarchy = new LinkedHashSet<>();
+        for (Class<?> current = type; current != null
+                                      && current != Object.class;
+             current = current.getSuperclass()) {
+            hierarchy.add(current);
+        }
+        List<Class<?>> interfaces = new ArrayList<>();
+        for (Class<?> current : hierarchy) {
+            interfaces.addAll(Arrays.asList(current.getInterfaces()));
+        }
+        for (int i = 0; i < interfaces.size(); i++) {
+            Class<?> current = interfaces.get(i);
+            if (hierarchy.add(current)) {
+                interfaces.addAll(Arrays.asList(current.getInterfaces()));
+            }
+        }
+        return hierarchy;
+    }
+
+    private static String signature(Method method) {
+        return method.getName() + Arrays.toString(method.getParameterTypes());
+    }
+
+    private static void bind(Method method, Subscribe subscribe,
+                             List<Binding> bindings) {
+        Class<? extends Event> eventType = subscribe.evenType();
+        if (subscribe.by().length != 0) {
+            for (Class<?> subscriberType : subscribe.by()) {
+                check(RULES.checkSubscriberType(subscriberType), method);
+                bindings.add(new DeclaredBinding(subscriberType));
+            }
+            return;
+        }
+        check(RULES.checkMethod(method, eventType), method);
+        bindings.add(new MethodBinding(method, eventType, subscribe.scope()));
+    }
+
+    private static void check(String violation, Object source) {
+        if (violation != null) {
+            throw new IllegalArgumentException(violation + ": " + source);
+        }
+    }
+
+    /** The binding of a declared subscriber, create a subscriber per target */
+    private interface Binding {
+
+        Subscriber<?> subscriber(Object target);
+    }
+
+    private static final class DeclaredBinding implements Binding {
+
+        private final Supplier<? extends Subscriber<?>> factory;
+
+        private DeclaredBinding(Class<?> subscriberType) {
+            Constructor<?> constructor;
+            try {
+                constructor = subscriberType.getConstructor();
+            } catch (NoSuchMethodException e) {
+                // had be checked by the rules
+                throw new IllegalStateException(e);
+            }
+            this.factory = () -> {
+                try {
+                    return (Subscriber<?>) constructor.newInstance();
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException(
+                            "Can't create " + subscriberType, e);
+                }
+            };
+        }
+
+        @Override public Subscriber<?> subscriber(Object target) {
+            return factory.get();
+        }
+    }
+
+    private static final class MethodBinding implements Binding {
+
+        private final Method method;
+        private final Class<? extends Event> eventType;
+        private final SubscribeScope scope;
+
+        /** The invoker of instance method, or null */
+        private final BiConsumer<Object, Object> invoker;
+
+        /** The invoker of static method, or null */
+        private final Consumer<Object> staticInvoker;
+
+        private MethodBinding(Method method, Class<? extends Event> eventType,
+                              SubscribeScope scope) {
+            this.method = method;
+            this.eventType = eventType;
+            this.scope = scope;
+            if (Modifier.isStatic(method.getModifiers())) {
+                this.invoker = null;
+                this.staticInvoker = staticInvoker(method);
+            } else {
+                this.invoker = invoker(method);
+                this.staticInvoker = null;
+            }
+        }
+
+        @Override public Subscriber<?> subscriber(Object target) {
+            return new MethodSubscriber<>(this, invoker == null ? null
+                    : target);
+        }
+
+        @SuppressWarnings("unchecked")
+        private static BiConsumer<Object, Object> invoker(Method method) {
+            if (isBindable(method)) {
+                try {
+                    MethodHandles.Lookup lookup = MethodHandles.lookup();
+                    MethodHandle handle = lookup.unreflect(method);
+                    CallSite site = LambdaMetafactory.metafactory(
+                            lookup, "accept",
+                            MethodType.methodType(BiConsumer.class),
+                            MethodType.methodType(void.class, Object.class,
+                                                  Object.class), handle,
+                            MethodType.methodType(void.class,
+                                                  method.getDeclaringClass(),
+                                                  method.getParameterTypes()[0]));
+                    return (BiConsumer<Object, Object>) site.getTarget()
+                                                            .invoke();
+                } catch (IllegalAccessException e) {
+                    // fall back to the method handle
+                } catch (LambdaConversionException e) {
+                    throw new IllegalStateException("Can't bind " + method, e);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Can't bind " + method, e);
+                }
+            }
+            MethodHandle handle = unreflect(method).asType(
+                    MethodType.methodType(void.class, Object.class,
+                                          Object.class));
+            return (target, event) -> {
+                try {
+                    handle.invokeExact(target, event);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        private static Consumer<Object> staticInvoker(Method method) {
+            if (isBindable(method)) {
+                try {
+                    MethodHandles.Lookup lookup = MethodHandles.lookup();
+                    MethodHandle handle = lookup.unreflect(method);
+                    CallSite site = LambdaMetafactory.metafactory(
+                            lookup, "accept",
+                            MethodType.methodType(Consumer.class),
+                            MethodType.methodType(void.class, Object.class),
+                            handle, MethodType.methodType(
+                                    void.class, method.getParameterTypes()[0]));
+                    return (Consumer<Object>) site.getTarget().invoke();
+                } catch (IllegalAccessException e) {
+                    // fall back to the method handle
+                } catch (LambdaConversionException e) {
+                    throw new IllegalStateException("Can't bind " + method, e);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Can't bind " + method, e);
+                }
+            }
+            MethodHandle handle = unreflect(method).asType(
+                    MethodType.methodType(void.class, Object.class));
+            return event -> {
+                try {
+                    handle.invokeExact(event);
+                } catch (RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new IllegalStateException(e);
+                }
+            };
+        }
+
+        /**
+         * Determine whether the specified method can be bound by {@link
+         * LambdaMetafactory}. The generated class is hosted by this class, so
+         * the method must be public, and the declaring class and parameter
+         * type must be public, and visible to the class loader of this.
+         */
+        private static boolean isBindable(Method method) {
+            return Modifier.isPublic(method.getModifiers()) && isVisible(
+                    method.getDeclaringClass()) && isVisible(
+                    method.getParameterTypes()[0]);
+        }
+
+        private static boolean isVisible(Class<?> type) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                return false;
+            }
+            try {
+                return Class.forName(type.getName(), false,
+                                     AnnotatedSubscribers.class
+                                             .getClassLoader()) == type;
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Returns the method handle of specified method. The private methods
+         * are rejected by the rules, the package private or protected methods,
+         * those the generated classes can access also, are made accessible.
+         */
+        private static MethodHandle unreflect(Method method) {
+            try {
+                method.setAccessible(true);
+                return MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException(
+                        "The @Subscribe method can't be accessed: " + method, e);
+            }
+        }
+    }
+
+    /**
+     * The subscriber of an annotated method. The subscribers of same method
+     * and same target are equal.
+     */
+    private static final class MethodSubscriber<T extends Event>
+            implements Subscriber<T> {
+
+        private final MethodBinding binding;
+        private final Object target;
+
+        private MethodSubscriber(MethodBinding binding, Object target) {
+            this.binding = binding;
+            this.target = target;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override public Class<? extends T> subscribeTo() {
+            return (Class<? extends T>) binding.eventType;
+        }
+
+        @Override public void onEvent(T event) {
+            if (binding.invoker != null) {
+                binding.invoker.accept(target, event);
+            } else {
+                binding.staticInvoker.accept(event);
+            }
+        }
+
+        @Override public SubscribeScope scope() {
+            return binding.scope;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof MethodSubscriber)) {
+                return false;
+            }
+            MethodSubscriber<?> subscriber = (MethodSubscriber<?>) o;
+            return binding == subscriber.binding
+                   && target == subscriber.target;
+        }
+
+        @Override public int hashCode() {
+            return 31 * binding.hashCode() + System.identityHashCode(target);
+        }
+
+        @Override public String toString() {
+            return binding.method.getDeclaringClass().getName() + "#"
+                   + binding.method.getName() + "(" + binding.eventType
+                           .getName() + ")";
+        }
+    }
+
+    /** The {@link SubscribeRules} of the runtime model */
+    private static final class RuntimeRules
+            extends SubscribeRules<Class<?>, Method> {
+
+        @Override protected Class<?> enclosingType(Class<?> type) {
+            return type.getEnclosingClass();
+        }
+
+        @Override protected boolean isPrivate(Class<?> type) {
+            return Modifier.isPrivate(type.getModifiers());
+        }
+
+        @Override protected boolean isLocalOrAnonymous(Class<?> type) {
+            return type.isLocalClass() || type.isAnonymousClass();
+        }
+
+        @Override protected boolean isAbstract(Class<?> type) {
+            return Modifier.isAbstract(type.getModifiers());
+        }
+
+        @Override protected boolean hasPublicNoArgConstructor(Class<?> type) {
+            try {
+                type.getConstructor();
+                return true;
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+
+        @Override
+        protected boolean isAssignable(Class<?> type, Class<?> target) {
+            return target.isAssignableFrom(type);
+        }
+
+        @Override protected boolean isUnchecked(Class<?> throwableType) {
+            return RuntimeException.class.isAssignableFrom(throwableType)
+                   || Error.class.isAssignableFrom(throwableType);
+        }
+
+        @Override protected String nameOf(Class<?> type) {
+            return type.getName();
+        }
+
+        @Override protected boolean isPrivateMethod(Method method) {
+            return Modifier.isPrivate(method.getModifiers());
+        }
+
+        @Override protected List<Class<?>> parameterTypes(Method method) {
+            return Arrays.asList(method.getParameterTypes());
+        }
+
+        @Override protected List<Class<?>> thrownTypes(Method method) {
+            return Arrays.asList(method.getExceptionTypes());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The {@code BatchSubscriber} be used to subscribe events in batch.
+ * <p>
+ * The events published in a drain cycle of the {@link EventBus} are collected,
+ * and be passed to {@link #onEvents(List)} in order of published, at the end
+ * of the cycle. So the subscriber receives the events after the other
+ * subscribers of them. The size of batches can be bounded by {@link
+ * EventBus.Builder#setDrainBatchSize(int)}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public interface BatchSubscriber<T extends Event> extends Subscriber<T> {
+
+    /**
+     * Handle the events occurred in a drain cycle.
+     *
+     * @param events
+     *         the unmodifiable list of events to handle, never be empty
+     */
+    void onEvents(List<T> events);
+
+    /**
+     * Handle a single event, by {@link #onEvents(List)}. Be invoked when the
+     * event isn't published in a drain cycle.
+     *
+     * @param event
+     *         the event to handle
+     */
+    @Override default void onEvent(T event) {
+        onEvents(Collections.singletonList(event));
+    }
+}
@@ -53,4 +53,18 @@ public interface Event extends Serializable {
     default int version() {
         return INITIAL_VERSION;
     }
+
+    /**
+     * Returns the {@link Sequence} value of event occurred. The subscribers
+     * registered after this sequence will not receive this event.
+     * <p>
+     * Default is {@link Long#MAX_VALUE}, i.e. the event can be received by all
+     * subscribers registered before it be published.
+     *
+     * @return the sequence value of event occurred
+     * @see Sequence
+     */
+    default long sequence() {
+        return Long.MAX_VALUE;
+    }
 }
@@ -16,28 +16,73 @@
 
 package com.apehat.event;
 
+import com.apehat.event.register.BoundedEventQueue;
 import com.apehat.event.register.EventQueue;
+import com.apehat.event.register.EventQueue.OfferResult;
 import com.apehat.event.register.EventRAMQueue;
+import com.apehat.event.register.EventRingQueue;
 import com.apehat.event.register.SubscriberRAMRegister;
 import com.apehat.event.register.SubscriberRegister;
+import com.apehat.event.register.SubscriberVisitor;
+import com.apehat.event.timer.Timeout;
+import com.apehat.event.timer.TimingWheel;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * The class {@code EventBus} is be used as facade to subscribe and submit
  * event.
+ * <p>
+ * The event bus can be registered with a name by {@link
+ * Builder#build(String)}, and be looked up by {@link #lookup(String)} until it
+ * be closed. The default event bus is shared by whole process.
  *
  * @author hanpengfei
  * @since 1.0
  */
-public class EventBus {
+public class EventBus implements AutoCloseable {
 
-    private static final Builder DEFAULT_BUILDER = new Builder();
+    /** The name of default event bus */
+    public static final String DEFAULT_NAME = "default";
+
+    /** The interval to retry offering to a full queue bounded by itself */
+    private static final long BLOCK_RETRY_NANOS = TimeUnit.MICROSECONDS
+            .toNanos(50);
+
+    /** The registered event buses, exclude the default event bus */
+    private static final ConcurrentMap<String, EventBus> EVENT_BUSES = new ConcurrentHashMap<>();
+
+    /** The event bus publishing events by current thread */
+    private static final ThreadLocal<EventBus> PUBLISHING = new ThreadLocal<>();
+
+    /** The name of this, or null if this hadn't be registered */
+    private final String name;
 
     /** The exception handler, be used to handle subscribe exception */
     private final SubscribeExceptionHandler subscribeExceptionHandler;
@@ -45,43 +90,364 @@ public class EventBus {
     /** The subscriber register be used to register subscribers */
     private final SubscriberRegister subscriberRegister;
 
-    /** The event register be used to blocked events. */
+    /**
+     * The event register be used to blocked events, or null if events are
+     * queued by lanes.
+     */
     private final EventQueue eventQueue;
 
-    private final Lock publishLock;
+    /**
+     * The count of publish requests, those hadn't be served by the thread
+     * publishing {@code eventQueue}. Only the thread increased it from 0 can
+     * publish, and it must publish until this decreased to 0.
+     */
+    private final AtomicInteger publishRequests = new AtomicInteger();
+
+    /** The task to continue publishing {@code eventQueue} by executor */
+    private final Runnable publishTask = this::drain;
+
+    /** The maximum count of events published by a thread or task at once */
+    private final int drainBatchSize;
+
+    /**
+     * The executor to continue publishing {@code eventQueue}, after the
+     * submitting thread published a batch; or null, the submitting thread
+     * must publish until the queue is empty.
+     */
+    private final Executor handOffExecutor;
+
+    /** The dispatcher of {@code eventQueue} */
+    private final Dispatcher dispatcher = new Dispatcher();
+
+    /** The visitor be used to invoke subscribers, shared by all events */
+    private final SubscriberVisitor subscriberInvoker = this::invokeSubscriberHandler;
+
+    /** The unmodifiable view of {@code subscriberRegister} */
+    private final SubscriberRegister unmodifiableSubscriberRegister;
+
+    /** The function to get partition key of events */
+    private final Function<? super Event, ?> partitioner;
+
+    /** The lanes, or null if events are published by submitting thread */
+    private final Lane[] lanes;
+
+    /** The executors created by this, will be shutdown when this closed */
+    private final List<ExecutorService> ownedExecutors = new ArrayList<>();
+
+    /** The count of events had be submitted, but hadn't be published */
+    private final AtomicLong pendingCount = new AtomicLong();
 
-    private EventBus(Builder builder) {
+    /** The monitor to wait for all pending events be published */
+    private final Object idleMonitor = new Object();
+
+    /** The policy to handle the event submitted to a full queue */
+    private final OverflowPolicy overflowPolicy;
+
+    /** The maximum time to block a submitting thread, in nanoseconds */
+    private final long blockTimeoutNanos;
+
+    /** The count of events dropped by overflow policy */
+    private final LongAdder droppedCount = new LongAdder();
+
+    /** The timing wheel to submit delayed events, or null to use default */
+    private final TimingWheel timingWheel;
+
+    /**
+     * The executor to submit the delayed events, those are due, so the
+     * subscribers aren't invoked by the thread of timing wheel; or null if the
+     * events are published by lanes.
+     */
+    private final Executor dueExecutor;
+
+    private volatile boolean closed;
+
+    private EventBus(String name, Builder builder) {
+        this.name = name;
         this.subscribeExceptionHandler = builder.subscribeExceptionHandler;
 
-        publishLock = new ReentrantLock();
+        drainBatchSize = builder.drainBatchSize;
+        handOffExecutor = builder.handOffExecutor;
+        overflowPolicy = builder.overflowPolicy;
+        blockTimeoutNanos = builder.blockTimeoutNanos;
+        timingWheel = builder.timingWheel;
         subscriberRegister = new SubscriberRAMRegister();
-        eventQueue = new EventRAMQueue();
+        unmodifiableSubscriberRegister = new UnmodifiableSubscriberRegister(
+                subscriberRegister);
+
+        partitioner = builder.partitioner;
+        if (builder.laneCount > 0 || builder.executor != null) {
+            lanes = new Lane[Math.max(builder.laneCount, 1)];
+            for (int i = 0; i < lanes.length; i++) {
+                Executor executor = builder.executor;
+                if (executor == null) {
+                    ExecutorService laneExecutor = Executors
+                            .newSingleThreadExecutor(
+                                    new BusThreadFactory(name, "lane-" + i));
+                    ownedExecutors.add(laneExecutor);
+                    executor = laneExecutor;
+                }
+                lanes[i] = new Lane(executor, newEventQueue(builder));
+            }
+            eventQueue = null;
+            dueExecutor = null;
+        } else {
+            lanes = null;
+            eventQueue = newEventQueue(builder);
+            if (handOffExecutor != null) {
+                dueExecutor = handOffExecutor;
+            } else {
+                // the thread will be started at the first delayed event
+                ExecutorService delayedExecutor = Executors
+                        .newSingleThreadExecutor(
+                                new BusThreadFactory(name, "delayed"));
+                ownedExecutors.add(delayedExecutor);
+                dueExecutor = delayedExecutor;
+            }
+        }
     }
 
     /**
-     * Returns an event bus with default configuration.
+     * Returns the default event bus, with default configuration. The default
+     * event bus is shared by whole process, and can't be closed.
      *
-     * @return an event bus with default configuration
+     * @return the default event bus
      */
     public static EventBus getDefault() {
-        return DEFAULT_BUILDER.build();
+        return DefaultHolder.DEFAULT_EVENT_BUS;
+    }
+
+    /**
+     * Returns the event bus registered with specified name.
+     *
+     * @param name
+     *         the name of event bus
+     * @return the event bus registered with specified name, or null, if no
+     * event bus registered with specified name
+     * @throws NullPointerException
+     *         specified name is null
+     */
+    public static EventBus lookup(String name) {
+        if (DEFAULT_NAME.equals(name)) {
+            return getDefault();
+        }
+        return EVENT_BUSES.get(name);
+    }
+
+    /**
+     * Returns the name of this.
+     *
+     * @return the name of this, or null if this hadn't be registered
+     */
+    public String name() {
+        return name;
     }
 
     public <T extends Event> void subscribe(
             Subscriber<? extends T> subscriber) {
+        checkNotClosed();
         subscriberRegister.register(subscriber);
     }
 
+    /**
+     * Subscribe the subscribers declared by the {@link
+     * com.apehat.event.annotation.Subscribe} methods of specified listener,
+     * and it's super classes.
+     * <p>
+     * The methods of a class are found once, and the subscribers invoke them
+     * by the generated functional interfaces, rather than reflection. The
+     * subscribers are registered in one pass by {@link
+     * SubscriberRegister#registerAll(Collection)}.
+     *
+     * @param listener
+     *         the object declares subscribe methods
+     * @return the subscribed subscribers, or an empty list
+     * @throws NullPointerException
+     *         the specified listener is null
+     * @throws IllegalArgumentException
+     *         an annotated method of the listener is invalid
+     * @throws IllegalStateException
+     *         this had be closed
+     */
+    public List<Subscriber<?>> subscribeAll(Object listener) {
+        checkNotClosed();
+        List<Subscriber<?>> subscribers = AnnotatedSubscribers.of(listener);
+        if (!subscribers.isEmpty()) {
+            subscriberRegister.registerAll(subscribers);
+        }
+        return Collections.unmodifiableList(subscribers);
+    }
+
     /**
      * Submit an event to publish. If the event queue don't have event, will
      * publish now.
      *
      * @param event
      *         the event to publish
+     * @throws IllegalStateException
+     *         this had be closed, or the bounded event queue is full, and the
+     *         event be rejected by {@link OverflowPolicy}
      */
     public void submit(Event event) {
-        eventQueue.register(event);
-        publish();
+        checkNotClosed();
+        if (lanes != null) {
+            lanes[laneIndexOf(event)].submit(event);
+            return;
+        }
+        pendingCount.incrementAndGet();
+        boolean queued = false;
+        try {
+            queued = enqueue(eventQueue, event);
+        } finally {
+            if (!queued) {
+                onPublished(1);
+            }
+        }
+        if (queued) {
+            publish();
+        }
+    }
+
+    /**
+     * Submit events to publish, in order of the iteration of specified
+     * collection. Same as submit events one by one, but the events are counted
+     * once, and be published by at most one attempt (per lane, if
+     * partitioned) after all events be queued.
+     * <p>
+     * If an event be rejected, the events before it had be queued and will be
+     * published, the events after it will not be submitted.
+     *
+     * @param events
+     *         the events to publish
+     * @throws NullPointerException
+     *         specified collection is null, or contains null
+     * @throws IllegalStateException
+     *         this had be closed, or the bounded event queue is full, and an
+     *         event be rejected by {@link OverflowPolicy}
+     */
+    public void submitAll(Collection<? extends Event> events) {
+        checkNotClosed();
+        Event[] submitting = events.toArray(new Event[0]);
+        if (submitting.length == 0) {
+            return;
+        }
+        pendingCount.addAndGet(submitting.length);
+        boolean[] queuedLanes = lanes == null ? null : new boolean[lanes.length];
+        boolean queued = false;
+        int processed = 0;
+        int refused = 0;
+        try {
+            for (Event event : submitting) {
+                if (lanes == null) {
+                    if (enqueue(eventQueue, Objects.requireNonNull(event))) {
+                        queued = true;
+                    } else {
+                        refused++;
+                    }
+                } else {
+                    int index = laneIndexOf(event);
+                    if (enqueue(lanes[index].queue, event)) {
+                        queuedLanes[index] = true;
+                    } else {
+                        refused++;
+                    }
+                }
+                processed++;
+            }
+        } finally {
+            int unqueued = submitting.length - processed + refused;
+            if (unqueued > 0) {
+                onPublished(unqueued);
+            }
+            if (lanes == null) {
+                if (queued) {
+                    publish();
+                }
+            } else {
+                for (int i = 0; i < lanes.length; i++) {
+                    if (queuedLanes[i]) {
+                        lanes[i].schedule();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Submit an event to publish after specified delay. The event will be
+     * submitted when the delay elapsed, as by {@link #submit(Event)}, unless
+     * the returned timeout be cancelled, or this had be closed. The thread of
+     * timing wheel only hands the event to the lanes, to the {@link
+     * Builder#setHandOffExecutor(Executor) hand-off executor}, or to a thread
+     * owned by this, so the subscribers never block the timing wheel.
+     * <p>
+     * The delayed events aren't counted as pending, until they be submitted.
+     *
+     * @param event
+     *         the event to publish
+     * @param delay
+     *         the delay to submit event
+     * @param unit
+     *         the time unit of delay
+     * @return the timeout, can be used to cancel the submission
+     * @throws NullPointerException
+     *         specified event or unit is null
+     * @throws IllegalStateException
+     *         this or the timing wheel had be closed
+     * @see Builder#setTimingWheel(TimingWheel)
+     */
+    public Timeout submitAfter(Event event, long delay, TimeUnit unit) {
+        checkNotClosed();
+        Objects.requireNonNull(event);
+        return timingWheel().schedule(() -> submitDue(event), delay, unit);
+    }
+
+    /**
+     * Submit an event to publish at specified time. Same as {@link
+     * #submitAfter(Event, long, TimeUnit)} with the delay from now.
+     *
+     * @param event
+     *         the event to publish
+     * @param timeMillis
+     *         the time to submit event, in milliseconds since epoch
+     * @return the timeout, can be used to cancel the submission
+     * @throws NullPointerException
+     *         specified event is null
+     * @throws IllegalStateException
+     *         this or the timing wheel had be closed
+     */
+    public Timeout submitAt(Event event, long timeMillis) {
+        return submitAfter(event, timeMillis - System.currentTimeMillis(),
+                           TimeUnit.MILLISECONDS);
+    }
+
+    private TimingWheel timingWheel() {
+        return timingWheel == null ? TimingWheel.getDefault() : timingWheel;
+    }
+
+    /**
+     * Submit the due event, by the timing wheel. The events of lanes are
+     * published by the executors of lanes, the others are submitted by
+     * {@code dueExecutor}, or by current thread if the executor rejected.
+     */
+    private void submitDue(Event event) {
+        if (closed) {
+            return;
+        }
+        if (dueExecutor != null) {
+            try {
+                dueExecutor.execute(() -> {
+                    if (!closed) {
+                        submit(event);
+                    }
+                });
+                return;
+            } catch (RejectedExecutionException e) {
+                if (closed) {
+                    return;
+                }
+            }
+        }
+        submit(event);
     }
 
     /**
@@ -94,43 +460,431 @@ public class EventBus {
         return this;
     }
 
+    /**
+     * Close this event bus, and unregister this if this had be registered.
+     * After closed, this can't be used to subscribe and submit.
+     *
+     * @throws IllegalStateException
+     *         this is the default event bus
+     */
+    @Override public void close() {
+        if (this == getDefault()) {
+            throw new IllegalStateException(
+                    "The default event bus can't be closed.");
+        }
+        closed = true;
+        if (name != null) {
+            EVENT_BUSES.remove(name, this);
+        }
+        for (ExecutorService executor : ownedExecutors) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wait until all submitted events had be published, or the specified
+     * waiting time elapses. When the events are published by submitting
+     * thread, will return after the events submitted by other threads, or
+     * handed off to {@link Builder#setHandOffExecutor(Executor) hand-off
+     * executor}, had be published.
+     * <p>
+     * This method should be invoked before {@link #close()}, to shutdown
+     * gracefully.
+     *
+     * @param timeout
+     *         the maximum time to wait
+     * @param unit
+     *         the time unit of the timeout argument
+     * @return true, if all submitted events had be published; false, if the
+     * waiting time elapsed
+     * @throws InterruptedException
+     *         if interrupted while waiting
+     */
+    public boolean flush(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleMonitor) {
+            while (pendingCount.get() != 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(idleMonitor, remaining);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the count of events had be submitted, but hadn't be published.
+     *
+     * @return the count of pending events
+     */
+    public long pendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Returns the count of events in the event queues currently, exclude the
+     * events being published.
+     *
+     * @return the count of queued events
+     */
+    public int queueDepth() {
+        if (lanes == null) {
+            return eventQueue.size();
+        }
+        int depth = 0;
+        for (Lane lane : lanes) {
+            depth += lane.queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the count of events had be dropped by {@link
+     * OverflowPolicy#DROP_OLDEST} or {@link OverflowPolicy#DROP_NEWEST}.
+     *
+     * @return the count of dropped events
+     */
+    public long droppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Determine whether this had be closed.
+     *
+     * @return true, if this had be closed; otherwise false
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException(this + " had be closed.");
+        }
+    }
+
+    private static EventQueue newEventQueue(Builder builder) {
+        EventQueue queue = Objects.requireNonNull(
+                builder.eventQueueFactory.get(),
+                "The event queue factory returned null");
+        if (builder.capacity > 0) {
+            queue = new BoundedEventQueue(queue, builder.capacity);
+        }
+        return queue;
+    }
+
+    /**
+     * Queue the specified event to specified queue. If the queue is full,
+     * handle the event by {@code overflowPolicy}.
+     *
+     * @param queue
+     *         the queue to offer event
+     * @param event
+     *         the event to queue
+     * @return true, if the event be queued; false, if the queue refused the
+     * event as duplicate, or the event had be dropped or be published by
+     * overflow policy
+     * @throws IllegalStateException
+     *         the queue is full, and the event be rejected
+     */
+    private boolean enqueue(EventQueue queue, Event event) {
+        OfferResult result;
+        while ((result = queue.insert(event)) != OfferResult.QUEUED) {
+            if (result == OfferResult.DUPLICATE) {
+                return false;
+            }
+            switch (overflowPolicy) {
+                case BLOCK:
+                    return offerBlocking(queue, event);
+                case DROP_OLDEST:
+                    Event oldest = queue.nextEvent();
+                    if (oldest != null) {
+                        droppedCount.increment();
+                        onPublished(1);
+                    }
+                    break;
+                case DROP_NEWEST:
+                    droppedCount.increment();
+                    return false;
+                case CALLER_RUNS:
+                    publishHelper(event);
+                    return false;
+                default:
+                    throw new IllegalStateException("The event queue is full.");
+            }
+        }
+        return true;
+    }
+
+    private boolean offerBlocking(EventQueue queue, Event event) {
+        if (isDrainingThread(queue)) {
+            // no one else will drain the queue, while this thread is blocked
+            throw new IllegalStateException(
+                    "The event queue is full, and drained by current thread.");
+        }
+        OfferResult result;
+        try {
+            if (queue instanceof BoundedEventQueue) {
+                result = ((BoundedEventQueue) queue).insert(
+                        event, blockTimeoutNanos, TimeUnit.NANOSECONDS);
+            } else {
+                // the queue bounded by itself can't signal, so retry
+                long deadline = System.nanoTime() + blockTimeoutNanos;
+                while ((result = queue.insert(event)) == OfferResult.FULL
+                       && deadline - System.nanoTime() > 0) {
+                    LockSupport.parkNanos(BLOCK_RETRY_NANOS);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(
+                    "Interrupted while waiting for event queue.", e);
+        }
+        if (result == OfferResult.FULL) {
+            throw new IllegalStateException(
+                    "The event queue is still full after timeout.");
+        }
+        return result == OfferResult.QUEUED;
+    }
+
+    /**
+     * Determine whether specified queue is being drained by current thread,
+     * i.e. the current thread is a subscriber invoked by publishing it.
+     *
+     * @param queue
+     *         the queue to check
+     * @return true, if current thread is draining specified queue
+     */
+    private boolean isDrainingThread(EventQueue queue) {
+        if (lanes == null) {
+            return PUBLISHING.get() == this;
+        }
+        for (Lane lane : lanes) {
+            if (lane.queue == queue) {
+                return lane.thread == Thread.currentThread();
+            }
+        }
+        return false;
+    }
+
     /**
      * Check {@code eventQueue} and publish event
      */
     private void publish() {
-        if (publishLock.tryLock()) {
-            Event event;
-            try {
+        // if other thread is publishing, the request will be served by it
+        if (publishRequests.getAndIncrement() == 0) {
+            drain();
+        }
+    }
+
+    /**
+     * Publish {@code eventQueue} until the queue is empty and all publish
+     * requests had be served, or hand off to {@code handOffExecutor} after
+     * published a batch of events.
+     * <p>
+     * The publish requests are counted after the events be queued, so if the
+     * count had not be changed after the queue found to be empty, the events
+     * of all requests had be published. Otherwise, the new requests will be
+     * served in next loop.
+     */
+    private void drain() {
+        EventBus previous = startPublishing();
+        try {
+            drainQueue();
+        } finally {
+            endPublishing(previous);
+        }
+    }
+
+    private void drainQueue() {
+        boolean completed = false;
+        try {
+            int requests = publishRequests.get();
+            int budget = drainBatchSize;
+            for (; ; ) {
+                Event event;
                 while ((event = eventQueue.nextEvent()) != null) {
-                    publishHelper(event);
+                    dispatcher.dispatch(event);
+                    if (--budget == 0) {
+                        dispatcher.flush();
+                        if (handOffExecutor != null && handOff()) {
+                            completed = true;
+                            return;
+                        }
+                        budget = drainBatchSize;
+                    }
+                }
+                dispatcher.flush();
+                dispatcher.deliver();
+                requests = publishRequests.addAndGet(-requests);
+                if (requests == 0) {
+                    completed = true;
+                    return;
+                }
+            }
+        } finally {
+            if (!completed) {
+                try {
+                    dispatcher.flush();
+                } finally {
+                    // let next submitting thread publish the remaining events
+                    publishRequests.set(0);
                 }
-            } finally {
-                publishLock.unlock();
             }
         }
     }
 
-    private <T extends Event> void publishHelper(T event) {
-        assert event != null;
-        Set<Subscriber<? super T>> subscribers = getSubscribers(event);
-        for (Subscriber<? super T> subscriber : subscribers) {
-            invokeSubscriberHandler(event, subscriber);
+    /**
+     * Returns the event bus, those is publishing events by current thread.
+     *
+     * @return the event bus publishing by current thread, or null
+     */
+    static EventBus publishing() {
+        return PUBLISHING.get();
+    }
+
+    private EventBus startPublishing() {
+        EventBus previous = PUBLISHING.get();
+        PUBLISHING.set(this);
+        return previous;
+    }
+
+    private static void endPublishing(EventBus previous) {
+        if (previous == null) {
+            PUBLISHING.remove();
+        } else {
+            PUBLISHING.set(previous);
         }
     }
 
     /**
-     * Returns the subscribers of the specified event.
+     * Deliver specified event to specified subscriber only, by the publishing
+     * path of this: the lane of the event, or the thread publishes {@code
+     * eventQueue}, handed by {@code dueExecutor}. Be used by the subscribers
+     * those defer the events, e.g. {@link RateLimitedSubscriber}, so the
+     * deferred events are published as the others: be counted as pending,
+     * keep the order of lane, be handled by the exception handler of this,
+     * and be dropped after this closed.
      *
      * @param event
-     *         the event to get subscribers
+     *         the event to deliver
+     * @param subscriber
+     *         the subscriber to invoke
+     * @param source
+     *         the subscriber registered to this, passed to the exception
+     *         handler
      * @param <T>
      *         the type of event
-     * @return the subscribers of specified event
      */
-    private <T extends Event> Set<Subscriber<? super T>> getSubscribers(
-            T event) {
+    <T extends Event> void deliver(T event, Subscriber<? super T> subscriber,
+                                   Subscriber<? super T> source) {
+        if (closed) {
+            return;
+        }
+        Delivery<T> delivery = new Delivery<>(event, subscriber, source);
+        pendingCount.incrementAndGet();
+        if (lanes != null) {
+            Lane lane = lanes[laneIndexOf(event)];
+            lane.dispatcher.deliveries.add(delivery);
+            try {
+                lane.schedule();
+            } catch (RuntimeException e) {
+                if (lane.dispatcher.deliveries.remove(delivery)) {
+                    onPublished(1);
+                }
+                throw e;
+            }
+            return;
+        }
+        dispatcher.deliveries.add(delivery);
+        try {
+            dueExecutor.execute(this::publish);
+        } catch (RejectedExecutionException e) {
+            publish();
+        }
+    }
+
+    /**
+     * Hand off the remaining events to {@code handOffExecutor}. The publish
+     * requests is still positive, so no other thread will publish before the
+     * task run.
+     *
+     * @return true if handed off, or false if the executor rejected, the
+     * current thread should continue to publish
+     */
+    private boolean handOff() {
+        try {
+            handOffExecutor.execute(publishTask);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Invoked after events be published, or be refused by queue.
+     *
+     * @param count
+     *         the count of events
+     */
+    private void onPublished(int count) {
+        if (pendingCount.addAndGet(-count) == 0) {
+            synchronized (idleMonitor) {
+                idleMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the lane of specified event. The events with equal
+     * partition key always be in same lane.
+     *
+     * @param event
+     *         the event to get lane
+     * @return the index of the lane of specified event
+     */
+    private int laneIndexOf(Event event) {
+        Object key = partitioner.apply(Objects.requireNonNull(event));
+        if (key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    private <T extends Event> void publishHelper(T event) {
         assert event != null;
-        return subscriberRegister.subscribersOf(event);
+        subscriberRegister.forEachSubscriber(event, subscriberInvoker);
+    }
+
+    /**
+     * Invoke {@link BatchSubscriber#onEvents(List)} method, if an exception
+     * be thrown, will use {@code subscribeExceptionHandler} to handle it with
+     * each event of the batch.
+     *
+     * @param subscriber
+     *         the batch subscriber
+     * @param events
+     *         the events to be handled
+     */
+    @SuppressWarnings("unchecked")
+    private void invokeBatchSubscriber(BatchSubscriber<?> subscriber,
+                                       List<Event> events) {
+        BatchSubscriber<Event> batchSubscriber = (BatchSubscriber<Event>) subscriber;
+        try {
+            batchSubscriber.onEvents(Collections.unmodifiableList(events));
+        } catch (Exception e) {
+            for (Event event : events) {
+                subscribeExceptionHandler.handle(e, event, batchSubscriber);
+            }
+        }
     }
 
     /**
@@ -180,7 +934,216 @@ public class EventBus {
      * event bus
      */
     public SubscriberRegister getSubscriberRegister() {
-        return new UnmodifiableSubscriberRegister(subscriberRegister);
+        return unmodifiableSubscriberRegister;
+    }
+
+    @Override public String toString() {
+        return "EventBus{" + "name='" + name + '\'' + '}';
+    }
+
+    /**
+     * The lane of events. The events of a lane be published in order of
+     * submitted, by at most one task at a time. So a lane can be published by
+     * any executor, without losing order.
+     */
+    private final class Lane implements Runnable {
+
+        /** The maximum count of events drained from queue at once */
+        private static final int DRAIN_BATCH_SIZE = 256;
+
+        private final EventQueue queue;
+
+        /** Whether a task had be scheduled to publish events of this */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        private final Executor executor;
+
+        private final Dispatcher dispatcher = new Dispatcher();
+
+        /** The thread is publishing events of this, or null */
+        private volatile Thread thread;
+
+        private Lane(Executor executor, EventQueue queue) {
+            this.executor = executor;
+            this.queue = queue;
+        }
+
+        private void submit(Event event) {
+            pendingCount.incrementAndGet();
+            boolean queued = false;
+            try {
+                queued = enqueue(queue, event);
+            } finally {
+                if (!queued) {
+                    onPublished(1);
+                }
+            }
+            if (queued) {
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    scheduled.set(false);
+                    throw e;
+                }
+            }
+        }
+
+        @Override public void run() {
+            EventBus previous = startPublishing();
+            thread = Thread.currentThread();
+            try {
+                dispatcher.deliver();
+                int budget = drainBatchSize;
+                int drained;
+                while (budget > 0 && (drained = queue.drain(
+                        dispatcher, Math.min(budget, DRAIN_BATCH_SIZE))) > 0) {
+                    dispatcher.flush();
+                    budget -= drained;
+                }
+            } finally {
+                try {
+                    dispatcher.flush();
+                } finally {
+                    thread = null;
+                    scheduled.set(false);
+                    endPublishing(previous);
+                }
+                // the event submitted after the queue be drained, but before
+                // the flag be reset, had failed to schedule a task
+                if (!queue.isEmpty() || !dispatcher.deliveries.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+
+    /**
+     * The dispatcher of events, be used by one thread at a time. Invokes the
+     * subscribers per event, but collects the events of {@link
+     * BatchSubscriber}s, until {@link #flush()} at the end of a drain cycle.
+     * <p>
+     * The event collected by a batch subscriber will be counted as pending,
+     * until it be flushed.
+     */
+    private final class Dispatcher implements SubscriberVisitor,
+            Consumer<Event> {
+
+        /** The collected events, by batch subscriber */
+        private final Map<BatchSubscriber<?>, List<Event>> batches = new LinkedHashMap<>();
+
+        /** The count of dispatched events, those are waiting for flush */
+        private int deferredCount;
+
+        /** Whether the dispatching event had be collected */
+        private boolean collected;
+
+        /** The deferred events, see {@link #deliver(Event, Subscriber, Subscriber)} */
+        private final Queue<Delivery<?>> deliveries = new ConcurrentLinkedQueue<>();
+
+        @Override public void accept(Event event) {
+            dispatch(event);
+        }
+
+        private void dispatch(Event event) {
+            collected = false;
+            try {
+                subscriberRegister.forEachSubscriber(event, this);
+            } finally {
+                if (collected) {
+                    deferredCount++;
+                } else {
+                    onPublished(1);
+                }
+            }
+        }
+
+        @Override public <T extends Event> void visit(T event,
+                                                      Subscriber<? super T> subscriber) {
+            if (subscriber instanceof BatchSubscriber) {
+                batches.computeIfAbsent((BatchSubscriber<?>) subscriber,
+                                        k -> new ArrayList<>()).add(event);
+                collected = true;
+            } else {
+                invokeSubscriberHandler(event, subscriber);
+            }
+        }
+
+        /**
+         * Invoke the subscribers of the deferred events, those had be
+         * delivered to this.
+         */
+        private void deliver() {
+            Delivery<?> delivery;
+            while ((delivery = deliveries.poll()) != null) {
+                try {
+                    delivery.run();
+                } finally {
+                    onPublished(1);
+                }
+            }
+        }
+
+        private void flush() {
+            if (deferredCount == 0) {
+                return;
+            }
+            try {
+                for (Map.Entry<BatchSubscriber<?>, List<Event>> batch : batches
+                        .entrySet()) {
+                    invokeBatchSubscriber(batch.getKey(), batch.getValue());
+                }
+            } finally {
+                batches.clear();
+                int count = deferredCount;
+                deferredCount = 0;
+                onPublished(count);
+            }
+        }
+    }
+
+    /** The deferred event, be delivered to a subscriber only */
+    private final class Delivery<T extends Event> implements Runnable {
+
+        private final T event;
+        private final Subscriber<? super T> subscriber;
+        private final Subscriber<? super T> source;
+
+        private Delivery(T event, Subscriber<? super T> subscriber,
+                         Subscriber<? super T> source) {
+            this.event = event;
+            this.subscriber = subscriber;
+            this.source = source;
+        }
+
+        @Override public void run() {
+            try {
+                subscriber.onEvent(event);
+            } catch (Exception e) {
+                subscribeExceptionHandler.handle(e, event, source);
+            }
+        }
+    }
+
+    /** The factory of lane worker threads */
+    private static final class BusThreadFactory implements ThreadFactory {
+
+        private final String threadName;
+
+        private BusThreadFactory(String busName, String role) {
+            this.threadName = "event-bus-" + (busName == null ? "" : busName + "-") + role;
+        }
+
+        @Override public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, threadName);
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
     static class UnmodifiableSubscriberRegister implements SubscriberRegister {
@@ -205,9 +1168,13 @@ public class EventBus {
         @Override
         public <T extends Event> Set<Subscriber<? super T>> subscribersOf(
                 T event) {
-            Set<Subscriber<? super T>> subscribers = subscriberRegister
-                    .subscribersOf(event);
-            return Collections.unmodifiableSet(subscribers);
+            return subscriberRegister.subscribersOf(event);
+        }
+
+        @Override
+        public <T extends Event> void forEachSubscriber(T event,
+                                                        SubscriberVisitor visitor) {
+            subscriberRegister.forEachSubscriber(event, visitor);
         }
 
         @Override public boolean contains(Subscriber<?> subscriber) {
@@ -228,6 +1195,26 @@ public class EventBus {
 
         private SubscribeExceptionHandler subscribeExceptionHandler;
 
+        private int laneCount;
+
+        private Function<? super Event, ?> partitioner = Event::triggerId;
+
+        private Executor executor;
+
+        private Supplier<? extends EventQueue> eventQueueFactory = EventRAMQueue::new;
+
+        private int drainBatchSize = Integer.MAX_VALUE;
+
+        private Executor handOffExecutor;
+
+        private int capacity;
+
+        private OverflowPolicy overflowPolicy = OverflowPolicy.REJECT;
+
+        private long blockTimeoutNanos = Long.MAX_VALUE;
+
+        private TimingWheel timingWheel;
+
         /**
          * Sets the exception subscribeExceptionHandler of this.
          *
@@ -239,16 +1226,306 @@ public class EventBus {
             this.subscribeExceptionHandler = subscribeExceptionHandler;
         }
 
+        /**
+         * Sets the count of partitioned lanes. Default is 0, i.e. the events
+         * will be published by the submitting thread.
+         * <p>
+         * When the lane count is positive, the events will be partitioned by
+         * {@link #setPartitioner(Function) partitioner} into lanes. Each lane
+         * has it's own worker thread (or shares the {@link
+         * #setExecutor(Executor) executor}), and publish events in order of
+         * submitted. So the events with equal partition key (by default, the
+         * trigger id) are published in order, and the events in different
+         * lanes are published in parallel.
+         * <p>
+         * Note, the subscribers are invoked by lane workers, so the {@link
+         * SubscribeScope#THREAD} subscribers registered by submitting thread
+         * will not receive the events.
+         *
+         * @param laneCount
+         *         the count of lanes, or 0 to disable partition
+         * @throws IllegalArgumentException
+         *         specified lane count is negative
+         */
+        public void setLaneCount(int laneCount) {
+            if (laneCount < 0) {
+                throw new IllegalArgumentException(
+                        "Lane count mustn't be negative: " + laneCount);
+            }
+            this.laneCount = laneCount;
+        }
+
+        /**
+         * Sets the executor to publish events. Default is null, i.e. the
+         * events will be published by the submitting thread, or by the lane
+         * workers if {@link #setLaneCount(int) partitioned}.
+         * <p>
+         * When the executor is set, {@link EventBus#submit(Event)} will return
+         * after the event be queued, and the events will be published by
+         * tasks run on the executor. The events of a lane still be published
+         * in order of submitted, even if the executor is a thread pool, or
+         * creates a thread per task. {@link EventBus#flush(long, TimeUnit)}
+         * can be used to wait for the pending events be published.
+         * <p>
+         * The executor will not be shutdown by {@link EventBus#close()}. As
+         * the lane workers, the {@link SubscribeScope#THREAD} subscribers
+         * registered by submitting thread will not receive the events.
+         *
+         * @param executor
+         *         the executor to publish events, or null to publish by the
+         *         submitting thread
+         */
+        public void setExecutor(Executor executor) {
+            this.executor = executor;
+        }
+
+        /**
+         * Sets the factory of event queues. Default creates {@link
+         * EventRAMQueue}. Each lane has it's own queue, and a queue only be
+         * consumed by one thread at a time, so the single consumer queue like
+         * {@link EventRingQueue#singleConsumer(int)} can be used.
+         * <p>
+         * If the queue is bounded and full, the submitted event will be
+         * handled by {@link #setOverflowPolicy(OverflowPolicy) overflow
+         * policy}.
+         *
+         * @param eventQueueFactory
+         *         the factory of event queues
+         * @throws NullPointerException
+         *         specified factory is null
+         */
+        public void setEventQueueFactory(
+                Supplier<? extends EventQueue> eventQueueFactory) {
+            this.eventQueueFactory = Objects.requireNonNull(eventQueueFactory);
+        }
+
+        /**
+         * Sets the capacity of each event queue. Default is 0, i.e. the
+         * capacity is determined by the queue created by {@link
+         * #setEventQueueFactory(Supplier) factory}, the default queue is
+         * unbounded.
+         * <p>
+         * When the capacity is positive, each queue (one per lane, if
+         * partitioned) will be bounded by {@link BoundedEventQueue}. The
+         * event submitted to a full queue will be handled by {@link
+         * #setOverflowPolicy(OverflowPolicy) overflow policy}. The {@link
+         * EventBus#queueDepth()} and {@link EventBus#droppedCount()} can be
+         * used to observe the queues.
+         *
+         * @param capacity
+         *         the capacity of each queue, or 0 to not bound
+         * @throws IllegalArgumentException
+         *         specified capacity is negative
+         */
+        public void setCapacity(int capacity) {
+            if (capacity < 0) {
+                throw new IllegalArgumentException(
+                        "Capacity mustn't be negative: " + capacity);
+            }
+            this.capacity = capacity;
+        }
+
+        /**
+         * Sets the policy to handle the event submitted to a full queue.
+         * Default is {@link OverflowPolicy#REJECT}.
+         * <p>
+         * {@link OverflowPolicy#DROP_OLDEST} removes the oldest event by the
+         * submitting thread, so the queue created by {@link
+         * #setEventQueueFactory(Supplier) factory} must support concurrent
+         * consumers, e.g. the default queue, or {@link
+         * EventRingQueue#multiConsumer(int)}.
+         * <p>
+         * A subscriber submitting events with {@link OverflowPolicy#BLOCK} to
+         * the full queue it is published from, will be rejected without
+         * blocking, since no other thread drains that queue.
+         * <p>
+         * {@link OverflowPolicy#CALLER_RUNS} can't be used with lanes, as it
+         * publishes the event outside the lane.
+         *
+         * @param overflowPolicy
+         *         the policy to handle the event submitted to a full queue
+         * @throws NullPointerException
+         *         specified policy is null
+         */
+        public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = Objects.requireNonNull(overflowPolicy);
+        }
+
+        /**
+         * Sets the maximum time to block the submitting thread by {@link
+         * OverflowPolicy#BLOCK}, the event will be rejected after timeout.
+         * Default is waiting without timeout.
+         *
+         * @param timeout
+         *         the maximum time to block
+         * @param unit
+         *         the time unit of the timeout argument
+         * @throws IllegalArgumentException
+         *         specified timeout is negative
+         * @throws NullPointerException
+         *         specified unit is null
+         */
+        public void setBlockTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException(
+                        "Timeout mustn't be negative: " + timeout);
+            }
+            this.blockTimeoutNanos = unit.toNanos(timeout);
+        }
+
+        /**
+         * Sets the timing wheel to submit delayed events. Default is null,
+         * i.e. use the {@link TimingWheel#getDefault() default timing
+         * wheel}.
+         * <p>
+         * The delayed events are submitted by the worker thread of timing
+         * wheel, so when the events are published by submitting thread, the
+         * worker will publish them. The timing wheel will not be closed by
+         * {@link EventBus#close()}.
+         *
+         * @param timingWheel
+         *         the timing wheel to submit delayed events, or null to use
+         *         the default one
+         * @see EventBus#submitAfter(Event, long, TimeUnit)
+         */
+        public void setTimingWheel(TimingWheel timingWheel) {
+            this.timingWheel = timingWheel;
+        }
+
+        /**
+         * Sets the maximum count of events published by a thread at once.
+         * Default is unbounded.
+         * <p>
+         * When the events are published by submitting thread, the thread
+         * publishes the events submitted by others concurrently too, so it
+         * will not return until the queue is empty. If a {@link
+         * #setHandOffExecutor(Executor) hand-off executor} is set, the thread
+         * will hand off the remaining events to the executor after published
+         * a batch; otherwise, the thread continues with the next batch.
+         * <p>
+         * The {@link BatchSubscriber}s receive the events at the end of each
+         * batch, so the size also bounds the lists they received.
+         * <p>
+         * When the events are published by lanes, a lane task will reschedule
+         * itself after published a batch, so the lanes sharing an {@link
+         * #setExecutor(Executor) executor} will not starve each other.
+         *
+         * @param drainBatchSize
+         *         the maximum count of events published at once
+         * @throws IllegalArgumentException
+         *         specified batch size isn't positive
+         */
+        public void setDrainBatchSize(int drainBatchSize) {
+            if (drainBatchSize <= 0) {
+                throw new IllegalArgumentException(
+                        "Drain batch size must be positive: " + drainBatchSize);
+            }
+            this.drainBatchSize = drainBatchSize;
+        }
+
+        /**
+         * Sets the executor to publish the remaining events, after the
+         * submitting thread published a {@link #setDrainBatchSize(int) batch}.
+         * Default is null, i.e. the submitting thread will publish until the
+         * queue is empty.
+         * <p>
+         * The remaining events are still published in order of submitted, by
+         * one task at a time. Be ignored if the events are published by lanes.
+         * If the executor rejects the task, the publishing thread continues
+         * to publish the remaining events.
+         *
+         * @param handOffExecutor
+         *         the executor to publish the remaining events, or null
+         */
+        public void setHandOffExecutor(Executor handOffExecutor) {
+            this.handOffExecutor = handOffExecutor;
+        }
+
+        /**
+         * Sets the function to get partition key of events. The events with
+         * equal partition key will be published in same lane. Default is
+         * {@link Event#triggerId()}.
+         *
+         * @param partitioner
+         *         the function to get partition key of events
+         * @throws NullPointerException
+         *         specified partitioner is null
+         * @see #setLaneCount(int)
+         */
+        public void setPartitioner(Function<? super Event, ?> partitioner) {
+            this.partitioner = Objects.requireNonNull(partitioner);
+        }
+
         /**
          * Build the event bus
          *
          * @return a event instance
+         * @throws IllegalStateException
+         *         the overflow policy is {@link OverflowPolicy#CALLER_RUNS},
+         *         and the events are published by lanes
          */
         public EventBus build() {
+            return build0(null);
+        }
+
+        /**
+         * Build the event bus, and register it with specified name. The
+         * registered event bus can be looked up by {@link
+         * EventBus#lookup(String)}, until it be closed.
+         *
+         * @param name
+         *         the name to register event bus
+         * @return a event instance
+         * @throws NullPointerException
+         *         specified name is null
+         * @throws IllegalArgumentException
+         *         specified name is {@link EventBus#DEFAULT_NAME}, or an event
+         *         bus had be registered with specified name
+         * @throws IllegalStateException
+         *         the overflow policy is {@link OverflowPolicy#CALLER_RUNS},
+         *         and the events are published by lanes
+         */
+        public EventBus build(String name) {
+            Objects.requireNonNull(name);
+            if (DEFAULT_NAME.equals(name)) {
+                throw new IllegalArgumentException(
+                        "The name " + name + " is reserved.");
+            }
+            if (EVENT_BUSES.containsKey(name)) {
+                throw alreadyRegistered(name);
+            }
+            EventBus eventBus = build0(name);
+            if (EVENT_BUSES.putIfAbsent(name, eventBus) != null) {
+                // registered by other thread, release the executors of it
+                eventBus.close();
+                throw alreadyRegistered(name);
+            }
+            return eventBus;
+        }
+
+        private static IllegalArgumentException alreadyRegistered(String name) {
+            return new IllegalArgumentException(
+                    "The event bus " + name + " already registered.");
+        }
+
+        private EventBus build0(String name) {
+            if (overflowPolicy == OverflowPolicy.CALLER_RUNS
+                && (laneCount > 0 || executor != null)) {
+                // the event published by caller breaks the order of lane
+                throw new IllegalStateException(
+                        "The caller runs policy can't be used with lanes.");
+            }
             if (subscribeExceptionHandler == null) {
                 subscribeExceptionHandler = DEFAULT_EXCEPTION_HANDLER;
             }
-            return new EventBus(this);
+            return new EventBus(name, this);
         }
     }
+
+    /** The lazy holder of default event bus */
+    private static final class DefaultHolder {
+
+        private static final EventBus DEFAULT_EVENT_BUS = new Builder()
+                .build0(DEFAULT_NAME);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event;
+
+/**
+ * The policy to handle the event submitted to a full event queue.
+ *
+ * @author hanpengfei
+ * @see EventBus.Builder#setOverflowPolicy(OverflowPolicy)
+ * @since 1.0
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Block the submitting thread until the queue has space, or the timeout
+     * elapses. The event will be rejected after timeout.
+     * <p>
+     * The thread draining the queue, i.e. a subscriber submits to the queue
+     * it is published from, will be rejected without blocking, as it would
+     * wait for itself.
+     */
+    BLOCK,
+
+    /**
+     * Throw {@link IllegalStateException} to the submitting thread.
+     */
+    REJECT,
+
+    /**
+     * Drop the oldest queued event, to make room for the submitted event.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Drop the submitted event silently.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Publish the submitted event by submitting thread, without queuing. The
+     * event may be published before the events queued earlier. Can't be used
+     * with lanes, as it would break the order of lane.
+     */
+    CALLER_RUNS
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event;
+
+import com.apehat.event.timer.TimingWheel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The {@link Subscriber} decorator, limits the rate of events passed to the
+ * decorated subscriber, per key or globally.
+ * <p>
+ * The events are limited by {@link Mode}. The timing wheel only times the
+ * intervals, so all rate limited subscribers share the timer threads of
+ * wheels, but never block them: the delayed event is handed back to the event
+ * bus published it, and be published by the lane of the event, or the thread
+ * publishes the bus, as the other events. So the delayed event is counted as
+ * pending, the exception thrown by decorated subscriber is handled by the
+ * {@link SubscribeExceptionHandler} of the bus, and the event is dropped after
+ * the bus closed. The delayed event isn't published by an event bus, is passed
+ * by the {@link ForkJoinPool#commonPool() common pool}, the exception will be
+ * logged.
+ * <p>
+ * Each key has a small state, be created at the first event of the key, and
+ * be removed at the end of the interval; the suppressed events only update the
+ * state, so don't allocate.
+ * <p>
+ * The events of different keys are limited independently. The events without
+ * key, i.e. the key function returned null, share a global state.
+ *
+ * @param <T>
+ *         the type of event
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class RateLimitedSubscriber<T extends Event>
+        implements Subscriber<T> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            RateLimitedSubscriber.class);
+
+    /** The key of the events without key */
+    private static final Object GLOBAL_KEY = new Object();
+
+    private final Mode mode;
+    private final Subscriber<T> subscriber;
+    private final long intervalNanos;
+    private final Function<? super T, ?> keyFunction;
+    private final TimingWheel timingWheel;
+
+    private final ConcurrentMap<Object, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * Create a rate limited subscriber.
+     *
+     * @param mode
+     *         the mode to limit events
+     * @param subscriber
+     *         the subscriber to decorate
+     * @param interval
+     *         the interval of mode
+     * @param unit
+     *         the time unit of interval
+     * @param keyFunction
+     *         the function to get key of events, or null to limit all events
+     *         globally
+     * @param timingWheel
+     *         the timing wheel to pass delayed events
+     * @throws NullPointerException
+     *         specified mode, subscriber, unit or timing wheel is null
+     * @throws IllegalArgumentException
+     *         specified interval isn't positive
+     */
+    public RateLimitedSubscriber(Mode mode, Subscriber<T> subscriber,
+                                 long interval, TimeUnit unit,
+                                 Function<? super T, ?> keyFunction,
+                                 TimingWheel timingWheel) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("Illegal interval: " + interval);
+        }
+        this.mode = Objects.requireNonNull(mode);
+        this.subscriber = Objects.requireNonNull(subscriber);
+        this.intervalNanos = unit.toNanos(interval);
+        this.keyFunction = keyFunction;
+        this.timingWheel = Objects.requireNonNull(timingWheel);
+    }
+
+    /**
+     * Decorate specified subscriber, to receive the last event of a burst
+     * per trigger id, after no event occurred in specified quiet period.
+     *
+     * @param subscriber
+     *         the subscriber to decorate
+     * @param quietPeriod
+     *         the quiet period
+     * @param unit
+     *         the time unit of quiet period
+     * @param <T>
+     *         the type of event
+     * @return a debounced subscriber
+     * @see Mode#DEBOUNCE
+     */
+    public static <T extends Event> RateLimitedSubscriber<T> debounce(
+            Subscriber<T> subscriber, long quietPeriod, TimeUnit unit) {
+        return new RateLimitedSubscriber<>(Mode.DEBOUNCE, subscriber,
+                                           quietPeriod, unit,
+                                           Event::triggerId,
+                                           TimingWheel.getDefault());
+    }
+
+    /**
+     * Decorate specified subscriber, to receive at most one event per
+     * specified interval per trigger id.
+     *
+     * @param subscriber
+     *         the subscriber to decorate
+     * @param interval
+     *         the interval
+     * @param unit
+     *         the time unit of interval
+     * @param <T>
+     *         the type of event
+     * @return a throttled subscriber
+     * @see Mode#THROTTLE
+     */
+    public static <T extends Event> RateLimitedSubscriber<T> throttle(
+            Subscriber<T> subscriber, long interval, TimeUnit unit) {
+        return new RateLimitedSubscriber<>(Mode.THROTTLE, subscriber,
+                                           interval, unit, Event::triggerId,
+                                           TimingWheel.getDefault());
+    }
+
+    /**
+     * Decorate specified subscriber, to receive the latest event per
+     * specified interval per trigger id.
+     *
+     * @param subscriber
+     *         the subscriber to decorate
+     * @param interval
+     *         the interval
+     * @param unit
+     *         the time unit of interval
+     * @param <T>
+     *         the type of event
+     * @return a sampled subscriber
+     * @see Mode#SAMPLE
+     */
+    public static <T extends Event> RateLimitedSubscriber<T> sample(
+            Subscriber<T> subscriber, long interval, TimeUnit unit) {
+        return new RateLimitedSubscriber<>(Mode.SAMPLE, subscriber, interval,
+                                           unit, Event::triggerId,
+                                           TimingWheel.getDefault());
+    }
+
+    /**
+     * Returns a subscriber, limits the events by same mode and interval, but
+     * globally.
+     *
+     * @return a subscriber, limits the events globally
+     */
+    public RateLimitedSubscriber<T> global() {
+        return new RateLimitedSubscriber<>(mode, subscriber, intervalNanos,
+                                           TimeUnit.NANOSECONDS, null,
+                                           timingWheel);
+    }
+
+    @Override public Class<? extends T> subscribeTo() {
+        return subscriber.subscribeTo();
+    }
+
+    @Override public SubscribeScope scope() {
+        return subscriber.scope();
+    }
+
+    @Override public void onEvent(T event) {
+        Object key = keyFunction == null ? null : keyFunction.apply(event);
+        if (key == null) {
+            key = GLOBAL_KEY;
+        }
+        State state = states.get(key);
+        if (state == null) {
+            state = states.computeIfAbsent(key, State::new);
+        }
+        EventBus eventBus = mode == Mode.THROTTLE ? null
+                : EventBus.publishing();
+        // retry with a new state, if the state had be removed
+        while (!(mode == Mode.THROTTLE ? state.throttle(event)
+                : state.delay(event, eventBus))) {
+            state = states.computeIfAbsent(key, State::new);
+        }
+    }
+
+    @Override public String toString() {
+        return "RateLimitedSubscriber{" + "mode=" + mode + ", subscriber="
+               + subscriber + '}';
+    }
+
+    /** The mode to limit events */
+    public enum Mode {
+
+        /**
+         * Pass the last event of a burst, after no event occurred in the
+         * interval. The events occurred continuously will be delayed, until
+         * the burst ended.
+         */
+        DEBOUNCE,
+
+        /**
+         * Pass the first event, then suppress the events in the interval.
+         */
+        THROTTLE,
+
+        /**
+         * Pass the latest event at the end of each interval, in which any
+         * event occurred.
+         */
+        SAMPLE
+    }
+
+    /**
+     * The state of a key. Be removed at the end of the interval; a removed
+     * state refuses the events, so each interval of a key has one state, and
+     * the events of the key after it will create a new state.
+     */
+    private final class State implements Runnable {
+
+        private final Object key;
+
+        /** The event waiting to be passed, guarded by this */
+        private T latest;
+
+        /**
+         * The event bus published the latest event, or null, guarded by this
+         */
+        private EventBus eventBus;
+
+        /** Whether a task had be scheduled, guarded by this */
+        private boolean scheduled;
+
+        /**
+         * The nano time of last event, or the end of throttle interval,
+         * guarded by this
+         */
+        private long time;
+
+        /** Whether this had be removed, guarded by this */
+        private boolean removed;
+
+        private State(Object key) {
+            this.key = key;
+        }
+
+        /**
+         * Pass specified event, if it starts a new interval.
+         *
+         * @return false if this had be removed, the event isn't handled
+         */
+        private boolean throttle(T event) {
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+                long now = System.nanoTime();
+                if (scheduled && now - time < 0) {
+                    return true;
+                }
+                time = now + intervalNanos;
+                if (!scheduled) {
+                    scheduled = true;
+                    // remove this at the end of the interval
+                    timingWheel.schedule(this, intervalNanos,
+                                         TimeUnit.NANOSECONDS);
+                }
+            }
+            subscriber.onEvent(event);
+            return true;
+        }
+
+        /**
+         * Keep specified event to be passed at the end of the interval.
+         *
+         * @return false if this had be removed, the event isn't handled
+         */
+        private synchronized boolean delay(T event, EventBus eventBus) {
+            if (removed) {
+                return false;
+            }
+            latest = event;
+            this.eventBus = eventBus;
+            time = System.nanoTime();
+            if (!scheduled) {
+                scheduled = true;
+                timingWheel.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+            }
+            return true;
+        }
+
+        @Override public void run() {
+            T event;
+            EventBus bus;
+            synchronized (this) {
+                long remaining = 0;
+                if (mode == Mode.THROTTLE) {
+                    remaining = time - System.nanoTime();
+                } else if (mode == Mode.DEBOUNCE) {
+                    // the burst isn't ended, if the last event is in the
+                    // interval
+                    remaining = time + intervalNanos - System.nanoTime();
+                }
+                if (remaining > 0) {
+                    timingWheel.schedule(this, remaining,
+                                         TimeUnit.NANOSECONDS);
+                    return;
+                }
+                // the events occurred after will be handled by a new state
+                removed = true;
+                states.remove(key, this);
+                event = latest;
+                bus = eventBus;
+                latest = null;
+                eventBus = null;
+            }
+            if (event == null) {
+                return;
+            }
+            if (bus != null) {
+                bus.deliver(event, subscriber, RateLimitedSubscriber.this);
+                return;
+            }
+            ForkJoinPool.commonPool().execute(() -> {
+                try {
+                    subscriber.onEvent(event);
+                } catch (RuntimeException e) {
+                    LOGGER.error("Exception occurred on pass {} to {}", event,
+                                 subscriber, e);
+                }
+            });
+        }
+    }
+}
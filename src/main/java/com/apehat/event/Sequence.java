@@ -0,0 +1,56 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The process wide monotonic sequence, shared by events and subscribers.
+ * <p>
+ * Unlike the wall clock, the sequence never goes back and never be repeated,
+ * so it can be used to determine whether a subscriber was registered before an
+ * event occurred.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class Sequence {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private Sequence() {
+    }
+
+    /**
+     * Returns the next sequence value. The returned value always greater than
+     * all values returned before.
+     *
+     * @return the next sequence value
+     */
+    public static long next() {
+        return SEQUENCE.incrementAndGet();
+    }
+
+    /**
+     * Returns the last returned sequence value.
+     *
+     * @return the last returned sequence value
+     */
+    public static long current() {
+        return SEQUENCE.get();
+    }
+}
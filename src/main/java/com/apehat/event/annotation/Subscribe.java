@@ -17,20 +17,34 @@
 package com.apehat.event.annotation;
 
 import com.apehat.event.Event;
+import com.apehat.event.SubscribeScope;
 import com.apehat.event.Subscriber;
 
 import java.lang.annotation.*;
 
 /**
- * Subscribe events by defined {@code Subscriber}s.
+ * Subscribe events by the annotated method, or by defined {@code Subscriber}s.
  * <p>
  * The annotation {@code Subscribe} is an compile time annotation. i.e. the
- * process action happened at compile time, and the generated class file will be
- * modifier at compile time.
+ * process action happened at compile time: for each type declares annotated
+ * methods, a registration class named {@code <Type>_Subscribers} will be
+ * generated in the same package, provides the subscribers of an instance of
+ * the type. The subscribers invoke the annotated methods directly, without
+ * reflection. The name of nested type is joined by '_', e.g. {@code
+ * Outer_Inner_Subscribers}.
  * <p>
- * The specified {@code subscriber} must have no parameter constructor; the
- * specified {@code EventSubscribers} must can onEvent the type of specified
- * {@code eventType}
+ * Without the annotation processor, the annotated methods also can be found
+ * at runtime by {@link com.apehat.event.EventBus#subscribeAll(Object)}, the
+ * annotation is retained at runtime for it.
+ * <p>
+ * If no {@code by} be specified, the annotated method will handle the events
+ * of specified {@code eventType}, so it must have exactly one parameter, can
+ * be assigned by the {@code eventType}; it mustn't be private, or throw
+ * checked exceptions.
+ * <p>
+ * Otherwise, the specified {@code subscriber} must have no parameter
+ * constructor; the specified {@code EventSubscribers} must can onEvent the
+ * type of specified {@code eventType}
  *
  * @author hanpengfei
  * @since 1.0
@@ -38,7 +52,7 @@ import java.lang.annotation.*;
 @Documented
 @Inherited
 @Repeatable(Subscribes.class)
-@Retention(RetentionPolicy.CLASS)
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Subscribe {
 
@@ -50,9 +64,19 @@ public @interface Subscribe {
     Class<? extends Event> evenType();
 
     /**
-     * The subscribers to subscribe specified event.
+     * The subscribers to subscribe specified event. Default is empty, i.e.
+     * the annotated method subscribe specified event.
      *
      * @return the subscribes to subscriber
      */
-    Class<? extends Subscriber>[] by();
+    Class<? extends Subscriber>[] by() default {};
+
+    /**
+     * The subscribe scope of the subscriber of annotated method, default is
+     * {@link SubscribeScope#THREAD}. Be ignored if {@link #by()} be
+     * specified.
+     *
+     * @return the subscribe scope
+     */
+    SubscribeScope scope() default SubscribeScope.THREAD;
 }
@@ -0,0 +1,139 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.annotation;
+
+import java.util.List;
+
+/**
+ * The rules of the types and methods declare {@link Subscribe}, shared by
+ * the annotation processor and the runtime binding of {@link
+ * com.apehat.event.EventBus#subscribeAll(Object)}, so a method is accepted
+ * by both or neither.
+ * <p>
+ * The rules are checked through the accessors of the model, the compile time
+ * model (javax.lang.model) or the runtime model (reflection).
+ *
+ * @param <T>
+ *         the type of the model of types
+ * @param <M>
+ *         the type of the model of methods
+ * @author hanpengfei
+ * @since 1.0
+ */
+public abstract class SubscribeRules<T, M> {
+
+    /**
+     * Check the type declares annotated methods.
+     *
+     * @param type
+     *         the declaring type
+     * @return the reason of violation, or null if specified type is valid
+     */
+    public final String checkDeclaringType(T type) {
+        for (T current = type; current != null;
+             current = enclosingType(current)) {
+            if (isPrivate(current)) {
+                return "The type declares @Subscribe methods mustn't be " +
+                       "private, or be enclosed by private type";
+            }
+        }
+        if (isLocalOrAnonymous(type)) {
+            return "The local or anonymous class can't declare @Subscribe " +
+                   "methods";
+        }
+        return null;
+    }
+
+    /**
+     * Check the annotated method, those handles the events itself, i.e.
+     * without {@link Subscribe#by()}.
+     *
+     * @param method
+     *         the annotated method
+     * @param eventType
+     *         the subscribed event type
+     * @return the reason of violation, or null if specified method is valid
+     */
+    public final String checkMethod(M method, T eventType) {
+        if (isPrivateMethod(method)) {
+            return "The @Subscribe method mustn't be private";
+        }
+        List<? extends T> parameters = parameterTypes(method);
+        if (parameters.size() != 1 || !isAssignable(eventType,
+                                                    parameters.get(0))) {
+            return "The @Subscribe method must have exactly one parameter, " +
+                   "can be assigned by " + nameOf(eventType);
+        }
+        for (T thrown : thrownTypes(method)) {
+            if (!isUnchecked(thrown)) {
+                return "The @Subscribe method mustn't throw checked " +
+                       "exception " + nameOf(thrown);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check the subscriber type specified by {@link Subscribe#by()}.
+     *
+     * @param subscriberType
+     *         the subscriber type
+     * @return the reason of violation, or null if specified type is valid
+     */
+    public final String checkSubscriberType(T subscriberType) {
+        if (isAbstract(subscriberType)
+            || !hasPublicNoArgConstructor(subscriberType)) {
+            return "The subscriber " + nameOf(subscriberType) + " must be " +
+                   "concrete, and have public no parameter constructor";
+        }
+        return null;
+    }
+
+    /**
+     * Returns the type encloses specified type, or null if specified type is
+     * top level.
+     */
+    protected abstract T enclosingType(T type);
+
+    protected abstract boolean isPrivate(T type);
+
+    protected abstract boolean isLocalOrAnonymous(T type);
+
+    protected abstract boolean isAbstract(T type);
+
+    protected abstract boolean hasPublicNoArgConstructor(T type);
+
+    /**
+     * Returns true if the value of specified type can be assigned to the
+     * variable of specified target type.
+     */
+    protected abstract boolean isAssignable(T type, T target);
+
+    /**
+     * Returns true if specified throwable type is a runtime exception or an
+     * error.
+     */
+    protected abstract boolean isUnchecked(T throwableType);
+
+    protected abstract String nameOf(T type);
+
+    protected abstract boolean isPrivateMethod(M method);
+
+    protected abstract List<? extends T> parameterTypes(M method);
+
+    protected abstract List<? extends T> thrownTypes(M method);
+}
@@ -24,7 +24,7 @@ import java.lang.annotation.*;
  */
 @Documented
 @Inherited
-@Retention(RetentionPolicy.CLASS)
+@Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Subscribes {
 
@@ -17,36 +17,69 @@
 package com.apehat.event.complier;
 
 import com.apehat.event.annotation.Subscribe;
+import com.apehat.event.annotation.SubscribeRules;
 import com.apehat.event.annotation.Subscribes;
+import com.apehat.event.register.SubscriberIndexLoader;
 
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
 import javax.annotation.processing.Messager;
 import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.*;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.MirroredTypesException;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 import javax.tools.Diagnostic;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
 
 /**
  * The {@code Subscribe} and {@code Subscribers} annotation processor.
  * <p>
- * This processor will process annotation and onEvent at Java compiler. And will
- * change byte code.
+ * This processor will process annotation at Java compiler, and generate a
+ * registration class per type declares annotated methods. The registration
+ * class has a {@link com.apehat.event.Subscriber} implementation per
+ * annotated method, invokes the method directly, so the annotated methods
+ * will be invoked without reflection, and without scanning at runtime.
+ * <p>
+ * All generated registrations are listed in the subscriber index resource
+ * {@value SubscriberIndexLoader#INDEX_RESOURCE}, so they can be registered
+ * at startup by {@link SubscriberIndexLoader}.
  *
  * @author hanpengfei
  * @since 1.0
  */
 public final class SubscribeProcessor extends AbstractProcessor {
 
+    /** The suffix of the name of generated registration classes */
+    static final String REGISTRATION_SUFFIX = "_Subscribers";
+
+    /** The lines of subscriber index, be written when processing over */
+    private final List<String> indexLines = new ArrayList<>();
+
     private Messager messager;
+    private Filer filer;
+    private Elements elements;
+    private Types types;
+    private ModelRules rules;
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
         super.init(processingEnv);
         messager = processingEnv.getMessager();
+        filer = processingEnv.getFiler();
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        rules = new ModelRules();
     }
 
     private void error(Element element, Object... args) {
@@ -54,21 +87,28 @@ public final class SubscribeProcessor extends AbstractProcessor {
                 "Only element can be annotated with @%s", args), element);
     }
 
+    private void printError(Element element, String message) {
+        messager.printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
     @Override
     public boolean process(Set<? extends TypeElement> annotations,
                            RoundEnvironment roundEnv) {
 
-        Set<AnnotatedMethod> methods = new HashSet<>();
+        Set<AnnotatedMethod> methods = new LinkedHashSet<>();
 
         methods.addAll(subscribersAnnotatedMethods(roundEnv));
         methods.addAll(subscriberAnnotatedMethods(roundEnv));
         processSubscribe(methods);
+        if (roundEnv.processingOver()) {
+            writeIndex();
+        }
         return true;
     }
 
     private Set<AnnotatedMethod> subscriberAnnotatedMethods(
             RoundEnvironment roundEnv) {
-        Set<AnnotatedMethod> methods = new HashSet<>();
+        Set<AnnotatedMethod> methods = new LinkedHashSet<>();
         // the elements what had be annotated by Subscriber
         Set<? extends Element> subAnnotationMethods = roundEnv
                 .getElementsAnnotatedWith(Subscribe.class);
@@ -88,7 +128,7 @@ public final class SubscribeProcessor extends AbstractProcessor {
 
     private Set<AnnotatedMethod> subscribersAnnotatedMethods(
             RoundEnvironment roundEnv) {
-        Set<AnnotatedMethod> methods = new HashSet<>();
+        Set<AnnotatedMethod> methods = new LinkedHashSet<>();
         // the elements what had be annotated by Subscribers
         Set<? extends Element> subsAnnotationMethods = roundEnv
                 .getElementsAnnotatedWith(Subscribes.class);
@@ -111,9 +151,165 @@ public final class SubscribeProcessor extends AbstractProcessor {
         return methods;
     }
 
+    /**
+     * Validate the annotated methods, and generate a registration class per
+     * declaring type.
+     */
     private void processSubscribe(Set<AnnotatedMethod> methods) {
-        messager.printMessage(Diagnostic.Kind.NOTE,
-                              "Process " + methods.toString());
+        Map<TypeElement, List<AnnotatedMethod>> methodsByType = new LinkedHashMap<>();
+        for (AnnotatedMethod method : methods) {
+            methodsByType.computeIfAbsent(method.declaringType(),
+                                          k -> new ArrayList<>()).add(method);
+        }
+        for (Map.Entry<TypeElement, List<AnnotatedMethod>> entry : methodsByType
+                .entrySet()) {
+            TypeElement type = entry.getKey();
+            // in order of declared, so the generated source is stable
+            List<? extends Element> members = type.getEnclosedElements();
+            entry.getValue().sort(Comparator.comparingInt(
+                    method -> members.indexOf(method.element)));
+            boolean valid = validate(type);
+            for (AnnotatedMethod method : entry.getValue()) {
+                valid &= validate(method);
+            }
+            if (valid) {
+                generate(type, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Write the subscriber index of all generated registrations, so they can
+     * be loaded by {@link SubscriberIndexLoader} without scanning.
+     */
+    private void writeIndex() {
+        if (indexLines.isEmpty()) {
+            return;
+        }
+        try {
+            FileObject file = filer.createResource(
+                    StandardLocation.CLASS_OUTPUT, "",
+                    SubscriberIndexLoader.INDEX_RESOURCE);
+            try (Writer writer = file.openWriter()) {
+                writer.write("# Generated by " + getClass().getName()
+                             + ", do not edit.\n");
+                writer.write("# registration\tdeclaring type\tevent type"
+                             + "\tsubscriber\tscope\n");
+                for (String line : indexLines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR,
+                                  "Failed to write subscriber index: " + e);
+        }
+        indexLines.clear();
+    }
+
+    private boolean validate(TypeElement type) {
+        String violation = rules.checkDeclaringType(type.asType());
+        if (violation != null) {
+            printError(type, violation);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean validate(AnnotatedMethod method) {
+        ExecutableElement element = method.element;
+        if (method.subscriberTypes().isEmpty()) {
+            String violation = rules.checkMethod(element, method.eventType());
+            if (violation != null) {
+                printError(element, violation);
+                return false;
+            }
+            return true;
+        }
+        for (TypeMirror subscriberType : method.subscriberTypes()) {
+            String violation = rules.checkSubscriberType(subscriberType);
+            if (violation != null) {
+                printError(element, violation);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type, List<AnnotatedMethod> methods) {
+        String packageName = elements.getPackageOf(type).getQualifiedName()
+                                     .toString();
+        String className = registrationClassName(type);
+        String qualifiedName = packageName.isEmpty() ? className
+                : packageName + "." + className;
+        try {
+            JavaFileObject file = filer.createSourceFile(qualifiedName, type);
+            try (Writer writer = file.openWriter()) {
+                writer.write(new RegistrationWriter(packageName, className,
+                                                   type, methods).write());
+            }
+            index(qualifiedName, type, methods);
+        } catch (IOException e) {
+            printError(type, "Failed to generate " + qualifiedName + ": " + e);
+        }
+    }
+
+    private void index(String registration, TypeElement type,
+                       List<AnnotatedMethod> methods) {
+        String declaringType = elements.getBinaryName(type).toString();
+        for (int i = 0; i < methods.size(); i++) {
+            AnnotatedMethod method = methods.get(i);
+            String eventType = binaryName(method.eventType());
+            if (method.subscriberTypes().isEmpty()) {
+                indexLines.add(String.join(
+                        "\t", registration, declaringType, eventType,
+                        registration + "$" + adapterName(method, i),
+                        method.annotation.scope().name()));
+            } else {
+                for (TypeMirror subscriber : method.subscriberTypes()) {
+                    indexLines.add(String.join(
+                            "\t", registration, declaringType, eventType,
+                            binaryName(subscriber),
+                            SubscriberIndexLoader.UNKNOWN_SCOPE));
+                }
+            }
+        }
+    }
+
+    private String binaryName(TypeMirror type) {
+        return elements.getBinaryName((TypeElement) types.asElement(type))
+                       .toString();
+    }
+
+    /**
+     * Returns the name of the subscriber adapter of specified method.
+     *
+     * @param method
+     *         the annotated method
+     * @param index
+     *         the index of the method in it's declaring type
+     * @return the simple name of the adapter class
+     */
+    private static String adapterName(AnnotatedMethod method, int index) {
+        String name = method.element.getSimpleName().toString();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1)
+               + "Subscriber" + index;
+    }
+
+    /**
+     * Returns the simple name of the registration class of specified type.
+     *
+     * @param type
+     *         the type declares annotated methods
+     * @return the simple name of the registration class
+     */
+    static String registrationClassName(TypeElement type) {
+        Deque<String> names = new ArrayDeque<>();
+        for (Element element = type; element instanceof TypeElement;
+             element = element.getEnclosingElement()) {
+            names.addFirst(element.getSimpleName().toString());
+        }
+        return String.join("_", names) + REGISTRATION_SUFFIX;
     }
 
     @Override public Set<String> getSupportedAnnotationTypes() {
@@ -127,6 +323,209 @@ public final class SubscribeProcessor extends AbstractProcessor {
         return SourceVersion.latestSupported();
     }
 
+    /** The writer of the source of registration class */
+    private final class RegistrationWriter {
+
+        private final String packageName;
+        private final String className;
+        private final TypeElement type;
+        private final List<AnnotatedMethod> methods;
+        private final String typeName;
+        private final StringBuilder source = new StringBuilder();
+
+        private RegistrationWriter(String packageName, String className,
+                                   TypeElement type,
+                                   List<AnnotatedMethod> methods) {
+            this.packageName = packageName;
+            this.className = className;
+            this.type = type;
+            this.methods = methods;
+            this.typeName = types.erasure(type.asType()).toString();
+        }
+
+        private String write() {
+            line(0, "// Generated by " + SubscribeProcessor.class.getName()
+                    + ", do not edit.");
+            if (!packageName.isEmpty()) {
+                line(0, "package " + packageName + ";");
+                line(0, "");
+            }
+            if (!type.getTypeParameters().isEmpty()) {
+                line(0, "@SuppressWarnings(\"rawtypes\")");
+            }
+            line(0, "public final class " + className
+                    + " implements com.apehat.event.register.SubscriberRegistration<"
+                    + typeName + "> {");
+            line(0, "");
+            line(1, "/**");
+            line(1, " * Be invoked by com.apehat.event.register.SubscriberIndexLoader.");
+            line(1, " */");
+            line(1, "public " + className + "() {");
+            line(1, "}");
+            line(0, "");
+            writeSubscribersOf();
+            line(0, "");
+            writeSubscribers();
+            line(0, "");
+            writeCollect();
+            line(0, "");
+            writeSubscribe();
+            for (int i = 0; i < methods.size(); i++) {
+                AnnotatedMethod method = methods.get(i);
+                if (method.subscriberTypes().isEmpty()) {
+                    line(0, "");
+                    writeAdapter(adapterName(method, i), method);
+                }
+            }
+            line(0, "}");
+            return source.toString();
+        }
+
+        private void writeSubscribersOf() {
+            line(1, "/**");
+            line(1, " * Returns the subscribers declared by specified target.");
+            line(1, " *");
+            line(1, " * @param target");
+            line(1, " *         the target to invoke subscribe methods");
+            line(1, " * @return the unmodifiable list of subscribers");
+            line(1, " */");
+            line(1, "public static java.util.List<com.apehat.event.Subscriber<?>> subscribersOf(");
+            line(3, typeName + " target) {");
+            if (hasInstanceMethod()) {
+                line(2, "java.util.Objects.requireNonNull(target);");
+            }
+            line(2, "return collect(target);");
+            line(1, "}");
+        }
+
+        private void writeSubscribers() {
+            line(1, "@Override");
+            line(1, "public java.util.List<com.apehat.event.Subscriber<?>> subscribers("
+                    + typeName + " target) {");
+            line(2, "return collect(target);");
+            line(1, "}");
+        }
+
+        private void writeCollect() {
+            line(1, "private static java.util.List<com.apehat.event.Subscriber<?>> collect(");
+            line(3, typeName + " target) {");
+            line(2, "java.util.List<com.apehat.event.Subscriber<?>> subscribers = new java.util.ArrayList<>("
+                    + subscriberCount() + ");");
+            for (int i = 0; i < methods.size(); i++) {
+                AnnotatedMethod method = methods.get(i);
+                if (method.subscriberTypes().isEmpty()) {
+                    if (method.isStatic()) {
+                        line(2, "subscribers.add(new " + adapterName(method, i)
+                                + "());");
+                    } else {
+                        line(2, "if (target != null) {");
+                        line(3, "subscribers.add(new " + adapterName(method, i)
+                                + "(target));");
+                        line(2, "}");
+                    }
+                } else {
+                    for (TypeMirror subscriber : method.subscriberTypes()) {
+                        line(2, "subscribers.add(new "
+                                + types.erasure(subscriber) + "());");
+                    }
+                }
+            }
+            line(2, "return java.util.Collections.unmodifiableList(subscribers);");
+            line(1, "}");
+        }
+
+        private void writeSubscribe() {
+            line(1, "/**");
+            line(1, " * Subscribe the subscribers declared by specified target to specified event bus.");
+            line(1, " *");
+            line(1, " * @param eventBus");
+            line(1, " *         the event bus to subscribe");
+            line(1, " * @param target");
+            line(1, " *         the target to invoke subscribe methods");
+            line(1, " */");
+            line(1, "public static void subscribe(com.apehat.event.EventBus eventBus, "
+                    + typeName + " target) {");
+            line(2, "for (com.apehat.event.Subscriber<?> subscriber : subscribersOf(target)) {");
+            line(3, "eventBus.subscribe(subscriber);");
+            line(2, "}");
+            line(1, "}");
+        }
+
+        private void writeAdapter(String name, AnnotatedMethod method) {
+            String eventType = types.erasure(method.eventType()).toString();
+            boolean isStatic = method.isStatic();
+            line(1, "private static final class " + name
+                    + " implements com.apehat.event.Subscriber<" + eventType + "> {");
+            line(0, "");
+            if (!isStatic) {
+                line(2, "private final " + typeName + " target;");
+                line(0, "");
+                line(2, "private " + name + "(" + typeName + " target) {");
+                line(3, "this.target = target;");
+                line(2, "}");
+                line(0, "");
+            }
+            line(2, "@Override public Class<? extends " + eventType + "> subscribeTo() {");
+            line(3, "return " + eventType + ".class;");
+            line(2, "}");
+            line(0, "");
+            // cast to the exact parameter type, so the invocation always binds
+            // to the annotated method, rather than an overload
+            String parameterType = types.erasure(
+                    method.element.getParameters().get(0).asType()).toString();
+            line(2, "@Override public void onEvent(" + eventType + " event) {");
+            line(3, (isStatic ? typeName : "target") + "."
+                    + method.element.getSimpleName() + "((" + parameterType
+                    + ") event);");
+            line(2, "}");
+            line(0, "");
+            line(2, "@Override public com.apehat.event.SubscribeScope scope() {");
+            line(3, "return com.apehat.event.SubscribeScope."
+                    + method.annotation.scope().name() + ";");
+            line(2, "}");
+            line(0, "");
+            line(2, "@Override public boolean equals(Object o) {");
+            line(3, "return o instanceof " + name + (isStatic ? ""
+                    : " && ((" + name + ") o).target == target") + ";");
+            line(2, "}");
+            line(0, "");
+            line(2, "@Override public int hashCode() {");
+            line(3, "return " + (isStatic ? name + ".class.hashCode()"
+                    : "System.identityHashCode(target)") + ";");
+            line(2, "}");
+            line(0, "");
+            line(2, "@Override public String toString() {");
+            line(3, "return \"" + typeName + "#" + method.element.getSimpleName()
+                    + "(" + eventType + ")\";");
+            line(2, "}");
+            line(1, "}");
+        }
+
+        private boolean hasInstanceMethod() {
+            for (AnnotatedMethod method : methods) {
+                if (method.subscriberTypes().isEmpty() && !method.isStatic()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int subscriberCount() {
+            int count = 0;
+            for (AnnotatedMethod method : methods) {
+                count += Math.max(method.subscriberTypes().size(), 1);
+            }
+            return count;
+        }
+
+        private void line(int indent, String line) {
+            for (int i = 0; i < indent; i++) {
+                source.append("    ");
+            }
+            source.append(line).append('\n');
+        }
+    }
+
     private static class AnnotatedMethod {
 
         private final Subscribe annotation;
@@ -144,16 +543,43 @@ public final class SubscribeProcessor extends AbstractProcessor {
             this.element = (ExecutableElement) element;
         }
 
+        private TypeElement declaringType() {
+            return (TypeElement) element.getEnclosingElement();
+        }
+
+        private boolean isStatic() {
+            return element.getModifiers().contains(Modifier.STATIC);
+        }
+
         /**
-         * Determine whether the element is a normal class member, or is an
-         * abstract class member and isn't abstract.
+         * Returns the subscribed event type. The class value of annotation
+         * can't be loaded at compile time, so be get from the exception.
          *
-         * @return true, the element is belong to a normal class, or abstract
-         * class and isn't abstract.
+         * @return the subscribed event type
          */
-        private boolean isNormalMethod() {
-            Set<Modifier> modifiers = element.getModifiers();
-            return false;
+        private TypeMirror eventType() {
+            try {
+                annotation.evenType();
+            } catch (MirroredTypeException e) {
+                return e.getTypeMirror();
+            }
+            throw new IllegalStateException("The event type had be loaded.");
+        }
+
+        /**
+         * Returns the subscriber types specified by {@link Subscribe#by()}.
+         *
+         * @return the specified subscriber types, or an empty list
+         */
+        private List<? extends TypeMirror> subscriberTypes() {
+            try {
+                if (annotation.by().length == 0) {
+                    return Collections.emptyList();
+                }
+            } catch (MirroredTypesException e) {
+                return e.getTypeMirrors();
+            }
+            throw new IllegalStateException("The subscriber types had be loaded.");
         }
 
         @Override public boolean equals(Object o) {
@@ -179,4 +605,80 @@ public final class SubscribeProcessor extends AbstractProcessor {
             return "AnnotatedMethod{" + "annotation=" + annotation + ", element=" + element + '}';
         }
     }
+
+    /**
+     * The {@link SubscribeRules} of the compile time model.
+     */
+    private final class ModelRules
+            extends SubscribeRules<TypeMirror, ExecutableElement> {
+
+        @Override protected TypeMirror enclosingType(TypeMirror type) {
+            Element enclosing = types.asElement(type).getEnclosingElement();
+            return enclosing instanceof TypeElement ? enclosing.asType() : null;
+        }
+
+        @Override protected boolean isPrivate(TypeMirror type) {
+            return types.asElement(type).getModifiers().contains(
+                    Modifier.PRIVATE);
+        }
+
+        @Override protected boolean isLocalOrAnonymous(TypeMirror type) {
+            NestingKind nestingKind = ((TypeElement) types.asElement(type))
+                    .getNestingKind();
+            return nestingKind == NestingKind.LOCAL
+                   || nestingKind == NestingKind.ANONYMOUS;
+        }
+
+        @Override protected boolean isAbstract(TypeMirror type) {
+            return types.asElement(type).getModifiers().contains(
+                    Modifier.ABSTRACT);
+        }
+
+        @Override protected boolean hasPublicNoArgConstructor(TypeMirror type) {
+            for (ExecutableElement constructor : ElementFilter.constructorsIn(
+                    types.asElement(type).getEnclosedElements())) {
+                if (constructor.getParameters().isEmpty() && constructor
+                        .getModifiers().contains(Modifier.PUBLIC)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        protected boolean isAssignable(TypeMirror type, TypeMirror target) {
+            return types.isAssignable(type, target);
+        }
+
+        @Override protected boolean isUnchecked(TypeMirror throwableType) {
+            return types.isSubtype(throwableType, typeOf(RuntimeException.class))
+                   || types.isSubtype(throwableType, typeOf(Error.class));
+        }
+
+        private TypeMirror typeOf(Class<?> type) {
+            return elements.getTypeElement(type.getName()).asType();
+        }
+
+        @Override protected String nameOf(TypeMirror type) {
+            return type.toString();
+        }
+
+        @Override protected boolean isPrivateMethod(ExecutableElement method) {
+            return method.getModifiers().contains(Modifier.PRIVATE);
+        }
+
+        @Override protected List<? extends TypeMirror> parameterTypes(
+                ExecutableElement method) {
+            List<TypeMirror> parameterTypes = new ArrayList<>();
+            for (VariableElement parameter : method.getParameters()) {
+                parameterTypes.add(parameter.asType());
+            }
+            return parameterTypes;
+        }
+
+        @Override protected List<? extends TypeMirror> thrownTypes(
+                ExecutableElement method) {
+            return method.getThrownTypes();
+        }
+    }
 }
@@ -17,11 +17,11 @@
 package com.apehat.event.register;
 
 import com.apehat.event.Event;
+import com.apehat.event.Sequence;
 import com.apehat.event.SubscribeScope;
 import com.apehat.event.Subscriber;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * @author hanpengfei
@@ -30,6 +30,9 @@ import java.util.concurrent.ConcurrentSkipListSet;
 public abstract class AbstractTimeStampedSubscriberRegister
         implements SubscriberRegister {
 
+    /** The index of {@link #allSubscribers()}, or null if not be used */
+    private volatile SubscriberTypeIndex collectionIndex;
+
     @Override public <T extends Event> void register(Subscriber<T> subscriber) {
         if (!registrable(subscriber)) {
             throw new IllegalArgumentException(String.format(
@@ -43,73 +46,174 @@ public abstract class AbstractTimeStampedSubscriberRegister
         }
     }
 
+    /**
+     * Register all specified subscribers by {@link
+     * #doRegisterAll(Collection)}. The subscribers are validated before any
+     * of them be registered.
+     */
+    @Override
+    public void registerAll(Collection<? extends Subscriber<?>> subscribers) {
+        List<TimeStampedSubscriber<?>> registrable = new ArrayList<>(
+                subscribers.size());
+        for (Subscriber<?> subscriber : subscribers) {
+            if (!registrable(Objects.requireNonNull(subscriber))) {
+                throw new IllegalArgumentException(String.format(
+                        "%s unsupported register to %s. owned: %s",
+                        subscriber, getClass(), subscriber.scope()));
+            }
+            TimeStampedSubscriber<?> timeStampedSubscriber = cast(subscriber);
+            if (!contains(timeStampedSubscriber)) {
+                registrable.add(timeStampedSubscriber);
+            }
+        }
+        if (!registrable.isEmpty()) {
+            doRegisterAll(registrable);
+        }
+    }
+
     @Override
     public <T extends Event> void unregister(Subscriber<T> subscriber) {
         TimeStampedSubscriber<T> timeStampedSubscriber = cast(subscriber);
-        if (contains(timeStampedSubscriber)) {
+        if (subscriberIndex().remove(timeStampedSubscriber)
+            && collectionIndex != null) {
             allSubscribers().remove(timeStampedSubscriber);
         }
     }
 
     @Override
     public <T extends Event> Set<Subscriber<? super T>> subscribersOf(T event) {
-        return doSearchByEvent(allSubscribers(), Objects.requireNonNull(event));
+        return doSearchByEvent(subscriberIndex(), Objects.requireNonNull(event));
+    }
+
+    @Override
+    public <T extends Event> void forEachSubscriber(T event,
+                                                    SubscriberVisitor visitor) {
+        Objects.requireNonNull(event);
+        Objects.requireNonNull(visitor);
+        TimeStampedSubscriber<?>[] candidates = subscriberIndex()
+                .subscribersOf(event.getClass());
+        int cutoff = cutoff(candidates, event.sequence());
+        for (int i = 0; i < cutoff; i++) {
+            @SuppressWarnings("unchecked") Subscriber<? super T> source = (Subscriber<? super T>) candidates[i].source;
+            visitor.visit(event, source);
+        }
     }
 
     @Override public boolean contains(Subscriber<?> subscriber) {
-        return subscriber != null && allSubscribers()
+        return subscriber != null && subscriberIndex()
                 .contains(cast(subscriber));
     }
 
     protected void doRegister(TimeStampedSubscriber<?> subscriber) {
         assert subscriber != null;
-        allSubscribers().add(subscriber);
+        if (subscriberIndex().add(subscriber) && collectionIndex != null) {
+            allSubscribers().add(subscriber);
+        }
+    }
+
+    /**
+     * Register the specified subscribers, those haven't be registered, at
+     * once. Be invoked by {@link #registerAll(Collection)}.
+     *
+     * @param subscribers
+     *         the subscribers to register, not empty
+     */
+    protected void doRegisterAll(
+            Collection<? extends TimeStampedSubscriber<?>> subscribers) {
+        assert subscribers != null;
+        if (subscriberIndex().addAll(subscribers) != 0
+            && collectionIndex != null) {
+            for (TimeStampedSubscriber<?> subscriber : subscribers) {
+                if (!allSubscribers().contains(subscriber)) {
+                    allSubscribers().add(subscriber);
+                }
+            }
+        }
     }
 
     /**
      * Returns the all subscribers of the current register.
      * <p>
+     * The subclass, those doesn't override {@link #subscriberIndex()},
+     * returns the modifiable collection holds the subscribers, the subscribers
+     * be indexed at the first access, and the collection is kept in step with
+     * the index, so it mustn't be modified other than by this register. The
+     * others return an unmodifiable view of their index.
+     *
+     * @return all subscribers collection, or an empty collection
+     */
+    protected abstract Collection<TimeStampedSubscriber<?>> allSubscribers();
+
+    /**
+     * Returns the subscriber index of the current register. Defaults to the
+     * index built from {@link #allSubscribers()}.
+     * <p>
      * The implement invoked by {@link #unregister(Subscriber)}, {@link
      * #subscribersOf(Event)}, {@link #contains(Subscriber)}, {@link
      * #doRegister(TimeStampedSubscriber)}
      *
-     * @return all subscribers collection, or an empty collection
+     * @return the subscriber index of the current register
      */
-    protected abstract Collection<TimeStampedSubscriber<?>> allSubscribers();
+    SubscriberTypeIndex subscriberIndex() {
+        SubscriberTypeIndex index = collectionIndex;
+        if (index == null) {
+            synchronized (this) {
+                index = collectionIndex;
+                if (index == null) {
+                    index = new SubscriberTypeIndex();
+                    index.addAll(allSubscribers());
+                    collectionIndex = index;
+                }
+            }
+        }
+        return index;
+    }
 
     private <T extends Event> Set<Subscriber<? super T>> doSearchByEvent(
-            Collection<TimeStampedSubscriber<?>> registeredSubscribers,
-            T event) {
-        assert registeredSubscribers != null;
+            SubscriberTypeIndex subscriberIndex, T event) {
+        assert subscriberIndex != null;
         assert event != null;
 
-        registeredSubscribers = new ConcurrentSkipListSet<>(
-                registeredSubscribers);
+        TimeStampedSubscriber<?>[] candidates = subscriberIndex
+                .subscribersOf(event.getClass());
+        // already sorted by sequence, the subscribers subscribe after
+        // event occurred are all after the cutoff
+        int cutoff = cutoff(candidates, event.sequence());
+        if (cutoff == 0) {
+            return Collections.emptySet();
+        }
 
         Set<Subscriber<? super T>> subscribers = new HashSet<>();
-        for (TimeStampedSubscriber subscriber : registeredSubscribers) {
-            // already sorted by timestamp
-            // so, if the subscriber subscribe after event occur time
-            // need search successor nodes
-            if (isSubscribeAfter(subscriber, event)) {
-                break;
-            }
-
-            if (isSubscribed(subscriber, event)) {
-                @SuppressWarnings("unchecked") Subscriber<? super T> source = subscriber.source;
-                subscribers.add(source);
-            }
+        for (int i = 0; i < cutoff; i++) {
+            @SuppressWarnings("unchecked") Subscriber<? super T> source = (Subscriber<? super T>) candidates[i].source;
+            subscribers.add(source);
         }
         return Collections.unmodifiableSet(subscribers);
     }
 
-    private boolean isSubscribeAfter(TimeStampedSubscriber subscriber,
-                                     Event event) {
-        return subscriber.timestamp > event.occurredOn();
-    }
-
-    private boolean isSubscribed(Subscriber<?> subscriber, Event event) {
-        return subscriber.subscribeTo().isAssignableFrom(event.getClass());
+    /**
+     * Returns the count of subscribers, those subscribed before the specified
+     * sequence.
+     *
+     * @param subscribers
+     *         the subscribers sorted by sequence
+     * @param sequence
+     *         the sequence of event
+     * @return the index of first subscriber subscribed after the specified
+     * sequence, or the length of subscribers
+     */
+    static int cutoff(TimeStampedSubscriber<?>[] subscribers, long sequence) {
+        int low = 0;
+        int high = subscribers.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (subscribers[mid].sequence > sequence) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
     }
 
     private <T extends Event> TimeStampedSubscriber<T> cast(
@@ -123,12 +227,21 @@ public abstract class AbstractTimeStampedSubscriberRegister
             implements Subscriber<T>, Comparable<TimeStampedSubscriber> {
 
         private final Subscriber<T> source;
-        private final long timestamp;
+        private final long sequence;
 
         TimeStampedSubscriber(Subscriber<T> source) {
             assert source != null;
             this.source = source;
-            this.timestamp = System.currentTimeMillis();
+            this.sequence = Sequence.next();
+        }
+
+        /**
+         * Returns the {@link Sequence} value of this be created.
+         *
+         * @return the sequence value of this be created
+         */
+        long sequence() {
+            return sequence;
         }
 
         @Override public Class<? extends T> subscribeTo() {
@@ -161,14 +274,7 @@ public abstract class AbstractTimeStampedSubscriberRegister
         }
 
         @Override public int compareTo(TimeStampedSubscriber o) {
-            long value = timestamp - o.timestamp;
-            if (value > 0) {
-                return 1;
-            } else if (value == 0) {
-                return 0;
-            } else {
-                return -1;
-            }
+            return Long.compare(sequence, o.sequence);
         }
     }
 }
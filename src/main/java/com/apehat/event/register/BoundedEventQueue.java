@@ -0,0 +1,248 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * The {@link EventQueue} decorator, bounds the count of queued events.
+ * <p>
+ * The producers reserve a slot before offering to the delegate queue, and the
+ * consumers release the slot after polled an event. Only when a producer is
+ * blocked by {@link #offer(Event, long, TimeUnit)}, the consumers acquire the
+ * lock to signal it.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class BoundedEventQueue extends AbstractQueue<Event>
+        implements EventQueue {
+
+    private final EventQueue delegate;
+    private final int capacity;
+
+    /** The count of reserved slots */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /** The count of producers waiting for space */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * Create a bounded queue, backed by specified queue.
+     *
+     * @param delegate
+     *         the queue to hold events
+     * @param capacity
+     *         the maximum count of queued events
+     * @throws NullPointerException
+     *         specified queue is null
+     * @throws IllegalArgumentException
+     *         specified capacity isn't positive
+     */
+    public BoundedEventQueue(EventQueue delegate, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        this.delegate = Objects.requireNonNull(delegate);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the capacity of this.
+     *
+     * @return the capacity of this
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override public boolean offer(Event event) {
+        return insert(event) == OfferResult.QUEUED;
+    }
+
+    /**
+     * The event is refused as full only if no slot can be reserved, otherwise
+     * the result of the delegate queue.
+     */
+    @Override public OfferResult insert(Event event) {
+        Objects.requireNonNull(event);
+        return tryReserve() ? insertReserved(event) : OfferResult.FULL;
+    }
+
+    /**
+     * Queue specified event, waiting up to the specified time for space to
+     * become available.
+     *
+     * @param event
+     *         the event to queue
+     * @param timeout
+     *         the maximum time to wait
+     * @param unit
+     *         the time unit of the timeout argument
+     * @return true, if the event be queued; false, if the waiting time
+     * elapsed, or the delegate queue refused the event
+     * @throws InterruptedException
+     *         if interrupted while waiting
+     * @throws NullPointerException
+     *         specified event is null
+     */
+    public boolean offer(Event event, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return insert(event, timeout, unit) == OfferResult.QUEUED;
+    }
+
+    /**
+     * Inserts specified event, waiting up to the specified time for space to
+     * become available.
+     *
+     * @param event
+     *         the event to queue
+     * @param timeout
+     *         the maximum time to wait
+     * @param unit
+     *         the time unit of the timeout argument
+     * @return the result of insertion, {@link OfferResult#FULL} if the
+     * waiting time elapsed
+     * @throws InterruptedException
+     *         if interrupted while waiting
+     * @throws NullPointerException
+     *         specified event is null
+     * @see #insert(Event)
+     */
+    public OfferResult insert(Event event, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        Objects.requireNonNull(event);
+        if (tryReserve()) {
+            return insertReserved(event);
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            // the waiter must be counted before the count be checked again,
+            // otherwise the consumer may not signal
+            waiters.incrementAndGet();
+            try {
+                while (!tryReserve()) {
+                    if (nanos <= 0) {
+                        return OfferResult.FULL;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            } finally {
+                waiters.decrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return insertReserved(event);
+    }
+
+    private boolean tryReserve() {
+        int current;
+        do {
+            current = count.get();
+            if (current >= capacity) {
+                return false;
+            }
+        } while (!count.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    private OfferResult insertReserved(Event event) {
+        OfferResult result = null;
+        try {
+            result = delegate.insert(event);
+        } finally {
+            if (result != OfferResult.QUEUED) {
+                release();
+            }
+        }
+        return result;
+    }
+
+    private void release() {
+        count.decrementAndGet();
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override public Event poll() {
+        Event event = delegate.poll();
+        if (event != null) {
+            release();
+        }
+        return event;
+    }
+
+    @Override public int drain(Consumer<? super Event> consumer,
+                               int maxEvents) {
+        Objects.requireNonNull(consumer);
+        // release the slot before publish, so the nested submit can proceed
+        return delegate.drain(event -> {
+            release();
+            consumer.accept(event);
+        }, maxEvents);
+    }
+
+    @Override public Event peek() {
+        return delegate.peek();
+    }
+
+    @Override public int size() {
+        return delegate.size();
+    }
+
+    @Override public int remainingCapacity() {
+        return Math.max(capacity - count.get(), 0);
+    }
+
+    @Override public Iterator<Event> iterator() {
+        Iterator<Event> iterator = delegate.iterator();
+        return new Iterator<Event>() {
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override public Event next() {
+                return iterator.next();
+            }
+
+            @Override public void remove() {
+                iterator.remove();
+                release();
+            }
+        };
+    }
+}
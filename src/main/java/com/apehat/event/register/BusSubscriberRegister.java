@@ -20,9 +20,7 @@ import com.apehat.event.SubscribeScope;
 import com.apehat.event.Subscriber;
 
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * @author hanpengfei
@@ -31,10 +29,14 @@ import java.util.Set;
 final class BusSubscriberRegister
         extends AbstractTimeStampedSubscriberRegister {
 
-    private final Set<TimeStampedSubscriber<?>> subscribers = new HashSet<>();
+    private final SubscriberTypeIndex subscriberIndex = new SubscriberTypeIndex();
+
+    @Override SubscriberTypeIndex subscriberIndex() {
+        return subscriberIndex;
+    }
 
     @Override protected Collection<TimeStampedSubscriber<?>> allSubscribers() {
-        return subscribers;
+        return subscriberIndex().subscribers();
     }
 
     @Override public boolean registrable(Subscriber<?> subscriber) {
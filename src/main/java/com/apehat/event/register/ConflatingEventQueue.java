@@ -0,0 +1,205 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * The unbounded {@link EventQueue}, holds at most one pending event per
+ * conflation key. A newer event replaces the pending event with equal key in
+ * place, so it keeps the queue position of the replaced event, and the
+ * replaced event will never be polled.
+ * <p>
+ * The queue holds the keys in order of queued, and the pending events in a
+ * map by key. A key is queued only when there is no pending event of it, so
+ * the queue never holds more keys than the pending events.
+ * <p>
+ * Because the size isn't changed, {@link #offer(Event)} returns false if the
+ * event replaced a pending event, as the {@link com.apehat.event.EventBus}
+ * treats the refused events. It's suitable for the state-update style events,
+ * e.g. status, position, counters, of which only the latest one matters.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class ConflatingEventQueue extends AbstractQueue<Event>
+        implements EventQueue {
+
+    /** The queued keys, each has a pending event */
+    private final Queue<Object> keys = new ConcurrentLinkedQueue<>();
+
+    private final Map<Object, Event> pending = new ConcurrentHashMap<>();
+
+    private final Function<? super Event, ?> conflationKey;
+
+    /** The count of events had be replaced */
+    private final LongAdder conflatedCount = new LongAdder();
+
+    /**
+     * Create a queue, conflates the events by specified key function. If the
+     * key of an event is null, the event itself will be used as key, i.e. it
+     * only be conflated by an equal event.
+     *
+     * @param conflationKey
+     *         the function to get conflation key of events
+     * @throws NullPointerException
+     *         specified function is null
+     */
+    public ConflatingEventQueue(Function<? super Event, ?> conflationKey) {
+        this.conflationKey = Objects.requireNonNull(conflationKey);
+    }
+
+    /**
+     * Create a queue, conflates the events with equal trigger id.
+     *
+     * @return a queue, conflates the events by trigger id
+     */
+    public static ConflatingEventQueue byTriggerId() {
+        return new ConflatingEventQueue(Event::triggerId);
+    }
+
+    /**
+     * Create a queue, conflates the events with equal trigger id and same
+     * type.
+     *
+     * @return a queue, conflates the events by trigger id and type
+     */
+    public static ConflatingEventQueue byTriggerIdAndType() {
+        return new ConflatingEventQueue(event -> {
+            TriggerId triggerId = event.triggerId();
+            return triggerId == null ? null : new TypedKey(triggerId,
+                                                           event.getClass());
+        });
+    }
+
+    /**
+     * Returns the count of events had be replaced by newer events.
+     *
+     * @return the count of replaced events
+     */
+    public long conflatedCount() {
+        return conflatedCount.sum();
+    }
+
+    /**
+     * Queue specified event, or replace the pending event with equal key.
+     *
+     * @param event
+     *         the event to queue
+     * @return true, if the event be queued; false, if the event replaced the
+     * pending event with equal key
+     * @throws NullPointerException
+     *         specified event is null
+     */
+    @Override public boolean offer(Event event) {
+        Objects.requireNonNull(event);
+        Object key = keyOf(event);
+        if (pending.put(key, event) != null) {
+            conflatedCount.increment();
+            return false;
+        }
+        keys.offer(key);
+        return true;
+    }
+
+    private Object keyOf(Event event) {
+        Object key = conflationKey.apply(event);
+        return key == null ? event : key;
+    }
+
+    @Override public Event poll() {
+        Object key;
+        while ((key = keys.poll()) != null) {
+            // the latest event of the key, include the one replaced the
+            // pending event after the key be polled
+            Event event = pending.remove(key);
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    @Override public Event peek() {
+        Object key = keys.peek();
+        return key == null ? null : pending.get(key);
+    }
+
+    @Override public int size() {
+        return pending.size();
+    }
+
+    @Override public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * Returns an iterator over the snapshot of pending events in this. The
+     * iterator doesn't support remove.
+     */
+    @Override public Iterator<Event> iterator() {
+        List<Event> events = new ArrayList<>();
+        for (Object key : keys) {
+            Event event = pending.get(key);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        return Collections.unmodifiableList(events).iterator();
+    }
+
+    /** The conflation key by trigger id and event type */
+    private static final class TypedKey {
+
+        private final TriggerId triggerId;
+        private final Class<?> type;
+
+        private TypedKey(TriggerId triggerId, Class<?> type) {
+            this.triggerId = triggerId;
+            this.type = type;
+        }
+
+        @Override public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            TypedKey that = (TypedKey) o;
+            return triggerId.equals(that.triggerId) && type == that.type;
+        }
+
+        @Override public int hashCode() {
+            return 31 * triggerId.hashCode() + type.hashCode();
+        }
+    }
+}
@@ -18,7 +18,9 @@ package com.apehat.event.register;
 
 import com.apehat.event.Event;
 
+import java.util.Objects;
 import java.util.Queue;
+import java.util.function.Consumer;
 
 /**
  * @author hanpengfei
@@ -38,6 +40,29 @@ public interface EventQueue extends Queue<Event> {
         offer(event);
     }
 
+    /**
+     * Inserts the specified event, and returns why the event be refused, if
+     * it isn't queued.
+     * <p>
+     * The reason must be determined atomically with the insertion, the
+     * bounded queue must override this, rather than be inferred from the
+     * capacity after refused. By default, an unbounded queue refuses an event
+     * only as duplicate; a bounded queue only as full.
+     *
+     * @param event
+     *         the event to queue
+     * @return the result of insertion
+     * @throws NullPointerException
+     *         specified event is null
+     */
+    default OfferResult insert(Event event) {
+        if (offer(event)) {
+            return OfferResult.QUEUED;
+        }
+        return remainingCapacity() == Integer.MAX_VALUE
+                ? OfferResult.DUPLICATE : OfferResult.FULL;
+    }
+
     /**
      * Returns the next blocked event, or null, if no event be blocked.
      *
@@ -46,4 +71,55 @@ public interface EventQueue extends Queue<Event> {
     default Event nextEvent() {
         return poll();
     }
+
+    /**
+     * Remove at most specified count of events from this, and pass them to
+     * specified consumer in order.
+     *
+     * @param consumer
+     *         the consumer of events
+     * @param maxEvents
+     *         the maximum count of events to drain
+     * @return the count of drained events
+     * @throws NullPointerException
+     *         specified consumer is null
+     */
+    default int drain(Consumer<? super Event> consumer, int maxEvents) {
+        Objects.requireNonNull(consumer);
+        int count = 0;
+        Event event;
+        while (count < maxEvents && (event = nextEvent()) != null) {
+            count++;
+            consumer.accept(event);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the count of events this can accept without exceeding the
+     * capacity, or {@link Integer#MAX_VALUE} if this is unbounded.
+     *
+     * @return the remaining capacity of this
+     */
+    default int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * The result of {@link #insert(Event)}.
+     */
+    enum OfferResult {
+
+        /** The event be queued */
+        QUEUED,
+
+        /**
+         * The event be refused as duplicate, or be merged into a queued
+         * event
+         */
+        DUPLICATE,
+
+        /** The event be refused because the queue is full */
+        FULL
+    }
 }
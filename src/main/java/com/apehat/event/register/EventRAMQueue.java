@@ -20,10 +20,21 @@ import com.apehat.event.Event;
 
 import java.util.AbstractQueue;
 import java.util.Iterator;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * The unbounded {@link EventQueue}, refuses duplicate events.
+ * <p>
+ * An event is duplicate if an equal event is queued, or is one of the
+ * recently polled events within the window. The duplicate detection costs
+ * constant time, regardless of the depth of queue.
+ *
  * @author hanpengfei
  * @since 1.0
  */
@@ -32,26 +43,110 @@ public final class EventRAMQueue extends AbstractQueue<Event>
 
     private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
 
+    /** The events are queued, or had be polled within the window */
+    private final Set<Event> seen = ConcurrentHashMap.newKeySet();
+
+    /** The recently polled events, or null if the window is 0 */
+    private final AtomicReferenceArray<Event> window;
+
+    /** The count of polled events */
+    private final AtomicLong polledCount = new AtomicLong();
+
+    /**
+     * Create a queue, only refuses the event equal to a queued event.
+     */
+    public EventRAMQueue() {
+        this(0);
+    }
+
+    /**
+     * Create a queue, refuses the event equal to a queued event, or equal to
+     * one of the last {@code window} polled events.
+     *
+     * @param window
+     *         the count of recently polled events to detect duplicate
+     * @throws IllegalArgumentException
+     *         specified window is negative
+     */
+    public EventRAMQueue(int window) {
+        if (window < 0) {
+            throw new IllegalArgumentException("Illegal window: " + window);
+        }
+        this.window = window == 0 ? null : new AtomicReferenceArray<>(window);
+    }
+
     @Override public Iterator<Event> iterator() {
-        return queue.iterator();
+        Iterator<Event> iterator = queue.iterator();
+        return new Iterator<Event>() {
+            private Event current;
+
+            @Override public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override public Event next() {
+                return current = iterator.next();
+            }
+
+            @Override public void remove() {
+                iterator.remove();
+                seen.remove(current);
+            }
+        };
     }
 
     @Override public int size() {
         return queue.size();
     }
 
+    @Override public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Inserts the specified event, if it isn't duplicate.
+     * <p>
+     * The duplicate detection and insertion are atomic, so the concurrent
+     * offers of equal events, only one will be queued.
+     *
+     * @return true, the event be queued; false, the event is duplicate
+     */
     @Override public boolean offer(Event event) {
-        if (!contains(event)) {
-            return queue.offer(event);
+        Objects.requireNonNull(event);
+        if (!seen.add(event)) {
+            return false;
         }
-        return false;
+        return queue.offer(event);
     }
 
     @Override public Event poll() {
-        return queue.poll();
+        Event event = queue.poll();
+        if (event != null) {
+            retire(event);
+        }
+        return event;
     }
 
     @Override public Event peek() {
         return queue.peek();
     }
+
+    /**
+     * Retire the polled event, it will not be duplicate after move out the
+     * window.
+     *
+     * @param event
+     *         the polled event
+     */
+    private void retire(Event event) {
+        if (window == null) {
+            seen.remove(event);
+            return;
+        }
+        int index = (int) (polledCount.getAndIncrement() % window.length());
+        Event evicted = window.getAndSet(index, event);
+        if (evicted != null) {
+            seen.remove(evicted);
+        }
+    }
 }
@@ -0,0 +1,240 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * The bounded {@link EventQueue}, backed by a preallocated ring buffer.
+ * <p>
+ * The capacity is always a power of two. Each slot of the ring has a sequence
+ * number: producers claim a position by CAS, write the event, then publish
+ * the slot by advancing it's sequence; consumers do the same in reverse. So
+ * the queue doesn't allocate per event.
+ * <p>
+ * The queue supports multiple producers. It supports multiple consumers only
+ * if created by {@link #multiConsumer(int)}; the queue created by {@link
+ * #singleConsumer(int)} must only be consumed by one thread at a time, as the
+ * {@link com.apehat.event.EventBus} does.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class EventRingQueue extends AbstractQueue<Event>
+        implements EventQueue {
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+    private final Event[] buffer;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final boolean multiConsumer;
+
+    /** The next position to be claimed by producers */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** The next position to be claimed by consumers */
+    private final AtomicLong head = new AtomicLong();
+
+    private EventRingQueue(int capacity, boolean multiConsumer) {
+        if (capacity < 1 || capacity > MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.buffer = new Event[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.mask = size - 1;
+        this.multiConsumer = multiConsumer;
+    }
+
+    /**
+     * Create a multiple producers, single consumer ring queue.
+     *
+     * @param capacity
+     *         the minimum capacity, will be round up to a power of two
+     * @return a multiple producers, single consumer ring queue
+     * @throws IllegalArgumentException
+     *         specified capacity is less than 1, or greater than 2^30
+     */
+    public static EventRingQueue singleConsumer(int capacity) {
+        return new EventRingQueue(capacity, false);
+    }
+
+    /**
+     * Create a multiple producers, multiple consumers ring queue.
+     *
+     * @param capacity
+     *         the minimum capacity, will be round up to a power of two
+     * @return a multiple producers, multiple consumers ring queue
+     * @throws IllegalArgumentException
+     *         specified capacity is less than 1, or greater than 2^30
+     */
+    public static EventRingQueue multiConsumer(int capacity) {
+        return new EventRingQueue(capacity, true);
+    }
+
+    /**
+     * Returns the capacity of this.
+     *
+     * @return the capacity of this
+     */
+    public int capacity() {
+        return buffer.length;
+    }
+
+    @Override public boolean offer(Event event) {
+        Objects.requireNonNull(event);
+        long position = tail.get();
+        for (; ; ) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = event;
+                    // publish the event to consumers
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot hadn't be consumed, i.e. the queue is full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * The ring doesn't detect duplicate, so the event is refused only if the
+     * queue is full.
+     */
+    @Override public OfferResult insert(Event event) {
+        return offer(event) ? OfferResult.QUEUED : OfferResult.FULL;
+    }
+
+    @Override public Event poll() {
+        long position = head.get();
+        for (; ; ) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (!multiConsumer) {
+                    head.lazySet(position + 1);
+                    return take(index, position);
+                }
+                if (head.compareAndSet(position, position + 1)) {
+                    return take(index, position);
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // the slot hadn't be published, i.e. the queue is empty
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    private Event take(int index, long position) {
+        Event event = buffer[index];
+        buffer[index] = null;
+        // release the slot to producers
+        sequences.set(index, position + buffer.length);
+        return event;
+    }
+
+    /**
+     * Drain the published events in batch. The single consumer queue doesn't
+     * contend on the head position per event.
+     */
+    @Override
+    public int drain(Consumer<? super Event> consumer, int maxEvents) {
+        if (multiConsumer) {
+            return EventQueue.super.drain(consumer, maxEvents);
+        }
+        Objects.requireNonNull(consumer);
+        long position = head.get();
+        int count = 0;
+        while (count < maxEvents) {
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                break;
+            }
+            Event event = take(index, position);
+            head.lazySet(++position);
+            count++;
+            consumer.accept(event);
+        }
+        return count;
+    }
+
+    @Override public Event peek() {
+        long position = head.get();
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        return buffer[index];
+    }
+
+    @Override public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, buffer.length);
+    }
+
+    @Override public int remainingCapacity() {
+        return buffer.length - size();
+    }
+
+    /**
+     * Returns an iterator over the snapshot of events in this. The iterator
+     * doesn't support remove.
+     */
+    @Override public Iterator<Event> iterator() {
+        List<Event> events = new ArrayList<>();
+        long position = head.get();
+        long end = tail.get();
+        for (; position < end; position++) {
+            int index = (int) position & mask;
+            Event event = buffer[index];
+            if (sequences.get(index) == position + 1 && event != null) {
+                events.add(event);
+            }
+        }
+        return Collections.unmodifiableList(events).iterator();
+    }
+}
@@ -20,9 +20,7 @@ import com.apehat.event.SubscribeScope;
 import com.apehat.event.Subscriber;
 
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Objects;
-import java.util.Set;
 
 /**
  * @author hanpengfei
@@ -31,10 +29,14 @@ import java.util.Set;
 final class GlobalSubscriberRegister
         extends AbstractTimeStampedSubscriberRegister {
 
-    private static final Set<TimeStampedSubscriber<?>> SUBSCRIBERS = new HashSet<>();
+    private static final SubscriberTypeIndex SUBSCRIBER_INDEX = new SubscriberTypeIndex();
+
+    @Override SubscriberTypeIndex subscriberIndex() {
+        return SUBSCRIBER_INDEX;
+    }
 
     @Override protected Collection<TimeStampedSubscriber<?>> allSubscribers() {
-        return SUBSCRIBERS;
+        return subscriberIndex().subscribers();
     }
 
     @Override public boolean registrable(Subscriber<?> subscriber) {
@@ -0,0 +1,242 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.ToIntFunction;
+
+/**
+ * The unbounded {@link EventQueue}, holds events in a fixed number of priority
+ * lanes. The lane 0 has the highest priority.
+ * <p>
+ * The lanes are drained in weighted rounds: in a round, a lane can provide at
+ * most as many events as it's weight, and the higher priority lane is always
+ * polled first if it still has credit. A new round starts when all non-empty
+ * lanes used up their credits, so the empty lanes don't waste the round, and
+ * the low priority lanes can't be starved by a flood of high priority events.
+ * <p>
+ * Each lane is an {@link EventRAMQueue}, so the duplicate events are refused
+ * in the lane of their priority. The credits are held by the consumer side
+ * without synchronization, as the {@link com.apehat.event.EventBus} consumes a
+ * queue by one thread at a time; with concurrent consumers each event still be
+ * polled once, but the weights are approximate.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class PriorityEventQueue extends AbstractQueue<Event>
+        implements EventQueue {
+
+    private final EventRAMQueue[] lanes;
+    private final int[] weights;
+
+    /** The remaining credits of lanes in current round */
+    private final int[] credits;
+
+    private final ToIntFunction<? super Event> priority;
+
+    /**
+     * Create a priority queue, with the priority computed by specified
+     * function. The priority is the index of lane, out of range priority will
+     * be clamped to the nearest lane.
+     *
+     * @param priority
+     *         the function to compute priority of events
+     * @param weights
+     *         the weights of lanes, in order of priority
+     * @throws NullPointerException
+     *         specified function or weights is null
+     * @throws IllegalArgumentException
+     *         no weight be specified, or a weight isn't positive
+     */
+    public PriorityEventQueue(ToIntFunction<? super Event> priority,
+                              int... weights) {
+        this.priority = Objects.requireNonNull(priority);
+        if (weights.length == 0) {
+            throw new IllegalArgumentException("No lane weight specified.");
+        }
+        for (int weight : weights) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException(
+                        "Lane weight must be positive: " + weight);
+            }
+        }
+        this.weights = weights.clone();
+        this.credits = weights.clone();
+        this.lanes = new EventRAMQueue[weights.length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new EventRAMQueue();
+        }
+    }
+
+    /**
+     * Create a priority queue, with the priority declared per event type. The
+     * priority of an event type is declared by itself, or by the nearest of
+     * it's super types; if none is declared, be the specified default
+     * priority. The priority of event types is resolved once per type.
+     *
+     * @param priorities
+     *         the priorities of event types
+     * @param defaultPriority
+     *         the priority of the events without declared priority
+     * @param weights
+     *         the weights of lanes, in order of priority
+     * @return a priority queue, with the priority declared per event type
+     * @throws NullPointerException
+     *         specified priorities or weights is null
+     * @throws IllegalArgumentException
+     *         no weight be specified, or a weight isn't positive
+     */
+    public static PriorityEventQueue byType(
+            Map<Class<? extends Event>, Integer> priorities,
+            int defaultPriority, int... weights) {
+        Map<Class<?>, Integer> declared = new HashMap<>(priorities);
+        ClassValue<Integer> resolved = new ClassValue<Integer>() {
+            @Override protected Integer computeValue(Class<?> type) {
+                for (Class<?> superType : TypeHierarchy.of(type)) {
+                    Integer priority = declared.get(superType);
+                    if (priority != null) {
+                        return priority;
+                    }
+                }
+                return defaultPriority;
+            }
+        };
+        return new PriorityEventQueue(
+                event -> resolved.get(event.getClass()), weights);
+    }
+
+    /**
+     * Returns the count of lanes.
+     *
+     * @return the count of lanes
+     */
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Returns the count of events in specified lane.
+     *
+     * @param lane
+     *         the index of lane
+     * @return the count of events in specified lane
+     * @throws IndexOutOfBoundsException
+     *         specified index is out of range
+     */
+    public int sizeOf(int lane) {
+        return lanes[lane].size();
+    }
+
+    @Override public boolean offer(Event event) {
+        Objects.requireNonNull(event);
+        return lanes[laneOf(event)].offer(event);
+    }
+
+    private int laneOf(Event event) {
+        int lane = priority.applyAsInt(event);
+        if (lane <= 0) {
+            return 0;
+        }
+        return Math.min(lane, lanes.length - 1);
+    }
+
+    @Override public Event poll() {
+        Event event = pollWithCredit();
+        if (event == null) {
+            // the non-empty lanes used up their credits, start a new round
+            System.arraycopy(weights, 0, credits, 0, weights.length);
+            event = pollWithCredit();
+        }
+        return event;
+    }
+
+    private Event pollWithCredit() {
+        for (int i = 0; i < lanes.length; i++) {
+            if (credits[i] > 0) {
+                Event event = lanes[i].poll();
+                if (event != null) {
+                    credits[i]--;
+                    return event;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the event will be returned by {@link #poll()}, i.e. the head of
+     * the highest priority lane, those still has credit in current round, or
+     * the head of highest priority lane if a new round will be started.
+     */
+    @Override public Event peek() {
+        for (int i = 0; i < lanes.length; i++) {
+            if (credits[i] > 0) {
+                Event event = lanes[i].peek();
+                if (event != null) {
+                    return event;
+                }
+            }
+        }
+        // all weights are positive, each lane has credit in a new round
+        for (EventRAMQueue lane : lanes) {
+            Event event = lane.peek();
+            if (event != null) {
+                return event;
+            }
+        }
+        return null;
+    }
+
+    @Override public boolean isEmpty() {
+        for (EventRAMQueue lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override public int size() {
+        int size = 0;
+        for (EventRAMQueue lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns an iterator over the snapshot of events in this, in order of
+     * priority. The iterator doesn't support remove.
+     */
+    @Override public Iterator<Event> iterator() {
+        List<Event> events = new ArrayList<>();
+        for (EventRAMQueue lane : lanes) {
+            lane.forEach(events::add);
+        }
+        return Collections.unmodifiableList(events).iterator();
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.register;
+
+import com.apehat.event.SubscribeScope;
+import com.apehat.event.Subscriber;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * The loader of the subscriber index, be generated by {@link
+ * com.apehat.event.complier.SubscribeProcessor} at compile time.
+ * <p>
+ * The index is a resource named {@value #INDEX_RESOURCE}, each jar or
+ * classes directory has one. Each line of the index is an {@link Entry}: the
+ * tab separated registration class, declaring type, event type, subscriber
+ * class and scope; the line starts with '#' is comment.
+ * <p>
+ * So the subscribers can be found without classpath scanning: the loader
+ * reads the indexes, loads only the registration classes, and registers all
+ * subscribers to a {@link SubscriberRegister} by {@link
+ * SubscriberRegister#registerAll(java.util.Collection)} in one pass.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class SubscriberIndexLoader {
+
+    /** The name of index resource */
+    public static final String INDEX_RESOURCE = "META-INF/com.apehat.event/subscribers.index";
+
+    /** The scope column value of the subscribers decide scope by themselves */
+    public static final String UNKNOWN_SCOPE = "-";
+
+    private final ClassLoader classLoader;
+    private final List<Entry> entries;
+
+    private SubscriberIndexLoader(ClassLoader classLoader,
+                                  List<Entry> entries) {
+        this.classLoader = classLoader;
+        this.entries = entries;
+    }
+
+    /**
+     * Read all index resources those visible to specified class loader.
+     *
+     * @param classLoader
+     *         the class loader to find index resources and load classes
+     * @return the loader of the read index
+     * @throws NullPointerException
+     *         specified class loader is null
+     * @throws IOException
+     *         failed to read an index resource
+     * @throws IllegalArgumentException
+     *         an index resource is malformed
+     */
+    public static SubscriberIndexLoader load(ClassLoader classLoader)
+            throws IOException {
+        Objects.requireNonNull(classLoader);
+        List<Entry> entries = new ArrayList<>();
+        Enumeration<URL> resources = classLoader.getResources(INDEX_RESOURCE);
+        while (resources.hasMoreElements()) {
+            read(resources.nextElement(), entries);
+        }
+        return new SubscriberIndexLoader(classLoader,
+                                         Collections.unmodifiableList(entries));
+    }
+
+    private static void read(URL resource, List<Entry> entries)
+            throws IOException {
+        try (InputStream in = resource.openStream();
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t");
+                if (columns.length != 5) {
+                    throw new IllegalArgumentException(
+                            "Malformed index line of " + resource + ": " + line);
+                }
+                SubscribeScope scope = UNKNOWN_SCOPE.equals(columns[4]) ? null
+                        : SubscribeScope.valueOf(columns[4]);
+                entries.add(new Entry(columns[0], columns[1], columns[2],
+                                      columns[3], scope));
+            }
+        }
+    }
+
+    /**
+     * Returns the entries of the read index.
+     *
+     * @return the unmodifiable entries, in order of read
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Register the subscribers those needn't a target, i.e. the subscribers
+     * of static methods or specified by {@code by}, to specified register.
+     *
+     * @param register
+     *         the register to register subscribers
+     * @return the count of subscribers be passed to the register
+     * @throws NullPointerException
+     *         specified register is null
+     * @throws IllegalStateException
+     *         failed to load or create a registration class
+     */
+    public int registerAll(SubscriberRegister register) {
+        return registerAll(register, type -> null);
+    }
+
+    /**
+     * Register all indexed subscribers to specified register in one pass.
+     * <p>
+     * The targets of the subscribers of instance methods are provided by
+     * specified function, e.g. be looked up from a container. If the function
+     * returns null for a type, only the subscribers of the type those needn't
+     * a target will be registered.
+     *
+     * @param register
+     *         the register to register subscribers
+     * @param targets
+     *         the function returns the target of specified declaring type,
+     *         or null
+     * @return the count of subscribers be passed to the register
+     * @throws NullPointerException
+     *         specified register or targets is null
+     * @throws IllegalStateException
+     *         failed to load or create a registration class
+     * @throws ClassCastException
+     *         the function returns an object isn't an instance of the type
+     */
+    public int registerAll(SubscriberRegister register,
+                           Function<? super Class<?>, ?> targets) {
+        Objects.requireNonNull(register);
+        Objects.requireNonNull(targets);
+        // each registration provides all subscribers of it's declaring type
+        Set<String> registrations = new HashSet<>();
+        List<Subscriber<?>> subscribers = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (!registrations.add(entry.registration)) {
+                continue;
+            }
+            Class<?> declaringType = loadClass(entry.declaringType);
+            Object target = targets.apply(declaringType);
+            subscribers.addAll(registration(entry.registration).subscribers(
+                    declaringType.cast(target)));
+        }
+        register.registerAll(subscribers);
+        return subscribers.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private SubscriberRegistration<Object> registration(String className) {
+        Class<?> type = loadClass(className);
+        if (!SubscriberRegistration.class.isAssignableFrom(type)) {
+            throw new IllegalStateException(
+                    className + " isn't a " + SubscriberRegistration.class);
+        }
+        try {
+            return (SubscriberRegistration<Object>) type.getConstructor()
+                                                        .newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Can't create " + className, e);
+        }
+    }
+
+    /**
+     * Load the class of specified name, without initializing; the
+     * registration class is initialized when be created.
+     */
+    private Class<?> loadClass(String className) {
+        try {
+            return Class.forName(className, false, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(
+                    "The indexed class " + className + " not found", e);
+        }
+    }
+
+    /**
+     * An indexed subscriber.
+     */
+    public static final class Entry {
+
+        private final String registration;
+        private final String declaringType;
+        private final String eventType;
+        private final String subscriber;
+        private final SubscribeScope scope;
+
+        private Entry(String registration, String declaringType,
+                      String eventType, String subscriber,
+                      SubscribeScope scope) {
+            this.registration = registration;
+            this.declaringType = declaringType;
+            this.eventType = eventType;
+            this.subscriber = subscriber;
+            this.scope = scope;
+        }
+
+        /**
+         * Returns the name of the registration class provides the
+         * subscriber.
+         *
+         * @return the name of registration class
+         */
+        public String registration() {
+            return registration;
+        }
+
+        /**
+         * Returns the binary name of the type declares the subscriber.
+         *
+         * @return the binary name of declaring type
+         */
+        public String declaringType() {
+            return declaringType;
+        }
+
+        /**
+         * Returns the binary name of the event type be subscribed.
+         *
+         * @return the binary name of event type
+         */
+        public String eventType() {
+            return eventType;
+        }
+
+        /**
+         * Returns the binary name of the subscriber class.
+         *
+         * @return the binary name of subscriber class
+         */
+        public String subscriber() {
+            return subscriber;
+        }
+
+        /**
+         * Returns the scope of the subscriber, or null if the subscriber is
+         * specified by {@code by}, its scope is decided by itself.
+         *
+         * @return the scope of the subscriber, or null
+         */
+        public SubscribeScope scope() {
+            return scope;
+        }
+
+        @Override public String toString() {
+            return "Entry{" + "registration='" + registration + '\'' +
+                   ", eventType='" + eventType + '\'' + ", subscriber='" +
+                   subscriber + '\'' + ", scope=" + scope + '}';
+        }
+    }
+}
@@ -19,10 +19,12 @@ package com.apehat.event.register;
 import com.apehat.event.Event;
 import com.apehat.event.Subscriber;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.SortedSet;
 
 /**
  * @author hanpengfei
@@ -47,7 +49,35 @@ public class SubscriberRAMRegister
         }
     }
 
-    @Override protected SortedSet<TimeStampedSubscriber<?>> allSubscribers() {
+    /**
+     * Partition the subscribers by scope, and register each partition to the
+     * scoped register at once.
+     */
+    @Override protected void doRegisterAll(
+            Collection<? extends TimeStampedSubscriber<?>> subscribers) {
+        List<Subscriber<?>> global = new ArrayList<>(subscribers.size());
+        List<Subscriber<?>> bus = new ArrayList<>(subscribers.size());
+        List<Subscriber<?>> thread = new ArrayList<>(subscribers.size());
+        for (TimeStampedSubscriber<?> subscriber : subscribers) {
+            if (globalSubscriberRegister.registrable(subscriber)) {
+                global.add(subscriber);
+            } else if (busSubscriberRegister.registrable(subscriber)) {
+                bus.add(subscriber);
+            } else {
+                thread.add(subscriber);
+            }
+        }
+        globalSubscriberRegister.registerAll(global);
+        busSubscriberRegister.registerAll(bus);
+        threadSubscriberRegister.registerAll(thread);
+    }
+
+    @Override protected Collection<TimeStampedSubscriber<?>> allSubscribers() {
+        // needn't impl
+        return null;
+    }
+
+    @Override SubscriberTypeIndex subscriberIndex() {
         // needn't impl
         return null;
     }
@@ -68,6 +98,21 @@ public class SubscriberRAMRegister
         return Collections.unmodifiableSet(subscribers);
     }
 
+    /**
+     * Visit the subscribers of specified event in thread, bus, global order.
+     * <p>
+     * A subscriber can only be registered to one of the scoped registers,
+     * it's guaranteed by {@link #contains(Subscriber)} at register time, so
+     * the subscribers needn't be deduplicated at here.
+     */
+    @Override
+    public <T extends Event> void forEachSubscriber(T event,
+                                                    SubscriberVisitor visitor) {
+        threadSubscriberRegister.forEachSubscriber(event, visitor);
+        busSubscriberRegister.forEachSubscriber(event, visitor);
+        globalSubscriberRegister.forEachSubscriber(event, visitor);
+    }
+
     @Override public boolean contains(Subscriber<?> subscriber) {
         return globalSubscriberRegister
                 .contains(subscriber) || busSubscriberRegister
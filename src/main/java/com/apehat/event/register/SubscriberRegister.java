@@ -20,6 +20,8 @@ import com.apehat.event.Event;
 import com.apehat.event.SubscribeScope;
 import com.apehat.event.Subscriber;
 
+import java.util.Collection;
+import java.util.Objects;
 import java.util.Set;
 
 /**
@@ -42,6 +44,28 @@ public interface SubscriberRegister {
      */
     <T extends Event> void register(Subscriber<T> subscriber);
 
+    /**
+     * Register all specified subscribers to current register.
+     * <p>
+     * The result is same as register the subscribers one by one, but the
+     * implementations can update the internal structures once for all of
+     * them. So it's preferred when register lots of subscribers, e.g. at
+     * startup.
+     *
+     * @param subscribers
+     *         the subscribers to register
+     * @throws NullPointerException
+     *         the specified subscribers is null, or contains null
+     * @throws IllegalArgumentException
+     *         any of the specified subscribers can't be registered by this
+     * @see #register(Subscriber)
+     */
+    default void registerAll(Collection<? extends Subscriber<?>> subscribers) {
+        for (Subscriber<?> subscriber : subscribers) {
+            register(Objects.requireNonNull(subscriber));
+        }
+    }
+
     /**
      * Unregister the specified subscriber form this.
      *
@@ -59,13 +83,37 @@ public interface SubscriberRegister {
      *         the event to get the subscribers
      * @param <T>
      *         the type of event
-     * @return the subscribers of specified event, or empty set, if does not
-     * have subscribers of specified event
+     * @return the unmodifiable subscribers of specified event, or empty set,
+     * if does not have subscribers of specified event
      * @throws NullPointerException
      *         the specified event is null
      */
     <T extends Event> Set<Subscriber<? super T>> subscribersOf(T event);
 
+    /**
+     * Visit each subscriber of specified event.
+     * <p>
+     * Unlike {@link #subscribersOf(Event)}, the implementations should not
+     * collect the subscribers, so it can be used on the dispatch path without
+     * allocation.
+     *
+     * @param event
+     *         the event to visit the subscribers
+     * @param visitor
+     *         the visitor to visit the subscribers
+     * @param <T>
+     *         the type of event
+     * @throws NullPointerException
+     *         the specified event or visitor is null
+     */
+    default <T extends Event> void forEachSubscriber(T event,
+                                                     SubscriberVisitor visitor) {
+        Objects.requireNonNull(visitor);
+        for (Subscriber<? super T> subscriber : subscribersOf(event)) {
+            visitor.visit(event, subscriber);
+        }
+    }
+
     /**
      * Determine whether the current register contains specified subscriber.
      *
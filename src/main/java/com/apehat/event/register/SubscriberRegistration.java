@@ -0,0 +1,51 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.register;
+
+import com.apehat.event.Subscriber;
+
+import java.util.List;
+
+/**
+ * The registration of subscribers declared by a type, implemented by the
+ * registration classes generated from {@link
+ * com.apehat.event.annotation.Subscribe} methods.
+ * <p>
+ * The implementations must have a public no parameter constructor, so they
+ * can be created by {@link SubscriberIndexLoader}.
+ *
+ * @param <T>
+ *         the type declares subscribers
+ * @author hanpengfei
+ * @since 1.0
+ */
+public interface SubscriberRegistration<T> {
+
+    /**
+     * Returns the subscribers declared by specified target.
+     * <p>
+     * If the target is null, only the subscribers those needn't a target,
+     * i.e. the subscribers of static methods or specified by {@link
+     * com.apehat.event.annotation.Subscribe#by()}, are returned.
+     *
+     * @param target
+     *         the target to invoke subscribe methods, or null
+     * @return the unmodifiable list of subscribers
+     */
+    List<Subscriber<?>> subscribers(T target);
+}
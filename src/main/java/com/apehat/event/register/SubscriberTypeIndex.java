@@ -0,0 +1,376 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.register.AbstractTimeStampedSubscriberRegister.TimeStampedSubscriber;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The subscribers indexed by event type.
+ * <p>
+ * The subscribers be held by an immutable, versioned {@link Snapshot}. Readers
+ * neither lock nor copy; writers publish the new snapshot atomically, retry if
+ * other writer published before. The subscribers are grouped by the type they
+ * subscribe to, a writer only copies the groups of the types it changes, and
+ * shares the others with the current snapshot.
+ * <p>
+ * The subscribers of an event type is resolved by the type hierarchy of the
+ * event type at the first lookup in a snapshot, and be cached as an array
+ * sorted by subscriber sequence. A new snapshot keeps the cached arrays of
+ * the event types, those aren't sub types of the changed types, so the cache
+ * will never be stale.
+ * <p>
+ * The equal subscribers must subscribe to same type, the membership of a
+ * subscriber is checked in the group of the type it subscribes to.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class SubscriberTypeIndex {
+
+    private static final TimeStampedSubscriber<?>[] EMPTY = new TimeStampedSubscriber<?>[0];
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(
+            new Snapshot(0, 0, Collections.emptyMap(),
+                         Collections.emptyMap()));
+
+    boolean add(TimeStampedSubscriber<?> subscriber) {
+        assert subscriber != null;
+        Class<?> type = subscriber.subscribeTo();
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            Group group = current.groups.get(type);
+            if (group != null && group.members.contains(subscriber)) {
+                return false;
+            }
+            next = current.with(Collections.singletonMap(
+                    type, Group.add(group, subscriber)), 1);
+        } while (!snapshot.compareAndSet(current, next));
+        return true;
+    }
+
+    /**
+     * Add all specified subscribers by publishing one snapshot, so each
+     * changed group is copied once.
+     *
+     * @param subscribers
+     *         the subscribers to add
+     * @return the count of added subscribers, the subscribers those already
+     * be contained are ignored
+     */
+    int addAll(Collection<? extends TimeStampedSubscriber<?>> subscribers) {
+        assert subscribers != null;
+        Map<Class<?>, List<TimeStampedSubscriber<?>>> byType = new HashMap<>();
+        for (TimeStampedSubscriber<?> subscriber : subscribers) {
+            byType.computeIfAbsent(subscriber.subscribeTo(),
+                                   k -> new ArrayList<>()).add(subscriber);
+        }
+        Snapshot current;
+        Snapshot next;
+        int added;
+        do {
+            current = snapshot.get();
+            Map<Class<?>, Group> changed = new HashMap<>(
+                    (int) (byType.size() / 0.75f) + 1);
+            added = 0;
+            for (Map.Entry<Class<?>, List<TimeStampedSubscriber<?>>> entry :
+                    byType.entrySet()) {
+                Group group = current.groups.get(entry.getKey());
+                Group merged = Group.addAll(group, entry.getValue());
+                if (merged != group) {
+                    added += merged.size() - (group == null ? 0
+                            : group.size());
+                    changed.put(entry.getKey(), merged);
+                }
+            }
+            if (added == 0) {
+                return 0;
+            }
+            next = current.with(changed, added);
+        } while (!snapshot.compareAndSet(current, next));
+        return added;
+    }
+
+    boolean remove(TimeStampedSubscriber<?> subscriber) {
+        assert subscriber != null;
+        Class<?> type = subscriber.subscribeTo();
+        Snapshot current;
+        Snapshot next;
+        do {
+            current = snapshot.get();
+            Group group = current.groups.get(type);
+            if (group == null || !group.members.contains(subscriber)) {
+                return false;
+            }
+            next = current.with(Collections.singletonMap(
+                    type, Group.remove(group, subscriber)), -1);
+        } while (!snapshot.compareAndSet(current, next));
+        return true;
+    }
+
+    boolean contains(TimeStampedSubscriber<?> subscriber) {
+        Group group = snapshot.get().groups.get(subscriber.subscribeTo());
+        return group != null && group.members.contains(subscriber);
+    }
+
+    void clear() {
+        Snapshot current;
+        do {
+            current = snapshot.get();
+        } while (!snapshot.compareAndSet(current, new Snapshot(
+                current.version + 1, 0, Collections.emptyMap(),
+                Collections.emptyMap())));
+    }
+
+    /**
+     * Returns the version of current snapshot. The version will increase
+     * when a new snapshot be published.
+     *
+     * @return the version of current snapshot
+     */
+    long version() {
+        return snapshot.get().version;
+    }
+
+    /**
+     * Returns all subscribers of current snapshot. The returned collection is
+     * unmodifiable, and will not be changed by subsequent modifications.
+     *
+     * @return all subscribers of current snapshot
+     */
+    Collection<TimeStampedSubscriber<?>> subscribers() {
+        return Collections.unmodifiableList(
+                Arrays.asList(snapshot.get().subscribers()));
+    }
+
+    /**
+     * Returns the subscribers, those subscribe to specified event type or
+     * it's super types, sorted by subscriber sequence.
+     * <p>
+     * The returned array is shared, so the caller mustn't modify it.
+     *
+     * @param eventType
+     *         the type of event
+     * @return the subscribers of specified event type, or an empty array
+     */
+    TimeStampedSubscriber<?>[] subscribersOf(Class<?> eventType) {
+        return snapshot.get().subscribersOf(eventType);
+    }
+
+    /**
+     * The immutable subscribers, those subscribe to same type.
+     */
+    private static final class Group {
+
+        /** The subscribers, sorted by sequence */
+        private final TimeStampedSubscriber<?>[] subscribers;
+
+        private final Set<TimeStampedSubscriber<?>> members;
+
+        private Group(TimeStampedSubscriber<?>[] subscribers) {
+            this.subscribers = subscribers;
+            this.members = new HashSet<>(Arrays.asList(subscribers));
+        }
+
+        private int size() {
+            return subscribers.length;
+        }
+
+        private static Group add(Group group,
+                                 TimeStampedSubscriber<?> subscriber) {
+            if (group == null) {
+                return new Group(new TimeStampedSubscriber<?>[]{subscriber});
+            }
+            // keep sorted by sequence, the concurrent writers may publish
+            // out of the order their subscribers be created
+            int index = AbstractTimeStampedSubscriberRegister
+                    .cutoff(group.subscribers, subscriber.sequence());
+            int length = group.subscribers.length;
+            TimeStampedSubscriber<?>[] subscribers = new TimeStampedSubscriber<?>[length + 1];
+            System.arraycopy(group.subscribers, 0, subscribers, 0, index);
+            subscribers[index] = subscriber;
+            System.arraycopy(group.subscribers, index, subscribers, index + 1,
+                             length - index);
+            return new Group(subscribers);
+        }
+
+        /**
+         * Returns the group contains the subscribers of specified group and
+         * specified subscribers, or specified group if all subscribers
+         * already be contained.
+         */
+        private static Group addAll(
+                Group group, List<TimeStampedSubscriber<?>> subscribers) {
+            int length = group == null ? 0 : group.subscribers.length;
+            TimeStampedSubscriber<?>[] merged = new TimeStampedSubscriber<?>[length + subscribers.size()];
+            if (group != null) {
+                System.arraycopy(group.subscribers, 0, merged, 0, length);
+            }
+            Set<TimeStampedSubscriber<?>> seen = group == null
+                    ? new HashSet<>() : new HashSet<>(group.members);
+            int added = 0;
+            for (TimeStampedSubscriber<?> subscriber : subscribers) {
+                if (seen.add(subscriber)) {
+                    merged[length + added++] = subscriber;
+                }
+            }
+            if (added == 0) {
+                return group;
+            }
+            if (added < subscribers.size()) {
+                merged = Arrays.copyOf(merged, length + added);
+            }
+            // the added subscribers usually be created after the existing,
+            // but keep sorted for concurrent writers
+            Arrays.sort(merged);
+            return new Group(merged);
+        }
+
+        /**
+         * Returns the group without specified subscriber, or null if the
+         * group will be empty.
+         */
+        private static Group remove(Group group,
+                                    TimeStampedSubscriber<?> subscriber) {
+            int length = group.subscribers.length;
+            if (length == 1) {
+                return null;
+            }
+            int index = 0;
+            while (!group.subscribers[index].equals(subscriber)) {
+                index++;
+            }
+            TimeStampedSubscriber<?>[] subscribers = new TimeStampedSubscriber<?>[length - 1];
+            System.arraycopy(group.subscribers, 0, subscribers, 0, index);
+            System.arraycopy(group.subscribers, index + 1, subscribers, index,
+                             length - index - 1);
+            return new Group(subscribers);
+        }
+    }
+
+    /**
+     * The immutable subscribers snapshot.
+     */
+    private static final class Snapshot {
+
+        private final long version;
+
+        /** The count of subscribers */
+        private final int size;
+
+        /** The subscribers grouped by the type they subscribe to */
+        private final Map<Class<?>, Group> groups;
+
+        /** The resolved subscribers of event types */
+        private final Map<Class<?>, TimeStampedSubscriber<?>[]> index;
+
+        /** All subscribers sorted by sequence, be merged at first access */
+        private volatile TimeStampedSubscriber<?>[] subscribers;
+
+        private Snapshot(long version, int size, Map<Class<?>, Group> groups,
+                         Map<Class<?>, TimeStampedSubscriber<?>[]> index) {
+            this.version = version;
+            this.size = size;
+            this.groups = groups;
+            this.index = new ConcurrentHashMap<>(index);
+        }
+
+        /**
+         * Returns the next snapshot, those groups of changed types are
+         * replaced, and the cached subscribers of the sub types of changed
+         * types are dropped.
+         *
+         * @param changed
+         *         the changed groups, a null group to remove
+         * @param delta
+         *         the change of count of subscribers
+         * @return the next snapshot
+         */
+        private Snapshot with(Map<Class<?>, Group> changed, int delta) {
+            Map<Class<?>, Group> groups = new HashMap<>(this.groups);
+            for (Map.Entry<Class<?>, Group> entry : changed.entrySet()) {
+                if (entry.getValue() == null) {
+                    groups.remove(entry.getKey());
+                } else {
+                    groups.put(entry.getKey(), entry.getValue());
+                }
+            }
+            Map<Class<?>, TimeStampedSubscriber<?>[]> retained = new HashMap<>();
+            for (Map.Entry<Class<?>, TimeStampedSubscriber<?>[]> entry :
+                    index.entrySet()) {
+                if (!isAffected(entry.getKey(), changed.keySet())) {
+                    retained.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return new Snapshot(version + 1, size + delta, groups, retained);
+        }
+
+        private static boolean isAffected(Class<?> eventType,
+                                          Set<Class<?>> changedTypes) {
+            for (Class<?> changedType : changedTypes) {
+                if (changedType.isAssignableFrom(eventType)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private TimeStampedSubscriber<?>[] subscribers() {
+            TimeStampedSubscriber<?>[] merged = subscribers;
+            if (merged == null) {
+                merged = new TimeStampedSubscriber<?>[size];
+                int length = 0;
+                for (Group group : groups.values()) {
+                    System.arraycopy(group.subscribers, 0, merged, length,
+                                     group.subscribers.length);
+                    length += group.subscribers.length;
+                }
+                Arrays.sort(merged);
+                subscribers = merged;
+            }
+            return merged;
+        }
+
+        private TimeStampedSubscriber<?>[] subscribersOf(Class<?> eventType) {
+            TimeStampedSubscriber<?>[] resolved = index.get(eventType);
+            if (resolved == null) {
+                resolved = index.computeIfAbsent(eventType, this::resolve);
+            }
+            return resolved;
+        }
+
+        private TimeStampedSubscriber<?>[] resolve(Class<?> eventType) {
+            List<TimeStampedSubscriber<?>> resolved = new ArrayList<>();
+            for (Class<?> type : TypeHierarchy.of(eventType)) {
+                Group group = groups.get(type);
+                if (group != null) {
+                    resolved.addAll(Arrays.asList(group.subscribers));
+                }
+            }
+            if (resolved.isEmpty()) {
+                return EMPTY;
+            }
+            Collections.sort(resolved);
+            return resolved.toArray(EMPTY);
+        }
+    }
+}
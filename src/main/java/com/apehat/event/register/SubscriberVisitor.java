@@ -0,0 +1,46 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.Subscriber;
+
+/**
+ * The visitor of the subscribers of an event.
+ * <p>
+ * Because of the method of this is generic, the visitor can't be implemented
+ * by lambda expression, but can be implemented by method reference.
+ *
+ * @author hanpengfei
+ * @see SubscriberRegister#forEachSubscriber(Event, SubscriberVisitor)
+ * @since 1.0
+ */
+@FunctionalInterface
+public interface SubscriberVisitor {
+
+    /**
+     * Visit a subscriber of the specified event.
+     *
+     * @param event
+     *         the event
+     * @param subscriber
+     *         the subscriber of the event
+     * @param <T>
+     *         the type of event
+     */
+    <T extends Event> void visit(T event, Subscriber<? super T> subscriber);
+}
@@ -19,28 +19,94 @@ package com.apehat.event.register;
 import com.apehat.event.SubscribeScope;
 import com.apehat.event.Subscriber;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * The register of {@link SubscribeScope#THREAD} subscribers.
+ * <p>
+ * The subscribers are confined to the thread which registered them, and be
+ * held by the thread itself, so they will be reclaimed with the thread when
+ * it terminates. A thread that hasn't registered any subscriber doesn't hold
+ * any state of this register.
+ *
  * @author hanpengfei
  * @since 1.0
  */
 final class ThreadSubscriberRegister
         extends AbstractTimeStampedSubscriberRegister {
 
-    private final Map<Long, Set<TimeStampedSubscriber<?>>> threadMap = new ConcurrentHashMap<>();
+    /** The index of threads those haven't registered any subscriber */
+    private static final SubscriberTypeIndex EMPTY_INDEX = new SubscriberTypeIndex();
+
+    private final ThreadLocal<SubscriberTypeIndex> subscriberIndexes = new ThreadLocal<>();
+
+    /**
+     * The count of threads those hold subscribers of this. When no thread
+     * holds, the lookup of thread local can be skipped.
+     * <p>
+     * A thread terminated without {@link #clear()} will still be counted, it
+     * only disables the fast path.
+     */
+    private final AtomicInteger holderCount = new AtomicInteger();
+
+    /**
+     * Returns the subscriber index of current thread, or an empty index if
+     * current thread hasn't registered any subscriber. The returned empty
+     * index is shared, so subscribers only can be added by {@link
+     * #doRegister(TimeStampedSubscriber)}.
+     */
+    @Override SubscriberTypeIndex subscriberIndex() {
+        if (holderCount.get() == 0) {
+            return EMPTY_INDEX;
+        }
+        SubscriberTypeIndex index = subscriberIndexes.get();
+        return index == null ? EMPTY_INDEX : index;
+    }
 
     @Override protected Collection<TimeStampedSubscriber<?>> allSubscribers() {
-        return threadMap.computeIfAbsent(Thread.currentThread().getId(),
-                                         k->new HashSet<>());
+        return subscriberIndex().subscribers();
+    }
+
+    @Override protected void doRegister(TimeStampedSubscriber<?> subscriber) {
+        assert subscriber != null;
+        ownedIndex().add(subscriber);
+    }
+
+    @Override protected void doRegisterAll(
+            Collection<? extends TimeStampedSubscriber<?>> subscribers) {
+        assert subscribers != null;
+        ownedIndex().addAll(subscribers);
+    }
+
+    /**
+     * Returns the subscriber index of current thread, create it if current
+     * thread hasn't registered any subscriber.
+     */
+    private SubscriberTypeIndex ownedIndex() {
+        SubscriberTypeIndex index = subscriberIndexes.get();
+        if (index == null) {
+            index = new SubscriberTypeIndex();
+            subscriberIndexes.set(index);
+            holderCount.incrementAndGet();
+        }
+        return index;
     }
 
     @Override public boolean registrable(Subscriber<?> subscriber) {
         return Objects.equals(subscriber.scope(), SubscribeScope.THREAD);
     }
 
+    /**
+     * Clear the subscribers of current thread, and release the state of
+     * current thread.
+     */
     @Override public void clear() {
-        allSubscribers().clear();
+        SubscriberTypeIndex index = subscriberIndexes.get();
+        subscriberIndexes.remove();
+        if (index != null) {
+            holderCount.decrementAndGet();
+        }
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The resolved type hierarchy of classes.
+ * <p>
+ * The hierarchy of a class contains the class itself, all of it's super
+ * classes and all of it's (direct and indirect) interfaces. The hierarchy is
+ * resolved once per class, and cached with the class.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class TypeHierarchy {
+
+    private static final ClassValue<Class<?>[]> HIERARCHIES = new ClassValue<Class<?>[]>() {
+        @Override protected Class<?>[] computeValue(Class<?> type) {
+            return resolve(type);
+        }
+    };
+
+    private TypeHierarchy() {
+    }
+
+    /**
+     * Returns the type hierarchy of specified type. The first element is
+     * always the specified type.
+     * <p>
+     * The returned array is shared, so the caller mustn't modify it.
+     *
+     * @param type
+     *         the type to get hierarchy
+     * @return the type hierarchy of specified type
+     * @throws NullPointerException
+     *         specified type is null
+     */
+    static Class<?>[] of(Class<?> type) {
+        return HIERARCHIES.get(type);
+    }
+
+    private static Class<?>[] resolve(Class<?> type) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        Deque<Class<?>> pending = new ArrayDeque<>();
+        pending.add(type);
+        Class<?> current;
+        while ((current = pending.poll()) != null) {
+            if (types.add(current)) {
+                Class<?> superclass = current.getSuperclass();
+                if (superclass != null) {
+                    pending.add(superclass);
+                }
+                for (Class<?> anInterface : current.getInterfaces()) {
+                    pending.add(anInterface);
+                }
+            }
+        }
+        return types.toArray(new Class<?>[0]);
+    }
+}
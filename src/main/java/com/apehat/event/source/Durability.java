@@ -0,0 +1,49 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+/**
+ * The durability of the events stored by {@link FileEventStore}, i.e. when
+ * the stored events are forced to the storage device before the store be
+ * completed.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public enum Durability {
+
+    /**
+     * Force after each stored stream. The stored events survive the crash of
+     * operating system, but each store waits for the device.
+     */
+    PER_WRITE,
+
+    /**
+     * Force once per commit batch. The concurrent stores are committed
+     * together, so they share the wait for the device. The stored events
+     * survive the crash of operating system.
+     */
+    PER_BATCH,
+
+    /**
+     * Never force, the events are written to the device by the operating
+     * system. The stored events survive the crash of process, but may be
+     * lost when the operating system crashed.
+     */
+    OS
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+
+/**
+ * A node of the event tree of an {@link EventStream}.
+ * <p>
+ * The node only holds it's position in the tree, the event is loaded by
+ * {@link #event()} when required, and isn't be cached. So walking over a
+ * stream by nodes doesn't hold the events.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class EventNode {
+
+    private final EventStream stream;
+    private final int ordinal;
+
+    EventNode(EventStream stream, int ordinal) {
+        this.stream = stream;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Returns the ordinal of this in stream, i.e. the count of events be
+     * appended to stream before this.
+     *
+     * @return the ordinal of this
+     */
+    public int ordinal() {
+        return ordinal;
+    }
+
+    /**
+     * Returns the {@link Event#version()} of the event of this, i.e. the
+     * depth of this in the tree.
+     *
+     * @return the version of the event of this
+     */
+    public int version() {
+        return stream.versionOf(ordinal);
+    }
+
+    /**
+     * Returns whether this is a root, i.e. the event of this isn't derived
+     * from other event.
+     *
+     * @return true, if this is a root; otherwise false
+     */
+    public boolean isRoot() {
+        return stream.parentOf(ordinal) < 0;
+    }
+
+    /**
+     * Returns the parent of this.
+     *
+     * @return the parent of this, or null if this is a root
+     */
+    public EventNode parent() {
+        int parent = stream.parentOf(ordinal);
+        return parent < 0 ? null : stream.node(parent);
+    }
+
+    /**
+     * Returns the event of this. The committed event is loaded from store at
+     * each invoking.
+     *
+     * @return the event of this
+     */
+    public Event event() {
+        return stream.eventOf(ordinal);
+    }
+
+    @Override public boolean equals(Object o) {
+        if (!(o instanceof EventNode)) {
+            return false;
+        }
+        EventNode node = (EventNode) o;
+        return stream == node.stream && ordinal == node.ordinal;
+    }
+
+    @Override public int hashCode() {
+        return 31 * System.identityHashCode(stream) + ordinal;
+    }
+
+    @Override public String toString() {
+        return "EventNode{" + "stream=" + stream.id() + ", ordinal=" +
+               ordinal + ", version=" + version() + ", parent=" +
+               stream.parentOf(ordinal) + '}';
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An event record of {@link FileEventStore}.
+ * <p>
+ * The payload of the record is a read-only view of the mapped segment, so
+ * the record can be read without copy, and the event will be deserialized
+ * only if {@link #event()} be invoked.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class EventRecord {
+
+    private final long position;
+    private final EventStreamId streamId;
+    private final int version;
+    private final int parent;
+    private final int remaining;
+    private final ByteBuffer payload;
+    private final EventSerializer serializer;
+
+    EventRecord(long position, EventStreamId streamId, int version,
+                int parent, int remaining, ByteBuffer payload,
+                EventSerializer serializer) {
+        this.position = position;
+        this.streamId = streamId;
+        this.version = version;
+        this.parent = parent;
+        this.remaining = remaining;
+        this.payload = payload;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Returns the position of this in the log.
+     *
+     * @return the position of this
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Returns the id of the stream this belongs to.
+     *
+     * @return the id of stream
+     */
+    public EventStreamId streamId() {
+        return streamId;
+    }
+
+    /**
+     * Returns the {@link Event#version()} of the recorded event.
+     *
+     * @return the version of the recorded event
+     */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Returns the ordinal of the parent of the recorded event in stream.
+     *
+     * @return the ordinal of parent, or -1 if the event is a root
+     * @see EventNode
+     */
+    public int parent() {
+        return parent;
+    }
+
+    /**
+     * Returns the count of records after this, those be appended by the same
+     * store.
+     */
+    int remaining() {
+        return remaining;
+    }
+
+    /**
+     * Returns the serialized event.
+     *
+     * @return a read-only buffer of the serialized event
+     */
+    public ByteBuffer payload() {
+        return payload.duplicate();
+    }
+
+    /**
+     * Deserialize the recorded event.
+     *
+     * @return the recorded event
+     * @throws IllegalArgumentException
+     *         the event can't be deserialized
+     */
+    public Event event() {
+        return serializer.deserialize(payload());
+    }
+
+    @Override public String toString() {
+        return "EventRecord{" + "position=" + position + ", streamId=" +
+               streamId + ", version=" + version + ", parent=" + parent +
+               ", size=" +
+               payload.remaining() + '}';
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The serializer of the events be stored by {@link EventStore}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ * @see JavaEventSerializer
+ */
+public interface EventSerializer {
+
+    /**
+     * Serialize specified event.
+     *
+     * @param event
+     *         the event to serialize
+     * @return the serialized bytes
+     * @throws IllegalArgumentException
+     *         specified event can't be serialized
+     */
+    byte[] serialize(Event event);
+
+    /**
+     * Deserialize an event from the remaining bytes of specified buffer. The
+     * buffer may be a region of a mapped file, so the implementations should
+     * read it directly, rather than copy it.
+     *
+     * @param payload
+     *         the serialized bytes
+     * @return the deserialized event
+     * @throws IllegalArgumentException
+     *         the bytes can't be deserialized
+     */
+    Event deserialize(ByteBuffer payload);
+}
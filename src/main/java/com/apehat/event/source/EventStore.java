@@ -14,6 +14,7 @@
  * limitations under the License.
  */
 
+
 package com.apehat.event.source;
 
 import com.apehat.event.Event;
@@ -24,9 +25,38 @@ import com.apehat.event.Event;
  */
 public interface EventStore {
 
+    /**
+     * Store the uncommitted events of specified stream, and mark them as
+     * committed.
+     *
+     * @param eventStream
+     *         the stream to store
+     * @throws NullPointerException
+     *         specified stream is null
+     * @throws java.util.ConcurrentModificationException
+     *         the version of specified stream isn't the stored version, i.e.
+     *         other events had be stored to the stream after it be found
+     */
     void store(EventStream eventStream);
 
+    /**
+     * Returns the stream of specified id.
+     *
+     * @param id
+     *         the id of stream
+     * @return the stream of specified id, or null if no event be stored to
+     * the stream
+     */
     EventStream find(EventStreamId id);
 
+    /**
+     * Returns the stream of the trigger of specified event, i.e. the stream
+     * contains the events have equal {@link Event#triggerId()}.
+     *
+     * @param event
+     *         the event to find stream
+     * @return the stream of the trigger of specified event, or null if no
+     * event of the trigger be stored
+     */
     EventStream find(Event event);
 }
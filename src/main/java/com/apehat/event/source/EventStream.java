@@ -14,18 +14,418 @@
  * limitations under the License.
  */
 
+
 package com.apehat.event.source;
 
+import com.apehat.event.Event;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
 /**
+ * The events of an {@link EventStreamId}, in order of appended.
+ * <p>
+ * The events of stream are organized as a tree: an event of version 1 is a
+ * root, an event derived from other event, i.e. it's version is the version
+ * of parent plus 1, is a child of it's parent. Because of an event may give
+ * rise to several derived events. The nodes of tree are indexed by ordinal,
+ * see {@link EventNode}.
+ * <p>
+ * The stream has two parts: the committed events, those had be stored by
+ * {@link EventStore}; and the uncommitted events, those be appended by {@link
+ * #append(Event)} and will be stored by next {@link
+ * EventStore#store(EventStream)}. The {@link #version()} is the count of
+ * committed events, be used by store to detect concurrent modification.
+ * <p>
+ * The stream found from store loads the committed events lazily, only the
+ * versions and parents of them are held. The events are loaded one by one
+ * when iterated, so a stream can be walked in constant memory, regardless of
+ * the length of it's history.
+ * <p>
+ * The stream isn't thread safe.
+ *
  * @author hanpengfei
  * @since 1.0
  */
-public class EventStream {
+public class EventStream implements Iterable<Event> {
     // 基于事件建立事件树
     // 树模型的建立的原因是：
     // 基于一个 version 为1的事件，可能会衍生出多个事件
 
+    private static final int[] EMPTY = new int[0];
+
+    private final EventStreamId id;
+
+    /** The committed events be loaded from store */
+    private final Source source;
+
+    /** The events be appended to this, committed or not */
+    private final List<Event> appended = new ArrayList<>();
+
+    /** The parents of the appended events */
+    private int[] appendedParents = EMPTY;
+
+    /** The next siblings of the appended events, or -1 */
+    private int[] appendedSiblings = EMPTY;
+
+    /**
+     * The first and last appended children of nodes, by ordinal of parent,
+     * -1 for roots
+     */
+    private final Map<Integer, int[]> appendedChildren = new HashMap<>();
+
+    private int version;
+
+    /**
+     * Create an empty stream of specified id.
+     *
+     * @param id
+     *         the id of stream
+     * @throws NullPointerException
+     *         specified id is null
+     */
+    public EventStream(EventStreamId id) {
+        this(id, Source.EMPTY);
+    }
+
+    /**
+     * Create a stream of specified id, the committed events of it are
+     * provided by specified source.
+     */
+    EventStream(EventStreamId id, Source source) {
+        this.id = Objects.requireNonNull(id);
+        this.source = Objects.requireNonNull(source);
+        this.version = source.size();
+    }
+
     public EventStreamId id() {
-        return null;
+        return id;
+    }
+
+    /**
+     * Returns the count of committed events.
+     *
+     * @return the count of committed events
+     */
+    public int version() {
+        return version;
+    }
+
+    /**
+     * Returns the count of all events of this, include the uncommitted.
+     *
+     * @return the count of all events
+     */
+    public int size() {
+        return source.size() + appended.size();
+    }
+
+    /**
+     * Append an uncommitted event to this.
+     * <p>
+     * If the version of event is {@link Event#INITIAL_VERSION}, it will be a
+     * root; otherwise, it will be a child of the last event, those version is
+     * the version of specified event minus 1. Use {@link #append(EventNode,
+     * Event)} to specify the parent explicitly.
+     *
+     * @param event
+     *         the event to append
+     * @return this
+     * @throws NullPointerException
+     *         specified event is null
+     * @throws IllegalArgumentException
+     *         no event can be the parent of specified event
+     */
+    public EventStream append(Event event) {
+        int version = event.version();
+        if (version <= Event.INITIAL_VERSION) {
+            return append(-1, event);
+        }
+        for (int ordinal = size() - 1; ordinal >= 0; ordinal--) {
+            if (versionOf(ordinal) == version - 1) {
+                return append(ordinal, event);
+            }
+        }
+        throw new IllegalArgumentException(
+                "No parent of version " + (version - 1) + " for " + event);
+    }
+
+    /**
+     * Append an uncommitted event derived from specified parent.
+     *
+     * @param parent
+     *         the parent of event, must be a node of this
+     * @param event
+     *         the event to append
+     * @return this
+     * @throws NullPointerException
+     *         specified parent or event is null
+     * @throws IllegalArgumentException
+     *         specified parent isn't a node of this, or the version of event
+     *         isn't the version of parent plus 1
+     */
+    public EventStream append(EventNode parent, Event event) {
+        if (!parent.equals(node(parent.ordinal()))) {
+            throw new IllegalArgumentException(parent + " isn't a node of " + this);
+        }
+        if (event.version() != parent.version() + 1) {
+            throw new IllegalArgumentException(String.format(
+                    "The version of %s must be %d", event,
+                    parent.version() + 1));
+        }
+        return append(parent.ordinal(), event);
+    }
+
+    private EventStream append(int parent, Event event) {
+        Objects.requireNonNull(event);
+        int index = appended.size();
+        if (index == appendedParents.length) {
+            int capacity = Math.max(4, index << 1);
+            appendedParents = Arrays.copyOf(appendedParents, capacity);
+            appendedSiblings = Arrays.copyOf(appendedSiblings, capacity);
+        }
+        int ordinal = source.size() + index;
+        appendedParents[index] = parent;
+        appendedSiblings[index] = -1;
+        int[] children = appendedChildren.get(parent);
+        if (children == null) {
+            appendedChildren.put(parent, new int[]{ordinal, ordinal});
+        } else {
+            appendedSiblings[children[1] - source.size()] = ordinal;
+            children[1] = ordinal;
+        }
+        appended.add(event);
+        return this;
+    }
+
+    /**
+     * Returns the node of specified ordinal.
+     *
+     * @param ordinal
+     *         the ordinal of node
+     * @return the node of specified ordinal
+     * @throws IndexOutOfBoundsException
+     *         specified ordinal is negative, or not less than {@link #size()}
+     */
+    public EventNode node(int ordinal) {
+        if (ordinal < 0 || ordinal >= size()) {
+            throw new IndexOutOfBoundsException("Ordinal: " + ordinal);
+        }
+        return new EventNode(this, ordinal);
+    }
+
+    /**
+     * Returns the root nodes, in order of appended.
+     *
+     * @return the root nodes
+     */
+    public List<EventNode> roots() {
+        return childrenOf(-1);
+    }
+
+    /**
+     * Returns the children of specified node, in order of appended.
+     *
+     * @param parent
+     *         the parent node
+     * @return the children of specified node
+     */
+    public List<EventNode> children(EventNode parent) {
+        return childrenOf(parent.ordinal());
+    }
+
+    /**
+     * Returns the children of specified parent, by following the sibling
+     * links, so it costs the count of children.
+     */
+    private List<EventNode> childrenOf(int parent) {
+        List<EventNode> children = new ArrayList<>();
+        int committed = source.size();
+        // the committed children are always before the appended
+        if (parent < committed) {
+            for (int ordinal = source.firstChild(parent); ordinal >= 0;
+                 ordinal = source.nextSibling(ordinal)) {
+                children.add(new EventNode(this, ordinal));
+            }
+        }
+        int[] appendedRange = appendedChildren.get(parent);
+        if (appendedRange != null) {
+            for (int ordinal = appendedRange[0]; ordinal >= 0;
+                 ordinal = appendedSiblings[ordinal - committed]) {
+                children.add(new EventNode(this, ordinal));
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Returns all nodes, in order of appended. The parent of a node is
+     * always before it.
+     *
+     * @return the view of all nodes
+     */
+    public List<EventNode> nodes() {
+        return new AbstractList<EventNode>() {
+            @Override public EventNode get(int index) {
+                return node(index);
+            }
+
+            @Override public int size() {
+                return EventStream.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the iterator of all events, include the uncommitted, in order
+     * of appended. The committed events are loaded one by one.
+     *
+     * @return the iterator of all events
+     */
+    @Override public Iterator<Event> iterator() {
+        return new Iterator<Event>() {
+            private int next;
+
+            @Override public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override public Event next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return eventOf(next++);
+            }
+        };
+    }
+
+    /**
+     * Returns all events of this, include the uncommitted. All committed
+     * events will be loaded, prefer {@link #iterator()} to walk a long
+     * stream.
+     *
+     * @return the unmodifiable list of events
+     */
+    public List<Event> events() {
+        List<Event> events = new ArrayList<>(size());
+        for (Event event : this) {
+            events.add(event);
+        }
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Returns the uncommitted events.
+     *
+     * @return the unmodifiable view of uncommitted events
+     */
+    public List<Event> uncommitted() {
+        return Collections.unmodifiableList(appended.subList(
+                version - source.size(), appended.size()));
+    }
+
+    /**
+     * Returns the parents of the uncommitted events.
+     */
+    int[] uncommittedParents() {
+        int from = version - source.size();
+        return Arrays.copyOfRange(appendedParents, from, appended.size());
+    }
+
+    /**
+     * Mark the specified count of uncommitted events as committed. Be
+     * invoked by store after the events be stored.
+     */
+    void commit(int count) {
+        assert count >= 0 && version + count <= size();
+        version += count;
+    }
+
+    int versionOf(int ordinal) {
+        int committed = source.size();
+        return ordinal < committed ? source.version(ordinal)
+                : appended.get(ordinal - committed).version();
+    }
+
+    int parentOf(int ordinal) {
+        int committed = source.size();
+        return ordinal < committed ? source.parent(ordinal)
+                : appendedParents[ordinal - committed];
+    }
+
+    Event eventOf(int ordinal) {
+        int committed = source.size();
+        return ordinal < committed ? source.event(ordinal)
+                : appended.get(ordinal - committed);
+    }
+
+    @Override public String toString() {
+        return "EventStream{" + "id=" + id + ", version=" + version +
+               ", size=" + size() + '}';
+    }
+
+    /**
+     * The source of the committed events of a stream. The versions and
+     * parents should be held by the source, and the events should be loaded
+     * when required.
+     */
+    interface Source {
+
+        Source EMPTY = new Source() {
+            @Override public int size() {
+                return 0;
+            }
+
+            @Override public int version(int ordinal) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            @Override public int parent(int ordinal) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            @Override public int firstChild(int ordinal) {
+                if (ordinal >= 0) {
+                    throw new IndexOutOfBoundsException();
+                }
+                return -1;
+            }
+
+            @Override public int nextSibling(int ordinal) {
+                throw new IndexOutOfBoundsException();
+            }
+
+            @Override public Event event(int ordinal) {
+                throw new IndexOutOfBoundsException();
+            }
+        };
+
+        int size();
+
+        int version(int ordinal);
+
+        int parent(int ordinal);
+
+        /**
+         * Returns the ordinal of the first child of specified node, or the
+         * first root if specified ordinal is -1; or -1 if no such node.
+         */
+        int firstChild(int ordinal);
+
+        /**
+         * Returns the ordinal of the next sibling of specified node, or -1
+         * if no such node.
+         */
+        int nextSibling(int ordinal);
+
+        Event event(int ordinal);
     }
 }
@@ -14,11 +14,69 @@
  * limitations under the License.
  */
 
+
 package com.apehat.event.source;
 
+import java.util.Objects;
+
 /**
+ * The identity of an {@link EventStream}, e.g. the identity of the aggregate
+ * the events of stream belong to.
+ * <p>
+ * The identity is stored as the UTF-8 bytes of it's value, so the value
+ * mustn't be longer than {@value #MAX_LENGTH} bytes in UTF-8.
+ *
  * @author hanpengfei
  * @since 1.0
  */
 public final class EventStreamId {
+
+    /** The max length of the UTF-8 bytes of value */
+    public static final int MAX_LENGTH = Short.MAX_VALUE;
+
+    private final String value;
+
+    private EventStreamId(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns the event stream id of specified value.
+     *
+     * @param value
+     *         the value of id
+     * @return the event stream id of specified value
+     * @throws NullPointerException
+     *         specified value is null
+     * @throws IllegalArgumentException
+     *         specified value is empty
+     */
+    public static EventStreamId of(String value) {
+        if (Objects.requireNonNull(value).isEmpty()) {
+            throw new IllegalArgumentException("The id mustn't be empty.");
+        }
+        return new EventStreamId(value);
+    }
+
+    /**
+     * Returns the value of this.
+     *
+     * @return the value of this
+     */
+    public String value() {
+        return value;
+    }
+
+    @Override public boolean equals(Object o) {
+        return o == this || o instanceof EventStreamId && value
+                .equals(((EventStreamId) o).value);
+    }
+
+    @Override public int hashCode() {
+        return value.hashCode();
+    }
+
+    @Override public String toString() {
+        return "EventStreamId{" + value + '}';
+    }
 }
@@ -0,0 +1,943 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The {@link EventStore} backed by an append-only log of segment files.
+ * <p>
+ * The log is split into fixed size segment files, each segment is mapped to
+ * memory, and the events are appended as length prefixed, CRC checked
+ * records. When the active segment is full, a new segment will be created.
+ * The records are read from the mapped segments without copy, see {@link
+ * #records(EventStreamId)}.
+ * <p>
+ * The positions of the records of each stream are indexed in memory. The
+ * index is rebuilt by reading the record headers when the store be opened,
+ * the broken records at the end of log, e.g. written partially before crash,
+ * are discarded.
+ * <p>
+ * The stores are committed by groups: the concurrent stores are appended in
+ * one write lock, and be forced to the storage device as the {@link
+ * Durability} of this, see {@link #storeAsync(EventStream)}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class FileEventStore implements EventStore, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(
+            FileEventStore.class);
+
+    private final Path directory;
+    private final int segmentSize;
+    private final EventSerializer serializer;
+
+    private final Object writeLock = new Object();
+
+    private final Object forceLock = new Object();
+
+    /** The index of first segment may have unforced records */
+    private int unforced;
+
+    private final GroupCommitter committer;
+
+    /** The segments in order of position, replaced on roll */
+    private volatile Segment[] segments;
+
+    private final ConcurrentMap<EventStreamId, StreamIndex> streams = new ConcurrentHashMap<>();
+
+    /** The stream of triggers, be resolved lazily */
+    private final ConcurrentMap<TriggerId, EventStreamId> triggers = new ConcurrentHashMap<>();
+
+    private volatile boolean closed;
+
+    private FileEventStore(Builder builder, Path directory)
+            throws IOException {
+        this.directory = directory;
+        this.serializer = builder.serializer;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(
+                directory, "*" + Segment.SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files);
+        List<Segment> opened = new ArrayList<>(files.size());
+        // the records of the last store, until it's last record be read
+        List<EventRecord> pending = new ArrayList<>();
+        Consumer<EventRecord> recovery = record->{
+            pending.add(record);
+            if (record.remaining() == 0) {
+                pending.forEach(this::index);
+                pending.clear();
+            }
+        };
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Path file = files.get(i);
+                if (i == files.size() - 1 && !Segment.hasHeader(file)) {
+                    // crashed before the header of new segment be forced,
+                    // so no record had be appended to it
+                    LOGGER.warn("Discard the segment without header: {}", file);
+                    Files.move(file, file.resolveSibling(
+                            file.getFileName() + ".broken"),
+                               StandardCopyOption.REPLACE_EXISTING);
+                    continue;
+                }
+                opened.add(Segment.open(file, serializer, recovery));
+            }
+            if (opened.isEmpty()) {
+                opened.add(Segment.create(directory, 0, builder.segmentSize));
+            }
+            checkContiguous(opened);
+        } catch (IOException | RuntimeException e) {
+            for (Segment segment : opened) {
+                segment.close();
+            }
+            throw e;
+        }
+        this.segmentSize = opened.get(0).size();
+        this.segments = opened.toArray(new Segment[0]);
+        if (!pending.isEmpty()) {
+            // crashed while appending a store, discard the appended records
+            LOGGER.warn("Discard {} records of incomplete store from {}",
+                        pending.size(), pending.get(0).position());
+            truncate(pending.get(0).position());
+            for (Segment segment : segments) {
+                segment.force();
+            }
+        }
+        this.unforced = segments.length - 1;
+        this.committer = new GroupCommitter(this, builder.durability,
+                                            builder.batchWindowNanos,
+                                            builder.maxBatchSize,
+                                            builder.commitExecutor);
+    }
+
+    /**
+     * Check the segments have same size, and each segment starts at the end
+     * of previous, so the segment of a position can be computed.
+     */
+    private static void checkContiguous(List<Segment> segments)
+            throws IOException {
+        Segment first = segments.get(0);
+        for (int i = 1; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.size() != first.size() || segment.base() != first
+                    .base() + (long) i * first.size()) {
+                throw new IOException("Unexpected segment " + segment.path());
+            }
+        }
+    }
+
+    private void index(EventRecord record) {
+        streams.computeIfAbsent(record.streamId(), StreamIndex::new)
+               .add(record.position(), record.version(), record.parent());
+    }
+
+    /**
+     * Store the uncommitted events of specified stream, and wait for the
+     * store be completed by the {@link Durability}.
+     */
+    @Override public void store(EventStream eventStream) {
+        try {
+            storeAsync(eventStream).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Store the uncommitted events of specified stream asynchronously.
+     * <p>
+     * The events are serialized by current thread, then be committed with
+     * the concurrent stores as a batch. The returned future will be completed
+     * after the events be stored as the {@link Durability} of this, and the
+     * events be marked as committed; or be completed exceptionally with
+     * {@link ConcurrentModificationException} if the version of stream isn't
+     * the stored version. So the stream mustn't be modified until the future
+     * be completed.
+     *
+     * @param eventStream
+     *         the stream to store
+     * @return the future of specified stream
+     * @throws NullPointerException
+     *         specified stream is null
+     * @throws IllegalArgumentException
+     *         an event can't be serialized, or it's serialized size exceeds
+     *         the segment size
+     * @throws IllegalStateException
+     *         this had be closed
+     */
+    public CompletableFuture<EventStream> storeAsync(EventStream eventStream) {
+        checkNotClosed();
+        List<Event> events = eventStream.uncommitted();
+        if (events.isEmpty()) {
+            return CompletableFuture.completedFuture(eventStream);
+        }
+        byte[] idBytes = idBytes(eventStream.id());
+        // serialize out of lock
+        byte[][] payloads = new byte[events.size()][];
+        for (int i = 0; i < payloads.length; i++) {
+            payloads[i] = serializer.serialize(events.get(i));
+            checkRecordLength(idBytes, payloads[i]);
+        }
+        return committer.submit(new GroupCommitter.Request(
+                eventStream, new ArrayList<>(events),
+                eventStream.uncommittedParents(), idBytes, payloads));
+    }
+
+    /**
+     * Append the specified batch of requests in one write lock. The failure
+     * of a request is set to it, rather than be thrown; the records of the
+     * failed request are truncated, so a store is appended atomically.
+     *
+     * @param force
+     *         force after each request be appended
+     */
+    void append(List<GroupCommitter.Request> batch, boolean force) {
+        synchronized (writeLock) {
+            for (GroupCommitter.Request request : batch) {
+                long start = position();
+                boolean appended = false;
+                try {
+                    long[] positions = append(request);
+                    if (force) {
+                        force();
+                    }
+                    index(request, positions);
+                    appended = true;
+                } catch (RuntimeException | Error e) {
+                    request.failure = e;
+                } finally {
+                    if (!appended) {
+                        truncate(start);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the records of specified request, returns their positions. The
+     * records are indexed by {@link #index(GroupCommitter.Request, long[])},
+     * after all of them be appended.
+     */
+    private long[] append(GroupCommitter.Request request) {
+        checkNotClosed();
+        EventStream eventStream = request.stream;
+        EventStreamId id = eventStream.id();
+        StreamIndex index = streams.get(id);
+        int version = index == null ? 0 : index.size();
+        if (version != eventStream.version()) {
+            throw new ConcurrentModificationException(String.format(
+                    "%s had be modified, excepted version %d, but %d", id,
+                    eventStream.version(), version));
+        }
+        int count = request.payloads.length;
+        long[] positions = new long[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = append(request.id, request.events.get(i).version(),
+                                  request.parents[i], count - i - 1,
+                                  request.payloads[i]);
+        }
+        return positions;
+    }
+
+    private void index(GroupCommitter.Request request, long[] positions) {
+        EventStreamId id = request.stream.id();
+        // the trigger may fail, so resolve it before the stream be visible
+        triggers.putIfAbsent(request.events.get(0).triggerId(), id);
+        StreamIndex index = streams.computeIfAbsent(id, StreamIndex::new);
+        for (int i = 0; i < positions.length; i++) {
+            index.add(positions[i], request.events.get(i).version(),
+                      request.parents[i]);
+        }
+    }
+
+    /**
+     * Truncate the records from specified position. Must be invoked with
+     * write lock, or by the constructor.
+     */
+    private void truncate(long position) {
+        for (Segment segment : segments) {
+            if (segment.base() + segment.limit() > position) {
+                segment.truncate((int) Math.max(position - segment.base(),
+                                                Segment.HEADER_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Force the segments have unforced records to the storage device.
+     */
+    void force() {
+        synchronized (forceLock) {
+            Segment[] current = segments;
+            for (int i = unforced; i < current.length; i++) {
+                current[i].force();
+            }
+            // the active segment may be written after forced
+            unforced = current.length - 1;
+        }
+    }
+
+    /**
+     * Append a record to the active segment, create a new segment if it's
+     * full. Must be invoked with write lock.
+     */
+    private long append(byte[] id, int version, int parent, int remaining,
+                        byte[] payload) {
+        Segment active = segments[segments.length - 1];
+        long position = active.append(id, version, parent, remaining,
+                                      payload);
+        if (position < 0) {
+            active = roll(active);
+            position = active.append(id, version, parent, remaining,
+                                     payload);
+            assert position >= 0;
+        }
+        return position;
+    }
+
+    private Segment roll(Segment active) {
+        Segment next;
+        try {
+            next = Segment.create(directory, active.base() + segmentSize,
+                                  segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Segment[] current = segments;
+        Segment[] rolled = new Segment[current.length + 1];
+        System.arraycopy(current, 0, rolled, 0, current.length);
+        rolled[current.length] = next;
+        segments = rolled;
+        return next;
+    }
+
+    private byte[] idBytes(EventStreamId id) {
+        byte[] bytes = id.value().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > EventStreamId.MAX_LENGTH) {
+            throw new IllegalArgumentException("Too long id: " + id);
+        }
+        return bytes;
+    }
+
+    private void checkRecordLength(byte[] id, byte[] payload) {
+        if (Segment.bodyLength(id, payload) > Segment.capacity(segmentSize)) {
+            throw new IllegalArgumentException(String.format(
+                    "The event of %d bytes exceeds the segment size %d",
+                    payload.length, segmentSize));
+        }
+    }
+
+    /**
+     * Returns the stream of specified id. The events of returned stream are
+     * loaded lazily, i.e. only be deserialized when they are iterated.
+     */
+    @Override public EventStream find(EventStreamId id) {
+        checkNotClosed();
+        StreamIndex index = streams.get(Objects.requireNonNull(id));
+        if (index == null || index.size() == 0) {
+            return null;
+        }
+        return new EventStream(id, index.snapshot(this));
+    }
+
+    /**
+     * Find the stream of the trigger of specified event. The triggers of
+     * streams are resolved lazily, by the first event of each stream, so the
+     * trigger must implement equals and hashCode.
+     */
+    @Override public EventStream find(Event event) {
+        TriggerId triggerId = event.triggerId();
+        EventStreamId id = triggers.get(triggerId);
+        if (id == null) {
+            for (StreamIndex index : streams.values()) {
+                if (index.resolved || index.size() == 0) {
+                    continue;
+                }
+                TriggerId trigger = read(index.get(0)).event().triggerId();
+                triggers.putIfAbsent(trigger, index.id);
+                index.resolved = true;
+                if (trigger.equals(triggerId)) {
+                    id = index.id;
+                    break;
+                }
+            }
+        }
+        return id == null ? null : find(id);
+    }
+
+    /**
+     * Returns the records of specified stream, in order of stored. The
+     * payloads of records are views of the mapped segments.
+     *
+     * @param id
+     *         the id of stream
+     * @return the records of specified stream, or an empty list
+     * @throws NullPointerException
+     *         specified id is null
+     * @throws IllegalStateException
+     *         this had be closed
+     */
+    public List<EventRecord> records(EventStreamId id) {
+        checkNotClosed();
+        StreamIndex index = streams.get(Objects.requireNonNull(id));
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        long[] positions = index.positions();
+        List<EventRecord> records = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            records.add(read(position));
+        }
+        return records;
+    }
+
+    /**
+     * Visit the records in order of position, from the record at specified
+     * position to the end of log. The records are read from the mapped
+     * segments sequentially; the records appended while scanning may or may
+     * not be visited.
+     *
+     * @param from
+     *         the position of the first record to visit, or 0
+     * @param visitor
+     *         the visitor of records, returns false to stop
+     * @return the position after the last visited record
+     * @throws IllegalArgumentException
+     *         specified position isn't a {@link #checkPosition(long) valid}
+     *         position to start
+     */
+    long scan(long from, Predicate<? super EventRecord> visitor) {
+        checkPosition(from);
+        Segment[] current = segments;
+        long position = Math.max(from, current[0].base());
+        for (Segment segment : current) {
+            if (position >= segment.base() + segment.limit()) {
+                continue;
+            }
+            int offset = (int) Math.max(position - segment.base(),
+                                        Segment.HEADER_SIZE);
+            // the limit of segment is volatile, the records before it are
+            // completely written
+            int limit = segment.limit();
+            while (offset < limit) {
+                if (!visitor.test(segment.read(offset, serializer))) {
+                    return segment.base() + offset;
+                }
+                offset = segment.next(offset);
+            }
+            position = segment.base() + offset;
+        }
+        return position;
+    }
+
+    /**
+     * Check specified position can be a position to start reading. The valid
+     * positions are 0, the position of a record, the first record position
+     * of a segment, i.e. the {@link Segment#HEADER_SIZE} in a segment, and the
+     * end of a segment.
+     *
+     * @param position
+     *         the position to check
+     * @throws IllegalArgumentException
+     *         specified position isn't valid
+     */
+    void checkPosition(long position) {
+        if (position == 0 || position == position()) {
+            return;
+        }
+        Segment[] current = segments;
+        if (position > current[0].base()) {
+            Segment segment = segmentOf(position);
+            int offset = (int) (position - segment.base());
+            int limit = segment.limit();
+            if (offset == Segment.HEADER_SIZE || offset == limit) {
+                return;
+            }
+            if (offset > Segment.HEADER_SIZE && offset < limit) {
+                // walk the headers of the records before, needn't read bodies
+                int recordOffset = Segment.HEADER_SIZE;
+                while (recordOffset < offset) {
+                    recordOffset = segment.next(recordOffset);
+                }
+                if (recordOffset == offset) {
+                    return;
+                }
+            }
+        }
+        throw new IllegalArgumentException(
+                "Not a position of record: " + position);
+    }
+
+    /**
+     * Returns the record at specified position.
+     */
+    EventRecord read(long position) {
+        Segment segment = segmentOf(position);
+        return segment.read((int) (position - segment.base()), serializer);
+    }
+
+    private Segment segmentOf(long position) {
+        Segment[] current = segments;
+        int index = (int) ((position - current[0].base()) / segmentSize);
+        if (index < 0 || index >= current.length) {
+            throw new IllegalArgumentException("Illegal position: " + position);
+        }
+        return current[index];
+    }
+
+    /**
+     * Returns the position of the event of specified ordinal in specified
+     * stream.
+     *
+     * @return the position of the event, or -1 if no such event
+     */
+    long positionOf(EventStreamId id, int ordinal) {
+        StreamIndex index = streams.get(id);
+        return index == null || ordinal < 0 || ordinal >= index.size() ? -1
+                : index.get(ordinal);
+    }
+
+    Path directory() {
+        return directory;
+    }
+
+    /**
+     * Returns the ids of stored streams.
+     *
+     * @return the unmodifiable view of the ids of stored streams
+     */
+    public Set<EventStreamId> streamIds() {
+        return Collections.unmodifiableSet(streams.keySet());
+    }
+
+    /**
+     * Returns the end position of the log.
+     *
+     * @return the end position of the log
+     */
+    public long position() {
+        Segment[] current = segments;
+        Segment active = current[current.length - 1];
+        return active.base() + active.limit();
+    }
+
+    /**
+     * Returns the size of segment files.
+     *
+     * @return the size of segment files
+     */
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Returns the count of segment files.
+     *
+     * @return the count of segment files
+     */
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Force the stored records to the storage device, regardless of the
+     * {@link Durability} of this.
+     *
+     * @throws IllegalStateException
+     *         this had be closed
+     */
+    public void flush() {
+        checkNotClosed();
+        force();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void checkNotClosed() {
+        if (closed) {
+            throw new IllegalStateException(this + " had be closed.");
+        }
+    }
+
+    /**
+     * Force the stored records to the storage device, and close the segment
+     * files.
+     */
+    @Override public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOException failure = null;
+            for (Segment segment : segments) {
+                try {
+                    segment.force();
+                    segment.close();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to close {}", segment, e);
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    @Override public String toString() {
+        return "FileEventStore{" + directory + '}';
+    }
+
+    /**
+     * The positions, versions and parents of the records of a stream. Be
+     * appended by the writer, and be read concurrently. The published entries
+     * are never changed, so they can be shared by snapshots.
+     */
+    private static final class StreamIndex {
+
+        private final EventStreamId id;
+        private volatile Entries entries = new Entries(4);
+        private volatile int size;
+
+        /** Whether the trigger of this had be resolved */
+        private volatile boolean resolved;
+
+        /** The ordinal of first and last root, or -1 */
+        private int firstRoot = -1;
+        private int lastRoot = -1;
+
+        private StreamIndex(EventStreamId id) {
+            this.id = id;
+        }
+
+        private void add(long position, int version, int parent) {
+            Entries current = entries;
+            if (size == current.positions.length) {
+                current = current.grow(size);
+                entries = current;
+            }
+            int ordinal = size;
+            current.positions[ordinal] = position;
+            current.versions[ordinal] = version;
+            current.parents[ordinal] = parent;
+            // link to the previous sibling, the readers ignore the links to
+            // the ordinals out of their snapshots
+            if (parent < 0) {
+                if (lastRoot < 0) {
+                    firstRoot = ordinal;
+                } else {
+                    current.nextSiblings[lastRoot] = ordinal;
+                }
+                lastRoot = ordinal;
+            } else {
+                int last = current.lastChildren[parent];
+                if (last < 0) {
+                    current.firstChildren[parent] = ordinal;
+                } else {
+                    current.nextSiblings[last] = ordinal;
+                }
+                current.lastChildren[parent] = ordinal;
+            }
+            // publish the entry
+            size = ordinal + 1;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private long get(int index) {
+            return entries.positions[index];
+        }
+
+        private long[] positions() {
+            int count = size;
+            return Arrays.copyOf(entries.positions, count);
+        }
+
+        /**
+         * Returns the source of the current entries, the events are read
+         * from specified store when required.
+         */
+        private EventStream.Source snapshot(FileEventStore store) {
+            int count = size;
+            Entries current = entries;
+            int root = firstRoot;
+            return new EventStream.Source() {
+                @Override public int size() {
+                    return count;
+                }
+
+                @Override public int version(int ordinal) {
+                    return current.versions[checkIndex(ordinal)];
+                }
+
+                @Override public int parent(int ordinal) {
+                    return current.parents[checkIndex(ordinal)];
+                }
+
+                @Override public int firstChild(int ordinal) {
+                    return visible(ordinal < 0 ? root
+                            : current.firstChildren[checkIndex(ordinal)]);
+                }
+
+                @Override public int nextSibling(int ordinal) {
+                    return visible(current.nextSiblings[checkIndex(ordinal)]);
+                }
+
+                @Override public Event event(int ordinal) {
+                    return store.read(current.positions[checkIndex(ordinal)])
+                                .event();
+                }
+
+                private int visible(int ordinal) {
+                    return ordinal < count ? ordinal : -1;
+                }
+
+                private int checkIndex(int ordinal) {
+                    if (ordinal < 0 || ordinal >= count) {
+                        throw new IndexOutOfBoundsException(
+                                "Ordinal: " + ordinal);
+                    }
+                    return ordinal;
+                }
+            };
+        }
+    }
+
+    private static final class Entries {
+
+        private final long[] positions;
+        private final int[] versions;
+        private final int[] parents;
+
+        /** The ordinal of first child, last child and next sibling, or -1 */
+        private final int[] firstChildren;
+        private final int[] lastChildren;
+        private final int[] nextSiblings;
+
+        private Entries(int capacity) {
+            this(new long[capacity], new int[capacity], new int[capacity],
+                 links(new int[0], capacity), links(new int[0], capacity),
+                 links(new int[0], capacity));
+        }
+
+        private Entries(long[] positions, int[] versions, int[] parents,
+                        int[] firstChildren, int[] lastChildren,
+                        int[] nextSiblings) {
+            this.positions = positions;
+            this.versions = versions;
+            this.parents = parents;
+            this.firstChildren = firstChildren;
+            this.lastChildren = lastChildren;
+            this.nextSiblings = nextSiblings;
+        }
+
+        private static int[] links(int[] links, int capacity) {
+            int[] grown = Arrays.copyOf(links, capacity);
+            Arrays.fill(grown, links.length, capacity, -1);
+            return grown;
+        }
+
+        private Entries grow(int size) {
+            int capacity = positions.length << 1;
+            return new Entries(Arrays.copyOf(positions, capacity),
+                               Arrays.copyOf(versions, capacity),
+                               Arrays.copyOf(parents, capacity),
+                               links(firstChildren, capacity),
+                               links(lastChildren, capacity),
+                               links(nextSiblings, capacity));
+        }
+    }
+
+    /** File event store builder */
+    public static class Builder {
+
+        /** The default size of segment files, 64 MiB */
+        public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+        private static final int MIN_SEGMENT_SIZE = 4 << 10;
+
+        /** The default max count of requests per commit batch */
+        public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+        private int segmentSize = DEFAULT_SEGMENT_SIZE;
+        private EventSerializer serializer = new JavaEventSerializer();
+        private Durability durability = Durability.PER_BATCH;
+        private long batchWindowNanos;
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private Executor commitExecutor;
+
+        /**
+         * Set the size of segment files. Be ignored if the store has segment
+         * files already, the size of existing files will be used.
+         *
+         * @param segmentSize
+         *         the size of segment files, in bytes
+         * @throws IllegalArgumentException
+         *         specified size is less than 4 KiB
+         */
+        public void setSegmentSize(int segmentSize) {
+            if (segmentSize < MIN_SEGMENT_SIZE) {
+                throw new IllegalArgumentException(
+                        "Illegal segment size: " + segmentSize);
+            }
+            this.segmentSize = segmentSize;
+        }
+
+        /**
+         * Set the serializer of events, default is {@link
+         * JavaEventSerializer}.
+         *
+         * @param serializer
+         *         the serializer of events
+         * @throws NullPointerException
+         *         specified serializer is null
+         */
+        public void setSerializer(EventSerializer serializer) {
+            this.serializer = Objects.requireNonNull(serializer);
+        }
+
+        /**
+         * Set the durability of stores, default is {@link
+         * Durability#PER_BATCH}.
+         *
+         * @param durability
+         *         the durability of stores
+         * @throws NullPointerException
+         *         specified durability is null
+         */
+        public void setDurability(Durability durability) {
+            this.durability = Objects.requireNonNull(durability);
+        }
+
+        /**
+         * Set the time to wait for more concurrent stores before commit a
+         * batch, default is 0, i.e. commit the queued stores immediately.
+         * <p>
+         * The stores arrive while a batch be committing are always committed
+         * in next batch, so the window only needs to be set if the stores are
+         * too sparse to be grouped.
+         *
+         * @param window
+         *         the time to wait
+         * @param unit
+         *         the unit of window
+         * @throws IllegalArgumentException
+         *         specified window is negative
+         * @throws NullPointerException
+         *         specified unit is null
+         */
+        public void setBatchWindow(long window, TimeUnit unit) {
+            if (window < 0) {
+                throw new IllegalArgumentException(
+                        "Illegal batch window: " + window);
+            }
+            this.batchWindowNanos = unit.toNanos(window);
+        }
+
+        /**
+         * Set the max count of stores per commit batch, default is {@value
+         * #DEFAULT_MAX_BATCH_SIZE}.
+         *
+         * @param maxBatchSize
+         *         the max count of stores per batch
+         * @throws IllegalArgumentException
+         *         specified size is less than 1
+         */
+        public void setMaxBatchSize(int maxBatchSize) {
+            if (maxBatchSize < 1) {
+                throw new IllegalArgumentException(
+                        "Illegal max batch size: " + maxBatchSize);
+            }
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        /**
+         * Set the executor to commit batches. Default is null, i.e. the
+         * batches are committed by the thread stores into an idle store, and
+         * the other threads wait for it. If the executor rejects the task, the
+         * storing thread commits the batches itself.
+         *
+         * @param commitExecutor
+         *         the executor to commit batches, or null
+         */
+        public void setCommitExecutor(Executor commitExecutor) {
+            this.commitExecutor = commitExecutor;
+        }
+
+        /**
+         * Open the store in specified directory, the directory will be
+         * created if not exists.
+         *
+         * @param directory
+         *         the directory of segment files
+         * @return the opened store
+         * @throws IOException
+         *         failed to open the segment files
+         */
+        public FileEventStore build(Path directory) throws IOException {
+            return new FileEventStore(this, Objects.requireNonNull(directory));
+        }
+    }
+}
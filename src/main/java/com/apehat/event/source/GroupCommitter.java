@@ -0,0 +1,184 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The group committer of {@link FileEventStore}.
+ * <p>
+ * The stores are queued as requests. The first submitter of an idle
+ * committer becomes the leader: it commits the queued requests in batches,
+ * until no request pending; the other submitters just wait for their
+ * futures. Each batch is appended in one write lock, and be forced once if
+ * {@link Durability#PER_BATCH}.
+ * <p>
+ * If the batch window is positive, the leader waits the window before commit
+ * a batch, so more concurrent stores can be committed together.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class GroupCommitter {
+
+    private final FileEventStore store;
+    private final Durability durability;
+    private final long batchWindowNanos;
+    private final int maxBatchSize;
+
+    /** The executor to run the leader, or null to run by the submitter */
+    private final Executor executor;
+
+    private final Queue<Request> requests = new ConcurrentLinkedQueue<>();
+
+    /** The count of submitted but not be committed requests */
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final Runnable commitTask = this::commit;
+
+    GroupCommitter(FileEventStore store, Durability durability,
+                   long batchWindowNanos, int maxBatchSize,
+                   Executor executor) {
+        this.store = store;
+        this.durability = durability;
+        this.batchWindowNanos = batchWindowNanos;
+        this.maxBatchSize = maxBatchSize;
+        this.executor = executor;
+    }
+
+    CompletableFuture<EventStream> submit(Request request) {
+        requests.offer(request);
+        if (pending.getAndIncrement() == 0) {
+            if (executor == null || !handOff()) {
+                commit();
+            }
+        }
+        return request.future;
+    }
+
+    /**
+     * Hand off the commit to {@code executor}. The pending count is still
+     * positive, so no other submitter will commit before the task run.
+     *
+     * @return true if handed off, or false if the executor rejected, the
+     * submitter should commit itself
+     */
+    private boolean handOff() {
+        try {
+            executor.execute(commitTask);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private void commit() {
+        List<Request> batch = new ArrayList<>();
+        Error error = null;
+        int committed;
+        do {
+            if (batchWindowNanos > 0 && pending.get() < maxBatchSize) {
+                LockSupport.parkNanos(batchWindowNanos);
+            }
+            batch.clear();
+            Request request;
+            while (batch.size() < maxBatchSize
+                   && (request = requests.poll()) != null) {
+                batch.add(request);
+            }
+            try {
+                commit(batch);
+            } catch (Error e) {
+                // keep serving the pending requests, otherwise no one
+                // will commit them, the error is rethrown at last
+                if (error == null) {
+                    error = e;
+                }
+            }
+            committed = batch.size();
+        } while (pending.addAndGet(-committed) != 0);
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Commit specified batch, and complete the futures of requests. The
+     * futures are always completed, even if an error be thrown.
+     */
+    private void commit(List<Request> batch) {
+        Throwable forceFailure = null;
+        try {
+            store.append(batch, durability == Durability.PER_WRITE);
+            if (durability == Durability.PER_BATCH) {
+                store.force();
+            }
+        } catch (RuntimeException | Error e) {
+            forceFailure = e;
+        }
+        for (Request request : batch) {
+            if (request.failure != null) {
+                request.future.completeExceptionally(request.failure);
+            } else if (forceFailure != null) {
+                request.future.completeExceptionally(forceFailure);
+            } else {
+                request.stream.commit(request.events.size());
+                request.future.complete(request.stream);
+            }
+        }
+        if (forceFailure instanceof Error) {
+            throw (Error) forceFailure;
+        }
+    }
+
+    /**
+     * The request to store the uncommitted events of a stream, serialized by
+     * the submitter.
+     */
+    static final class Request {
+
+        final EventStream stream;
+        final List<Event> events;
+        final byte[] id;
+        final int[] parents;
+        final byte[][] payloads;
+        final CompletableFuture<EventStream> future = new CompletableFuture<>();
+
+        /** The failure of append, or null */
+        Throwable failure;
+
+        Request(EventStream stream, List<Event> events, int[] parents,
+                byte[] id, byte[][] payloads) {
+            this.stream = stream;
+            this.events = events;
+            this.parents = parents;
+            this.id = id;
+            this.payloads = payloads;
+        }
+    }
+}
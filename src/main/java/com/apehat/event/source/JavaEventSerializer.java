@@ -0,0 +1,86 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The {@link EventSerializer} by Java serialization, as the {@link Event} is
+ * {@link java.io.Serializable}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class JavaEventSerializer implements EventSerializer {
+
+    @Override public byte[] serialize(Event event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(event);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't serialize " + event, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override public Event deserialize(ByteBuffer payload) {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteBufferInputStream(payload.duplicate()))) {
+            return (Event) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            throw new IllegalArgumentException("Can't deserialize event", e);
+        }
+    }
+
+    /** The input stream reads a buffer without copy */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override public int available() {
+            return buffer.remaining();
+        }
+    }
+}
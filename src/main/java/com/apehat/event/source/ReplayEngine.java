@@ -0,0 +1,475 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+import com.apehat.event.EventBus;
+import com.apehat.event.Subscriber;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * The engine to replay the history of a {@link FileEventStore} to a replay
+ * {@link EventBus} or a set of subscribers, e.g. to build a new projection.
+ * <p>
+ * The records are read by the replaying thread, sequentially from the mapped
+ * segments. The events are decoded in parallel by the fork join pool, and be
+ * delivered in order of the log per {@link EventStreamId}; the events of
+ * different streams are delivered concurrently, by the threads of pool.
+ * <p>
+ * The count of read but not delivered records is bounded, so the reading is
+ * paused if the delivery can't catch up. And the delivery can be throttled by
+ * {@link Builder#setMaxEventsPerSecond(long)}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class ReplayEngine {
+
+    private final FileEventStore store;
+    private final ForkJoinPool pool;
+    private final Consumer<Event> target;
+    private final Predicate<? super EventStreamId> streamFilter;
+    private final long maxEventsPerSecond;
+    private final int maxInFlight;
+    private final Consumer<? super ReplayProgress> progressListener;
+    private final long progressInterval;
+
+    private final AtomicBoolean replaying = new AtomicBoolean();
+
+    /** The current or last replay, or null if never replayed */
+    private volatile Replay replay;
+
+    private ReplayEngine(Builder builder, FileEventStore store) {
+        this.store = store;
+        this.pool = builder.pool;
+        this.target = builder.target;
+        this.streamFilter = builder.streamFilter;
+        this.maxEventsPerSecond = builder.maxEventsPerSecond;
+        this.maxInFlight = builder.maxInFlight;
+        this.progressListener = builder.progressListener;
+        this.progressInterval = builder.progressInterval;
+    }
+
+    /**
+     * Replay all records of the store. Same as {@code replay(0)}.
+     *
+     * @return the final progress of the replay
+     * @see #replay(long)
+     */
+    public ReplayProgress replay() {
+        return replay(0);
+    }
+
+    /**
+     * Replay the records of the store from specified position, until the end
+     * of log, and wait all read events be delivered.
+     * <p>
+     * If the replay be cancelled, or the current thread be interrupted, the
+     * reading will be stopped, but the read events are still delivered; so
+     * the replay can be resumed from the {@link ReplayProgress#position()}.
+     * If failed to decode or deliver an event, the reading will be stopped,
+     * and the undelivered events will be discarded.
+     *
+     * @param fromPosition
+     *         the position of the first record to replay, e.g. the {@link
+     *         ReplayProgress#position()} of a cancelled replay
+     * @return the final progress of the replay
+     * @throws IllegalArgumentException
+     *         specified position isn't 0, the position of a record, or the
+     *         start or end of the records of a segment
+     * @throws IllegalStateException
+     *         another replay of this is running
+     * @throws RuntimeException
+     *         failed to decode or deliver an event, the replay be stopped
+     */
+    public ReplayProgress replay(long fromPosition) {
+        store.checkPosition(fromPosition);
+        if (!replaying.compareAndSet(false, true)) {
+            throw new IllegalStateException("Replay is running.");
+        }
+        try {
+            Replay current = new Replay(fromPosition, store.position());
+            replay = current;
+            return current.run();
+        } finally {
+            replaying.set(false);
+        }
+    }
+
+    /**
+     * Cancel the running replay, do nothing if no replay running.
+     */
+    public void cancel() {
+        Replay current = replay;
+        if (current != null) {
+            current.cancelled = true;
+        }
+    }
+
+    /**
+     * Returns the progress of the running or the last replay.
+     *
+     * @return the progress of replay, or null if never replayed
+     */
+    public ReplayProgress progress() {
+        Replay current = replay;
+        return current == null ? null : current.progress();
+    }
+
+    /**
+     * Returns true if a replay is running.
+     *
+     * @return true if a replay is running
+     */
+    public boolean isReplaying() {
+        return replaying.get();
+    }
+
+    private final class Replay {
+
+        private final long startPosition;
+        private final long endPosition;
+        private final long startNanos = System.nanoTime();
+        private final Semaphore inFlight = new Semaphore(maxInFlight);
+
+        /** The tail of delivery of streams, owned by the replaying thread */
+        private final Map<EventStreamId, CompletableFuture<Void>> tails = new HashMap<>();
+
+        private final AtomicLong deliveredCount = new AtomicLong();
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        private volatile long readCount;
+        private volatile long position;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+
+        /** The count of dispatched records, to pace the reading */
+        private long dispatchedCount;
+
+        private Replay(long startPosition, long endPosition) {
+            this.startPosition = startPosition;
+            this.endPosition = endPosition;
+            this.position = startPosition;
+        }
+
+        private ReplayProgress run() {
+            try {
+                position = store.scan(startPosition, this::dispatch);
+            } catch (RuntimeException | Error e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                if (failure.get() != null) {
+                    cancelled = true;
+                }
+                // all permits are available only if all dispatched
+                // records had be delivered or discarded
+                inFlight.acquireUninterruptibly(maxInFlight);
+                inFlight.release(maxInFlight);
+                tails.clear();
+            }
+            Throwable cause = failure.get();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            done = !cancelled;
+            ReplayProgress progress = progress();
+            if (progressListener != null) {
+                progressListener.accept(progress);
+            }
+            return progress;
+        }
+
+        private boolean dispatch(EventRecord record) {
+            if (cancelled) {
+                return false;
+            }
+            position = record.position();
+            readCount++;
+            if (streamFilter == null || streamFilter.test(record.streamId())) {
+                pace();
+                try {
+                    inFlight.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    cancelled = true;
+                    return false;
+                }
+                try {
+                    deliver(record);
+                } catch (RuntimeException | Error e) {
+                    // e.g. the pool rejected
+                    inFlight.release();
+                    throw e;
+                }
+            }
+            if (progressListener != null && readCount % progressInterval == 0) {
+                progressListener.accept(progress());
+            }
+            return true;
+        }
+
+        private void pace() {
+            if (maxEventsPerSecond <= 0) {
+                return;
+            }
+            long due = startNanos
+                       + (long) (dispatchedCount++ * 1e9 / maxEventsPerSecond);
+            long delay;
+            while ((delay = due - System.nanoTime()) > 0 && !cancelled) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+
+        /**
+         * Decode the event of record by the pool, and deliver it after the
+         * previous event of the same stream be delivered.
+         */
+        private void deliver(EventRecord record) {
+            CompletableFuture<Event> decoded = CompletableFuture
+                    .supplyAsync(record::event, pool);
+            CompletableFuture<Void> tail = tails.get(record.streamId());
+            CompletableFuture<Void> delivered;
+            if (tail == null || tail.isDone()) {
+                delivered = decoded.thenAcceptAsync(this::deliver, pool);
+            } else {
+                delivered = tail.thenCombineAsync(decoded, (previous, event)->{
+                    deliver(event);
+                    return null;
+                }, pool);
+            }
+            delivered.whenComplete((v, e)->{
+                if (e != null) {
+                    failure.compareAndSet(null, e instanceof CompletionException
+                                                && e.getCause() != null
+                            ? e.getCause() : e);
+                    cancelled = true;
+                }
+                inFlight.release();
+            });
+            tails.put(record.streamId(), delivered);
+        }
+
+        private void deliver(Event event) {
+            if (failure.get() == null) {
+                target.accept(event);
+                deliveredCount.incrementAndGet();
+            }
+        }
+
+        private ReplayProgress progress() {
+            return new ReplayProgress(readCount, deliveredCount.get(),
+                                      startPosition, position, endPosition,
+                                      System.nanoTime() - startNanos, done);
+        }
+    }
+
+    /** Replay engine builder */
+    public static class Builder {
+
+        /** The default max count of read but not delivered records */
+        public static final int DEFAULT_MAX_IN_FLIGHT = 4096;
+
+        /** The default count of read records between progress reports */
+        public static final long DEFAULT_PROGRESS_INTERVAL = 10000;
+
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private Consumer<Event> target;
+        private Predicate<? super EventStreamId> streamFilter;
+        private long maxEventsPerSecond;
+        private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+        private Consumer<? super ReplayProgress> progressListener;
+        private long progressInterval = DEFAULT_PROGRESS_INTERVAL;
+
+        /**
+         * Set the pool to decode and deliver events, default is {@link
+         * ForkJoinPool#commonPool()}.
+         *
+         * @param pool
+         *         the pool to decode and deliver events
+         * @throws NullPointerException
+         *         specified pool is null
+         */
+        public void setPool(ForkJoinPool pool) {
+            this.pool = Objects.requireNonNull(pool);
+        }
+
+        /**
+         * Replay the events to specified event bus. The bus should be
+         * dedicated to replay, and subscribed by the {@link
+         * com.apehat.event.SubscribeScope#BUS} subscribers, because the
+         * events are submitted by the threads of pool.
+         * <p>
+         * The events of a stream are submitted in order, but only be
+         * published in order if the bus is synchronous, or be partitioned by
+         * stream.
+         *
+         * @param eventBus
+         *         the bus to replay to
+         * @throws NullPointerException
+         *         specified bus is null
+         */
+        public void setEventBus(EventBus eventBus) {
+            this.target = Objects.requireNonNull(eventBus)::submit;
+        }
+
+        /**
+         * Replay the events to specified subscribers directly, regardless of
+         * their scopes. An event be delivered to the subscribers those
+         * subscribe to it's type or super types, in order of iteration of
+         * specified collection.
+         *
+         * @param subscribers
+         *         the subscribers to replay to
+         * @throws NullPointerException
+         *         specified collection is null, or contains null
+         */
+        public void setSubscribers(
+                Collection<? extends Subscriber<?>> subscribers) {
+            List<Subscriber<?>> copy = new ArrayList<>(subscribers);
+            copy.forEach(Objects::requireNonNull);
+            this.target = event->{
+                for (Subscriber<?> subscriber : copy) {
+                    if (subscriber.subscribeTo().isInstance(event)) {
+                        onEvent(subscriber, event);
+                    }
+                }
+            };
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T extends Event> void onEvent(Subscriber<T> subscriber,
+                                                      Event event) {
+            subscriber.onEvent((T) event);
+        }
+
+        /**
+         * Set the filter of streams to replay, default is null, i.e. replay
+         * all streams. The records are filtered before decode.
+         *
+         * @param streamFilter
+         *         the filter of streams, or null
+         */
+        public void setStreamFilter(
+                Predicate<? super EventStreamId> streamFilter) {
+            this.streamFilter = streamFilter;
+        }
+
+        /**
+         * Set the max count of events replayed per second, default is 0, i.e.
+         * unlimited.
+         *
+         * @param maxEventsPerSecond
+         *         the max count of events per second, or 0
+         * @throws IllegalArgumentException
+         *         specified count is negative
+         */
+        public void setMaxEventsPerSecond(long maxEventsPerSecond) {
+            if (maxEventsPerSecond < 0) {
+                throw new IllegalArgumentException(
+                        "Illegal max events per second: " + maxEventsPerSecond);
+            }
+            this.maxEventsPerSecond = maxEventsPerSecond;
+        }
+
+        /**
+         * Set the max count of read but not delivered records, default is
+         * {@value #DEFAULT_MAX_IN_FLIGHT}.
+         *
+         * @param maxInFlight
+         *         the max count of read but not delivered records
+         * @throws IllegalArgumentException
+         *         specified count is less than 1
+         */
+        public void setMaxInFlight(int maxInFlight) {
+            if (maxInFlight < 1) {
+                throw new IllegalArgumentException(
+                        "Illegal max in flight: " + maxInFlight);
+            }
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * Set the listener of progress. The listener is invoked by the
+         * replaying thread, each time the count of read records reaches a
+         * multiple of progress interval, and once the replay finished.
+         *
+         * @param progressListener
+         *         the listener of progress, or null
+         */
+        public void setProgressListener(
+                Consumer<? super ReplayProgress> progressListener) {
+            this.progressListener = progressListener;
+        }
+
+        /**
+         * Set the count of read records between progress reports, default
+         * is {@value #DEFAULT_PROGRESS_INTERVAL}.
+         *
+         * @param progressInterval
+         *         the count of read records between reports
+         * @throws IllegalArgumentException
+         *         specified interval is less than 1
+         */
+        public void setProgressInterval(long progressInterval) {
+            if (progressInterval < 1) {
+                throw new IllegalArgumentException(
+                        "Illegal progress interval: " + progressInterval);
+            }
+            this.progressInterval = progressInterval;
+        }
+
+        /**
+         * Build the replay engine of specified store.
+         *
+         * @param store
+         *         the store to replay
+         * @return the replay engine
+         * @throws NullPointerException
+         *         specified store is null
+         * @throws IllegalStateException
+         *         neither the event bus nor the subscribers be set
+         */
+        public ReplayEngine build(FileEventStore store) {
+            Objects.requireNonNull(store);
+            if (target == null) {
+                throw new IllegalStateException(
+                        "The event bus or subscribers must be set.");
+            }
+            return new ReplayEngine(this, store);
+        }
+    }
+}
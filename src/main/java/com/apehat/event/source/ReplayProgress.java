@@ -0,0 +1,151 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress of a replay of {@link ReplayEngine}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class ReplayProgress {
+
+    private final long readCount;
+    private final long deliveredCount;
+    private final long startPosition;
+    private final long position;
+    private final long endPosition;
+    private final long elapsedNanos;
+    private final boolean done;
+
+    ReplayProgress(long readCount, long deliveredCount, long startPosition,
+                   long position, long endPosition, long elapsedNanos,
+                   boolean done) {
+        this.readCount = readCount;
+        this.deliveredCount = deliveredCount;
+        this.startPosition = startPosition;
+        this.position = position;
+        this.endPosition = endPosition;
+        this.elapsedNanos = elapsedNanos;
+        this.done = done;
+    }
+
+    /**
+     * Returns the count of read records, include the records those be
+     * filtered out.
+     *
+     * @return the count of read records
+     */
+    public long readCount() {
+        return readCount;
+    }
+
+    /**
+     * Returns the count of events those had be delivered.
+     *
+     * @return the count of delivered events
+     */
+    public long deliveredCount() {
+        return deliveredCount;
+    }
+
+    /**
+     * Returns the position of log the replay started from.
+     *
+     * @return the start position
+     */
+    public long startPosition() {
+        return startPosition;
+    }
+
+    /**
+     * Returns the position of the record being read. Once the replay
+     * finished, it's the position of the first unread record, or the end of
+     * log.
+     *
+     * @return the read position
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Returns the end position of log when the replay started. The records
+     * appended after started may also be replayed, so the position may
+     * exceed it.
+     *
+     * @return the end position of log when started
+     */
+    public long endPosition() {
+        return endPosition;
+    }
+
+    /**
+     * Returns the read fraction of the log, from 0 to 1.
+     *
+     * @return the read fraction of the log
+     */
+    public double fraction() {
+        long total = endPosition - startPosition;
+        if (total <= 0) {
+            return 1;
+        }
+        return Math.min(1, (double) (position - startPosition) / total);
+    }
+
+    /**
+     * Returns the elapsed time of the replay.
+     *
+     * @param unit
+     *         the unit of returned time
+     * @return the elapsed time
+     */
+    public long elapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Returns the average count of delivered events per second.
+     *
+     * @return the delivered events per second
+     */
+    public double eventsPerSecond() {
+        if (elapsedNanos <= 0) {
+            return 0;
+        }
+        return deliveredCount * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns true if all read records had be delivered, and the replay
+     * completed.
+     *
+     * @return true if the replay completed
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    @Override public String toString() {
+        return "ReplayProgress{readCount=" + readCount + ", deliveredCount="
+               + deliveredCount + ", position=" + position + ", endPosition="
+               + endPosition + ", done=" + done + "}";
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * A fixed size segment file of {@link FileEventStore}, mapped to memory.
+ * <p>
+ * The segment starts with a header: magic, format, segment size and the base
+ * position. Then the records, each record is:
+ * <pre>
+ * int    length     the length of body
+ * int    crc        the CRC32 of body
+ * body:
+ * short  idLength   the length of stream id in UTF-8
+ * byte[] id         the stream id in UTF-8
+ * int    version    the version of event
+ * int    parent     the ordinal of parent event in stream, or -1
+ * int    remaining  the count of records after this of the same store
+ * byte[] payload    the serialized event
+ * </pre>
+ * The length is written at last, so a partially written record has a zero
+ * length, and is treated as the end of segment. The records of a store are
+ * complete only if the last one, of which remaining is 0, be written; the
+ * recovery of incomplete store is done by {@link FileEventStore}, because
+ * a store may span segments.
+ * <p>
+ * The segment is appended by one thread at a time, and can be read
+ * concurrently. The records before {@link #limit()} are readable.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class Segment implements Closeable {
+
+    static final String SUFFIX = ".segment";
+
+    static final int HEADER_SIZE = 32;
+
+    static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAGIC = 0x41455653;
+
+    private static final int FORMAT = 3;
+
+    private final Path path;
+    private final long base;
+    private final int size;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    /** The view of buffer to append, only be used by the writer */
+    private final ByteBuffer writer;
+
+    private final CRC32 crc = new CRC32();
+
+    /** The end of the readable records */
+    private volatile int limit = HEADER_SIZE;
+
+    private Segment(Path path, long base, int size, FileChannel channel,
+                    MappedByteBuffer buffer) {
+        this.path = path;
+        this.base = base;
+        this.size = size;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.writer = buffer.duplicate();
+    }
+
+    /**
+     * Create a new segment file in specified directory.
+     */
+    static Segment create(Path directory, long base, int size)
+            throws IOException {
+        Path path = directory.resolve(fileName(base));
+        FileChannel channel = FileChannel.open(path,
+                                               StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                  0, size);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, FORMAT);
+            buffer.putInt(8, size);
+            buffer.putLong(12, base);
+            // the header must be durable before any record be appended,
+            // otherwise the segment can't be opened after crash
+            buffer.force();
+            channel.force(true);
+            return new Segment(path, base, size, channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open an existing segment file, and recover the readable records. The
+     * specified consumer will receive each valid record in order.
+     *
+     * @return the opened segment
+     * @throws IOException
+     *         failed to open, or the file isn't a segment
+     */
+    static Segment open(Path path, EventSerializer serializer,
+                        Consumer<? super EventRecord> consumer)
+            throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Not a segment: " + path);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            int size = header.getInt(8);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT
+                || size < HEADER_SIZE || channel.size() != size) {
+                throw new IOException("Not a segment: " + path);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                                                  0, size);
+            Segment segment = new Segment(path, header.getLong(12), size,
+                                          channel, buffer);
+            segment.recover(serializer, consumer);
+            return segment;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns true if specified file starts with a valid segment header.
+     */
+    static boolean hasHeader(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                                                    StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            return header.getInt(0) == MAGIC && header.getInt(4) == FORMAT
+                   && header.getInt(8) == channel.size();
+        }
+    }
+
+    static String fileName(long base) {
+        return String.format("%020d%s", base, SUFFIX);
+    }
+
+    /**
+     * Returns the max length of a record can be appended to a segment of
+     * specified size.
+     */
+    static int capacity(int size) {
+        return size - HEADER_SIZE - RECORD_HEADER_SIZE;
+    }
+
+    /**
+     * Returns the length of the body of specified record.
+     */
+    static int bodyLength(byte[] id, byte[] payload) {
+        return 2 + id.length + 4 + 4 + 4 + payload.length;
+    }
+
+    private void recover(EventSerializer serializer,
+                         Consumer<? super EventRecord> consumer) {
+        int offset = HEADER_SIZE;
+        while (offset + RECORD_HEADER_SIZE <= size) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < 0 || length > size - offset - RECORD_HEADER_SIZE
+                || checksum(offset, length) != buffer.getInt(offset + 4)) {
+                // the broken record, erase it and the records after it
+                erase(offset);
+                break;
+            }
+            consumer.accept(read(offset, serializer));
+            offset += RECORD_HEADER_SIZE + length;
+        }
+        limit = offset;
+    }
+
+    private void erase(int offset) {
+        for (int i = offset; i < size; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Erase the records from specified offset, and make them unreadable.
+     */
+    void truncate(int offset) {
+        int end = limit;
+        if (offset >= end) {
+            return;
+        }
+        limit = offset;
+        for (int i = offset; i < end; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    /**
+     * Append a record to this.
+     *
+     * @param remaining
+     *         the count of records will be appended after this in same store
+     * @return the position of appended record, or -1 if the remaining of
+     * this is not enough
+     */
+    long append(byte[] id, int version, int parent, int remaining,
+                byte[] payload) {
+        int offset = limit;
+        int length = bodyLength(id, payload);
+        if (length > size - offset - RECORD_HEADER_SIZE) {
+            return -1;
+        }
+        writer.clear();
+        writer.position(offset + RECORD_HEADER_SIZE);
+        writer.putShort((short) id.length);
+        writer.put(id);
+        writer.putInt(version);
+        writer.putInt(parent);
+        writer.putInt(remaining);
+        writer.put(payload);
+        writer.putInt(offset + 4, checksum(offset, length));
+        // commit the record
+        writer.putInt(offset, length);
+        limit = offset + RECORD_HEADER_SIZE + length;
+        return base + offset;
+    }
+
+    private int checksum(int offset, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + RECORD_HEADER_SIZE);
+        body.limit(offset + RECORD_HEADER_SIZE + length);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Read the record at specified offset, the payload isn't be copied.
+     */
+    EventRecord read(int offset, EventSerializer serializer) {
+        ByteBuffer record = buffer.asReadOnlyBuffer();
+        int length = record.getInt(offset);
+        record.limit(offset + RECORD_HEADER_SIZE + length);
+        record.position(offset + RECORD_HEADER_SIZE);
+        byte[] id = new byte[record.getShort() & 0xFFFF];
+        record.get(id);
+        int version = record.getInt();
+        int parent = record.getInt();
+        int remaining = record.getInt();
+        return new EventRecord(base + offset, EventStreamId.of(
+                new String(id, StandardCharsets.UTF_8)), version, parent,
+                               remaining, record.slice(), serializer);
+    }
+
+    /**
+     * Returns the offset of the record after the record at specified offset.
+     */
+    int next(int offset) {
+        return offset + RECORD_HEADER_SIZE + buffer.getInt(offset);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long base() {
+        return base;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the end offset of the readable records.
+     */
+    int limit() {
+        return limit;
+    }
+
+    /**
+     * Force the written records to the storage device.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    @Override public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override public String toString() {
+        return "Segment{" + "path=" + path + ", limit=" + limit + '}';
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * The state of an aggregate after the first {@link #version()} events of it's
+ * stream be applied.
+ *
+ * @param <S>
+ *         the type of state
+ * @author hanpengfei
+ * @see SnapshotRepository
+ * @since 1.0
+ */
+public final class Snapshot<S extends Serializable> {
+
+    private final EventStreamId streamId;
+    private final int version;
+    private final S state;
+
+    /**
+     * Create a snapshot.
+     *
+     * @param streamId
+     *         the id of stream
+     * @param version
+     *         the count of applied events
+     * @param state
+     *         the state after the events be applied
+     * @throws NullPointerException
+     *         specified id or state is null
+     * @throws IllegalArgumentException
+     *         specified version is negative
+     */
+    public Snapshot(EventStreamId streamId, int version, S state) {
+        if (version < 0) {
+            throw new IllegalArgumentException("Illegal version: " + version);
+        }
+        this.streamId = Objects.requireNonNull(streamId);
+        this.version = version;
+        this.state = Objects.requireNonNull(state);
+    }
+
+    public EventStreamId streamId() {
+        return streamId;
+    }
+
+    /**
+     * Returns the count of the events be applied to the state.
+     *
+     * @return the count of applied events
+     */
+    public int version() {
+        return version;
+    }
+
+    public S state() {
+        return state;
+    }
+
+    @Override public String toString() {
+        return "Snapshot{" + "streamId=" + streamId + ", version=" + version +
+               '}';
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.Event;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * The repository of aggregate states, be rebuilt from the streams of a
+ * {@link FileEventStore} with {@link Snapshot}s.
+ * <p>
+ * The state of a stream is rebuilt by applying it's events to the initial
+ * state in order. To bound the cost of rebuilding, a snapshot of the state
+ * is saved every {@link Builder#setInterval(int) interval} events, or on
+ * demand by {@link #snapshot(EventStreamId)}; and be loaded as the starting
+ * point, so only the events after the snapshot are applied.
+ * <p>
+ * The snapshots are stored alongside the log, in the {@value
+ * SnapshotStore#DIRECTORY} directory of the event store. A snapshot is
+ * ignored and deleted if it's stale, i.e. the {@link
+ * Builder#setStateVersion(int) state version} had be changed, or the stream
+ * no longer has the events of it.
+ *
+ * @param <S>
+ *         the type of aggregate state
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class SnapshotRepository<S extends Serializable> {
+
+    private final FileEventStore eventStore;
+    private final SnapshotStore snapshotStore;
+    private final Supplier<? extends S> initialState;
+    private final BiFunction<? super S, ? super Event, ? extends S> applier;
+    private final int interval;
+    private final int stateVersion;
+
+    /** The versions of the saved snapshots */
+    private final ConcurrentMap<EventStreamId, Integer> snapshotVersions = new ConcurrentHashMap<>();
+
+    private SnapshotRepository(Builder<S> builder, FileEventStore eventStore) {
+        this.eventStore = eventStore;
+        this.snapshotStore = new SnapshotStore(eventStore);
+        this.initialState = builder.initialState;
+        this.applier = builder.applier;
+        this.interval = builder.interval;
+        this.stateVersion = builder.stateVersion;
+    }
+
+    /**
+     * Returns the current state of specified stream.
+     *
+     * @param id
+     *         the id of stream
+     * @return the current state of specified stream, or the initial state if
+     * no event be stored
+     * @throws NullPointerException
+     *         specified id is null
+     */
+    public S load(EventStreamId id) {
+        return replay(id).state();
+    }
+
+    /**
+     * Returns the current state of specified stream as a snapshot, i.e. with
+     * the count of applied events. The events after the saved snapshot are
+     * applied, the snapshot isn't be saved.
+     *
+     * @param id
+     *         the id of stream
+     * @return the current state of specified stream
+     * @throws NullPointerException
+     *         specified id is null
+     */
+    public Snapshot<S> replay(EventStreamId id) {
+        Objects.requireNonNull(id);
+        Snapshot<S> snapshot = snapshotStore.load(id, stateVersion);
+        // found after the snapshot, so it has all events of the snapshot
+        EventStream stream = eventStore.find(id);
+        int version = snapshot == null ? 0 : snapshot.version();
+        S state = snapshot == null ? initialState.get() : snapshot.state();
+        if (stream == null) {
+            return new Snapshot<>(id, 0, state);
+        }
+        int size = stream.version();
+        for (int ordinal = version; ordinal < size; ordinal++) {
+            state = Objects.requireNonNull(applier.apply(
+                    state, stream.node(ordinal).event()));
+        }
+        return new Snapshot<>(id, size, state);
+    }
+
+    /**
+     * Store the uncommitted events of specified stream, then save a snapshot
+     * if the count of events after the saved snapshot reaches the interval.
+     *
+     * @param eventStream
+     *         the stream to store
+     * @see EventStore#store(EventStream)
+     */
+    public void store(EventStream eventStream) {
+        eventStore.store(eventStream);
+        EventStreamId id = eventStream.id();
+        int saved = snapshotVersions.computeIfAbsent(
+                id, snapshotStore::versionOf);
+        if (eventStream.version() - saved >= interval) {
+            snapshot(id);
+        }
+    }
+
+    /**
+     * Save the snapshot of the current state of specified stream.
+     *
+     * @param id
+     *         the id of stream
+     * @return the saved snapshot
+     * @throws NullPointerException
+     *         specified id is null
+     */
+    public Snapshot<S> snapshot(EventStreamId id) {
+        Snapshot<S> snapshot = replay(id);
+        snapshotStore.save(snapshot, stateVersion);
+        snapshotVersions.put(id, snapshot.version());
+        return snapshot;
+    }
+
+    /** Snapshot repository builder */
+    public static class Builder<S extends Serializable> {
+
+        /** The default count of events between snapshots */
+        public static final int DEFAULT_INTERVAL = 100;
+
+        private Supplier<? extends S> initialState;
+        private BiFunction<? super S, ? super Event, ? extends S> applier;
+        private int interval = DEFAULT_INTERVAL;
+        private int stateVersion;
+
+        /**
+         * Set the supplier of the state of the stream without event.
+         *
+         * @param initialState
+         *         the supplier of initial state
+         * @throws NullPointerException
+         *         specified supplier is null
+         */
+        public void setInitialState(Supplier<? extends S> initialState) {
+            this.initialState = Objects.requireNonNull(initialState);
+        }
+
+        /**
+         * Set the function to apply an event to a state, returns the state
+         * after the event be applied. The state can be mutated and returned,
+         * if it's mutable.
+         *
+         * @param applier
+         *         the function to apply an event
+         * @throws NullPointerException
+         *         specified function is null
+         */
+        public void setApplier(
+                BiFunction<? super S, ? super Event, ? extends S> applier) {
+            this.applier = Objects.requireNonNull(applier);
+        }
+
+        /**
+         * Set the count of events between snapshots, default is {@value
+         * #DEFAULT_INTERVAL}.
+         *
+         * @param interval
+         *         the count of events between snapshots
+         * @throws IllegalArgumentException
+         *         specified interval is less than 1
+         */
+        public void setInterval(int interval) {
+            if (interval < 1) {
+                throw new IllegalArgumentException(
+                        "Illegal interval: " + interval);
+            }
+            this.interval = interval;
+        }
+
+        /**
+         * Set the version of the state format, default is 0. Change it when
+         * the state or the applier be changed incompatibly, then the saved
+         * snapshots will be ignored.
+         *
+         * @param stateVersion
+         *         the version of state format
+         */
+        public void setStateVersion(int stateVersion) {
+            this.stateVersion = stateVersion;
+        }
+
+        /**
+         * Build a repository of specified event store.
+         *
+         * @param eventStore
+         *         the event store of streams
+         * @return the built repository
+         * @throws NullPointerException
+         *         specified store is null
+         * @throws IllegalStateException
+         *         the initial state or applier hadn't be set
+         */
+        public SnapshotRepository<S> build(FileEventStore eventStore) {
+            Objects.requireNonNull(eventStore);
+            if (initialState == null || applier == null) {
+                throw new IllegalStateException(
+                        "The initial state and applier must be set.");
+            }
+            return new SnapshotRepository<>(this, eventStore);
+        }
+    }
+}
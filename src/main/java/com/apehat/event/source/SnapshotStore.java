@@ -0,0 +1,250 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * The store of the {@link Snapshot}s of the streams of a {@link
+ * FileEventStore}, keeps the latest snapshot per stream, in the {@value
+ * #DIRECTORY} directory of the event store.
+ * <p>
+ * Each snapshot file records the version of state and the position of the
+ * last applied event. A snapshot is valid only if both of them are match,
+ * i.e. the state is the same format, and the stream still has the event at
+ * the position; the invalid snapshot is deleted when be loaded.
+ * <p>
+ * The snapshot file is written to a temporary file then be moved, so a
+ * snapshot is either replaced completely or not.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+final class SnapshotStore {
+
+    static final String DIRECTORY = "snapshots";
+
+    private static final String SUFFIX = ".snapshot";
+
+    private static final int MAGIC = 0x4145534E;
+
+    private static final int FORMAT = 1;
+
+    /** magic, format, state version, version, position, crc, length */
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8 + 4 + 4;
+
+    private final FileEventStore eventStore;
+    private final Path directory;
+
+    SnapshotStore(FileEventStore eventStore) {
+        this.eventStore = eventStore;
+        this.directory = eventStore.directory().resolve(DIRECTORY);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Save specified snapshot, replace the previous snapshot of the stream.
+     *
+     * @throws IllegalArgumentException
+     *         the stream doesn't have the events of the snapshot
+     */
+    void save(Snapshot<?> snapshot, int stateVersion) {
+        long position = positionOf(snapshot.streamId(), snapshot.version());
+        if (position == -1) {
+            throw new IllegalArgumentException(
+                    "No event of " + snapshot + " be stored");
+        }
+        byte[] id = snapshot.streamId().value().getBytes(
+                StandardCharsets.UTF_8);
+        byte[] state = serialize(snapshot.state());
+        CRC32 crc = new CRC32();
+        crc.update(id);
+        crc.update(state);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT).putInt(stateVersion)
+              .putInt(snapshot.version()).putLong(position)
+              .putInt((int) crc.getValue()).putInt(id.length).flip();
+        Path file = fileOf(snapshot.streamId());
+        try {
+            Path temp = Files.createTempFile(directory, null, ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(
+                        temp, StandardOpenOption.WRITE)) {
+                    ByteBuffer[] buffers = {header, ByteBuffer.wrap(id),
+                            ByteBuffer.wrap(state)};
+                    long length = HEADER_SIZE + id.length + state.length;
+                    long written = 0;
+                    while (written < length) {
+                        written += channel.write(buffers);
+                    }
+                    channel.force(true);
+                }
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Load the valid snapshot of specified stream.
+     *
+     * @return the snapshot of specified stream, or null if no snapshot or the
+     * snapshot is invalid
+     */
+    <S extends Serializable> Snapshot<S> load(EventStreamId id,
+                                              int stateVersion) {
+        Path file = fileOf(id);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Snapshot<S> snapshot = decode(id, bytes, stateVersion);
+        if (snapshot == null) {
+            delete(file);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the version of the saved snapshot of specified stream, without
+     * validate or deserialize it.
+     *
+     * @return the version of the saved snapshot, or 0 if no snapshot
+     */
+    int versionOf(EventStreamId id) {
+        try (FileChannel channel = FileChannel.open(fileOf(id),
+                                                    StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            return header.position() == HEADER_SIZE ? header.getInt(12) : 0;
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <S extends Serializable> Snapshot<S> decode(
+            EventStreamId id, byte[] bytes, int stateVersion) {
+        if (bytes.length < HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT
+            || buffer.getInt() != stateVersion) {
+            return null;
+        }
+        int version = buffer.getInt();
+        long position = buffer.getLong();
+        int checksum = buffer.getInt();
+        int idLength = buffer.getInt();
+        if (idLength < 0 || idLength > buffer.remaining()) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, bytes.length - HEADER_SIZE);
+        byte[] expected = id.value().getBytes(StandardCharsets.UTF_8);
+        if ((int) crc.getValue() != checksum || !Arrays.equals(
+                expected, Arrays.copyOfRange(bytes, HEADER_SIZE,
+                                             HEADER_SIZE + idLength))) {
+            return null;
+        }
+        // the stream must still have the last applied event
+        if (positionOf(id, version) != position) {
+            return null;
+        }
+        int offset = HEADER_SIZE + idLength;
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes, offset,
+                                                 bytes.length - offset))) {
+            @SuppressWarnings("unchecked") S state = (S) in.readObject();
+            return new Snapshot<>(id, version, state);
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the position of the last event of the first specified count
+     * events of specified stream, or -1 if the stream doesn't have so many
+     * events. The position of no event is 0.
+     */
+    private long positionOf(EventStreamId id, int version) {
+        return version == 0 ? 0 : eventStore.positionOf(id, version - 1);
+    }
+
+    /**
+     * Delete the snapshot of specified stream.
+     */
+    void delete(EventStreamId id) {
+        delete(fileOf(id));
+    }
+
+    private void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path fileOf(EventStreamId id) {
+        // the id may be too long, or have illegal characters for file name
+        return directory.resolve(UUID.nameUUIDFromBytes(
+                id.value().getBytes(StandardCharsets.UTF_8)) + SUFFIX);
+    }
+
+    private static byte[] serialize(Serializable state) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(state);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Can't serialize " + state, e);
+        }
+        return bytes.toByteArray();
+    }
+}
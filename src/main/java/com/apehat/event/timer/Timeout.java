@@ -0,0 +1,50 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.timer;
+
+/**
+ * The handle of a task scheduled by {@link TimingWheel}.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public interface Timeout {
+
+    /**
+     * Cancel the task, if it hadn't be expired. The cancelled task will never
+     * be run.
+     *
+     * @return true, if the task be cancelled by this invocation; false, if
+     * the task had be expired or be cancelled
+     */
+    boolean cancel();
+
+    /**
+     * Determine whether the task had be cancelled.
+     *
+     * @return true, if the task had be cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * Determine whether the task had be expired, i.e. had be run, or is
+     * running.
+     *
+     * @return true, if the task had be expired
+     */
+    boolean isExpired();
+}
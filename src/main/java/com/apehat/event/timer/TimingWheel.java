@@ -0,0 +1,424 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The hierarchical hashed timing wheel, runs tasks after delay.
+ * <p>
+ * The wheel has several levels, each level has a fixed number of buckets. A
+ * bucket of level 0 spans a tick, a bucket of level {@code k} spans all
+ * buckets of level {@code k - 1}. A task be placed in the lowest level which
+ * can hold it's deadline, and be moved to lower level when the bucket of it
+ * be reached, until expired in level 0. The tasks beyond the highest level
+ * stay in the highest level, and be placed again per round.
+ * <p>
+ * The buckets are owned by a worker thread. The scheduling and cancellation
+ * only queue the task to the worker, and the worker links or unlinks it with
+ * a bucket, so both cost constant time, regardless of the count of pending
+ * tasks. The tasks are run by the worker thread in order of deadline (by
+ * tick), so they should be short. The worker thread is started at first
+ * scheduling, and parks when no task is pending.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public final class TimingWheel implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory
+            .getLogger(TimingWheel.class);
+
+    private static final int INIT = 0;
+    private static final int STARTED = 1;
+    private static final int CLOSED = 2;
+
+    private final long tickNanos;
+    private final int wheelBits;
+    private final int mask;
+
+    /** The buckets by level, only be accessed by worker */
+    private final Bucket[][] buckets;
+
+    private final Thread worker;
+
+    /** The nano time of the tick 0 */
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicInteger state = new AtomicInteger(INIT);
+
+    /** The scheduled tasks, hadn't be placed in buckets */
+    private final Queue<Task> scheduled = new ConcurrentLinkedQueue<>();
+
+    /** The cancelled tasks, hadn't be unlinked from buckets */
+    private final Queue<Task> cancelled = new ConcurrentLinkedQueue<>();
+
+    /** The count of tasks, those neither be expired nor be cancelled */
+    private final AtomicLong pendingCount = new AtomicLong();
+
+    /** Whether the worker is parking without deadline */
+    private volatile boolean idle;
+
+    /** The current tick of worker */
+    private long currentTick;
+
+    /**
+     * Create a timing wheel, ticks per millisecond, with 4 levels of 512
+     * buckets, and runs tasks by a daemon thread.
+     */
+    public TimingWheel() {
+        this(1, TimeUnit.MILLISECONDS, 512, 4, runnable -> {
+            Thread thread = new Thread(runnable, "event-timing-wheel");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create a timing wheel.
+     *
+     * @param tickDuration
+     *         the duration of a tick
+     * @param unit
+     *         the time unit of tick duration
+     * @param wheelSize
+     *         the count of buckets per level, will be round up to a power of
+     *         two
+     * @param levels
+     *         the count of levels
+     * @param threadFactory
+     *         the factory to create worker thread
+     * @throws IllegalArgumentException
+     *         specified tick duration or levels isn't positive, or the wheel
+     *         size is less than 2 or greater than 2^16
+     * @throws NullPointerException
+     *         specified unit or thread factory is null
+     */
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize,
+                       int levels, ThreadFactory threadFactory) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException(
+                    "Illegal tick duration: " + tickDuration);
+        }
+        if (wheelSize < 2 || wheelSize > 1 << 16) {
+            throw new IllegalArgumentException(
+                    "Illegal wheel size: " + wheelSize);
+        }
+        if (levels <= 0) {
+            throw new IllegalArgumentException("Illegal levels: " + levels);
+        }
+        this.tickNanos = Math.max(unit.toNanos(tickDuration), 1);
+        this.wheelBits = 32 - Integer.numberOfLeadingZeros(wheelSize - 1);
+        this.mask = (1 << wheelBits) - 1;
+        // the span of the highest level must be represented by long, the
+        // more levels are useless
+        this.buckets = new Bucket[Math.min(levels, 62 / wheelBits)][1 << wheelBits];
+        for (Bucket[] level : buckets) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket();
+            }
+        }
+        this.worker = Objects.requireNonNull(threadFactory.newThread(
+                this::work), "The thread factory returned null");
+    }
+
+    /**
+     * Returns the default timing wheel, with default configuration. The
+     * default timing wheel is shared by whole process, and can't be closed.
+     *
+     * @return the default timing wheel
+     */
+    public static TimingWheel getDefault() {
+        return DefaultHolder.DEFAULT_TIMING_WHEEL;
+    }
+
+    /**
+     * Schedule specified task to run after specified delay.
+     *
+     * @param task
+     *         the task to run
+     * @param delay
+     *         the delay to run task, the non-positive delay means run at
+     *         next tick
+     * @param unit
+     *         the time unit of delay
+     * @return the handle of scheduled task
+     * @throws NullPointerException
+     *         specified task or unit is null
+     * @throws IllegalStateException
+     *         this had be closed
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Objects.requireNonNull(task);
+        long delayNanos = Math.max(unit.toNanos(delay), 0);
+        long deadline = System.nanoTime() - startNanos + delayNanos;
+        if (deadline < 0) {
+            // overflowed, it will never be reached
+            deadline = Long.MAX_VALUE;
+        }
+        start();
+        Task timeout = new Task(task, deadline / tickNanos
+                                      + (deadline % tickNanos == 0 ? 0 : 1));
+        pendingCount.incrementAndGet();
+        scheduled.offer(timeout);
+        if (idle) {
+            LockSupport.unpark(worker);
+        }
+        return timeout;
+    }
+
+    /**
+     * Returns the count of scheduled tasks, those neither be expired nor be
+     * cancelled.
+     *
+     * @return the count of pending tasks
+     */
+    public long pendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * Stop the worker thread. The pending tasks will not be run.
+     *
+     * @throws IllegalStateException
+     *         this is the default timing wheel
+     */
+    @Override public void close() {
+        if (this == getDefault()) {
+            throw new IllegalStateException(
+                    "The default timing wheel can't be closed.");
+        }
+        if (state.getAndSet(CLOSED) == STARTED) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    private void start() {
+        if (state.get() == INIT && state.compareAndSet(INIT, STARTED)) {
+            worker.start();
+        }
+        if (state.get() == CLOSED) {
+            throw new IllegalStateException("The timing wheel had be closed.");
+        }
+    }
+
+    private void work() {
+        while (state.get() == STARTED) {
+            unlinkCancelled();
+            placeScheduled();
+            long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+            if (pendingCount.get() == 0) {
+                idle = true;
+                if (pendingCount.get() == 0 && state.get() == STARTED) {
+                    // no task in buckets, so nothing to advance
+                    currentTick = Math.max(currentTick, targetTick);
+                    LockSupport.park(this);
+                }
+                idle = false;
+                continue;
+            }
+            while (currentTick < targetTick) {
+                advance();
+            }
+            long sleepNanos = (currentTick + 1) * tickNanos
+                              - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(this, sleepNanos);
+            }
+        }
+    }
+
+    private void unlinkCancelled() {
+        Task task;
+        while ((task = cancelled.poll()) != null) {
+            if (task.bucket != null) {
+                task.bucket.remove(task);
+            }
+        }
+    }
+
+    private void placeScheduled() {
+        Task task;
+        while ((task = scheduled.poll()) != null) {
+            if (!task.isCancelled()) {
+                place(task);
+            }
+        }
+    }
+
+    /**
+     * Place specified task in the lowest level can hold it's deadline, or
+     * expire it if it's deadline had be reached.
+     */
+    private void place(Task task) {
+        long delta = task.deadlineTick - currentTick;
+        if (delta <= 0) {
+            task.expire();
+            return;
+        }
+        int level = 0;
+        while (level < buckets.length - 1
+               && delta >>> (wheelBits * (level + 1)) != 0) {
+            level++;
+        }
+        int index = (int) (task.deadlineTick >>> (wheelBits * level)) & mask;
+        buckets[level][index].add(task);
+    }
+
+    private void advance() {
+        currentTick++;
+        // move the tasks to lower levels, from the highest level, so the tasks
+        // moved into a reached bucket will be moved again
+        for (int level = buckets.length - 1; level > 0; level--) {
+            int shift = wheelBits * level;
+            if ((currentTick & ((1L << shift) - 1)) == 0) {
+                Task task = buckets[level][(int) (currentTick >>> shift)
+                                           & mask].clear();
+                while (task != null) {
+                    Task next = task.next;
+                    task.next = null;
+                    place(task);
+                    task = next;
+                }
+            }
+        }
+        Task task = buckets[0][(int) currentTick & mask].clear();
+        while (task != null) {
+            Task next = task.next;
+            task.next = null;
+            task.expire();
+            task = next;
+        }
+    }
+
+    /** The doubly linked tasks, only be accessed by worker */
+    private static final class Bucket {
+
+        private Task head;
+        private Task tail;
+
+        private void add(Task task) {
+            task.bucket = this;
+            task.prev = tail;
+            if (tail == null) {
+                head = task;
+            } else {
+                tail.next = task;
+            }
+            tail = task;
+        }
+
+        private void remove(Task task) {
+            if (task.prev == null) {
+                head = task.next;
+            } else {
+                task.prev.next = task.next;
+            }
+            if (task.next == null) {
+                tail = task.prev;
+            } else {
+                task.next.prev = task.prev;
+            }
+            task.prev = null;
+            task.next = null;
+            task.bucket = null;
+        }
+
+        /**
+         * Remove all tasks from this.
+         *
+         * @return the first removed task, the others can be reached by
+         * {@code next}
+         */
+        private Task clear() {
+            Task first = head;
+            for (Task task = first; task != null; task = task.next) {
+                task.prev = null;
+                task.bucket = null;
+            }
+            head = null;
+            tail = null;
+            return first;
+        }
+    }
+
+    private final class Task implements Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable runnable;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private Bucket bucket;
+        private Task prev;
+        private Task next;
+
+        private Task(Runnable runnable, long deadlineTick) {
+            this.runnable = runnable;
+            this.deadlineTick = deadlineTick;
+        }
+
+        @Override public boolean cancel() {
+            if (!state.compareAndSet(PENDING, CANCELLED)) {
+                return false;
+            }
+            pendingCount.decrementAndGet();
+            cancelled.offer(this);
+            return true;
+        }
+
+        @Override public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        @Override public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRED)) {
+                return;
+            }
+            pendingCount.decrementAndGet();
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                LOGGER.error("Exception occurred on run timer task [{}]; " +
+                             "details: ", runnable, e);
+            }
+        }
+    }
+
+    /** The lazy holder of default timing wheel */
+    private static final class DefaultHolder {
+
+        private static final TimingWheel DEFAULT_TIMING_WHEEL = new TimingWheel();
+    }
+}
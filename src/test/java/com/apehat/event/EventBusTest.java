@@ -16,9 +16,27 @@
 
 package com.apehat.event;
 
+import com.apehat.event.annotation.Subscribe;
+import com.apehat.event.register.ConflatingEventQueue;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
 /**
  * @author hanpengfei
  * @since 1.0
@@ -47,6 +65,589 @@ public class EventBusTest {
         eventBus.submit(e);
     }
 
+    @Test public void testDefaultIsShared() {
+        assertSame(EventBus.getDefault(), EventBus.getDefault());
+        assertSame(EventBus.lookup(EventBus.DEFAULT_NAME),
+                   EventBus.getDefault());
+    }
+
+    @Test public void testNamedLifecycle() {
+        String name = EventBusTest.class.getName();
+        EventBus eventBus = new EventBus.Builder().build(name);
+        assertSame(EventBus.lookup(name), eventBus);
+
+        eventBus.close();
+        assertTrue(eventBus.isClosed());
+        assertNull(EventBus.lookup(name));
+        assertNotSame(new EventBus.Builder().build(name), eventBus);
+        EventBus.lookup(name).close();
+    }
+
+    @Test public void testBuildRegisteredName() {
+        String name = EventBusTest.class.getName() + "#registered";
+        EventBus eventBus = new EventBus.Builder().build(name);
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setLaneCount(2);
+        try {
+            builder.build(name);
+            fail("The registered name can't be built again");
+        } catch (IllegalArgumentException e) {
+            assertSame(EventBus.lookup(name), eventBus);
+        } finally {
+            eventBus.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testSubmitToClosed() {
+        EventBus eventBus = new EventBus.Builder().build();
+        eventBus.close();
+        eventBus.submit(new E(EventBusTest.class.getName()));
+    }
+
+    @Test public void testPartitionedKeepOrderPerTrigger() throws Exception {
+        int triggerCount = 8;
+        int eventCount = 1000;
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setLaneCount(4);
+        EventBus eventBus = builder.build();
+
+        Map<TriggerId, List<Integer>> received = new ConcurrentHashMap<>();
+        CountDownLatch latch = new CountDownLatch(triggerCount * eventCount);
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                received.computeIfAbsent(event.triggerId(),
+                                         k->new ArrayList<>()).add(event.index);
+                latch.countDown();
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        TriggerId[] triggerIds = new TriggerId[triggerCount];
+        for (int i = 0; i < triggerCount; i++) {
+            triggerIds[i] = new TriggerId() {
+            };
+        }
+        for (int i = 0; i < eventCount; i++) {
+            for (TriggerId triggerId : triggerIds) {
+                eventBus.submit(new Sequenced(triggerId, i));
+            }
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        eventBus.close();
+
+        for (List<Integer> indexes : received.values()) {
+            for (int i = 0; i < eventCount; i++) {
+                assertEquals(indexes.get(i).intValue(), i);
+            }
+        }
+    }
+
+    @Test public void testAsyncFlush() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setExecutor(executor);
+        EventBus eventBus = builder.build();
+
+        AtomicInteger received = new AtomicInteger();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                received.incrementAndGet();
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        TriggerId triggerId = new TriggerId() {
+        };
+        for (int i = 0; i < 1000; i++) {
+            eventBus.submit(new Sequenced(triggerId, i));
+        }
+        assertTrue(eventBus.flush(10, TimeUnit.SECONDS));
+        assertEquals(received.get(), 1000);
+        assertEquals(eventBus.pendingCount(), 0);
+        eventBus.close();
+        executor.shutdown();
+    }
+
+    @Test public void testConcurrentSubmitNotStranded() throws Exception {
+        EventBus eventBus = new EventBus.Builder().build();
+        AtomicInteger received = new AtomicInteger();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                received.incrementAndGet();
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        int threads = 4;
+        int eventsPerThread = 10_000;
+        CountDownLatch latch = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                TriggerId triggerId = new TriggerId() {
+                };
+                for (int i = 0; i < eventsPerThread; i++) {
+                    eventBus.submit(new Sequenced(triggerId, i));
+                }
+                latch.countDown();
+            }).start();
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        // all events had be published, when the last submit returned
+        assertEquals(received.get(), threads * eventsPerThread);
+        assertEquals(eventBus.pendingCount(), 0);
+        eventBus.close();
+    }
+
+    @Test public void testPublishInlineWhenHandOffRejected() {
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setDrainBatchSize(10);
+        builder.setHandOffExecutor(task -> {
+            throw new RejectedExecutionException();
+        });
+        EventBus eventBus = builder.build();
+
+        List<Integer> received = new ArrayList<>();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                if (event.index == 0) {
+                    for (int i = 1; i < 100; i++) {
+                        eventBus.submit(new Sequenced(event.triggerId(), i));
+                    }
+                }
+                received.add(event.index);
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        eventBus.submit(new Sequenced(new TriggerId() {
+        }, 0));
+        assertEquals(received.size(), 100);
+        assertEquals(eventBus.pendingCount(), 0);
+        eventBus.close();
+    }
+
+    @Test public void testHandOffAfterBatch() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setDrainBatchSize(10);
+        builder.setHandOffExecutor(executor);
+        EventBus eventBus = builder.build();
+
+        Thread submitter = Thread.currentThread();
+        List<Integer> received = new ArrayList<>();
+        AtomicInteger publishedBySubmitter = new AtomicInteger();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                if (Thread.currentThread() == submitter) {
+                    publishedBySubmitter.incrementAndGet();
+                    if (event.index == 0) {
+                        // submit nested events, those will be queued
+                        for (int i = 1; i < 100; i++) {
+                            eventBus.submit(new Sequenced(event.triggerId(), i));
+                        }
+                    }
+                }
+                received.add(event.index);
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        eventBus.submit(new Sequenced(new TriggerId() {
+        }, 0));
+        assertTrue(eventBus.flush(10, TimeUnit.SECONDS));
+        assertEquals(publishedBySubmitter.get(), 10);
+        assertEquals(received.size(), 100);
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals((int) received.get(i), i);
+        }
+        eventBus.close();
+        executor.shutdown();
+    }
+
+    @Test public void testOverflowPolicies() {
+        // the events are held in the queue, until the tasks be run
+        List<Runnable> tasks = new ArrayList<>();
+        TriggerId triggerId = new TriggerId() {
+        };
+
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setExecutor(tasks::add);
+        builder.setCapacity(2);
+        builder.setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        EventBus dropOldest = builder.build();
+        for (int i = 0; i < 5; i++) {
+            dropOldest.submit(new Sequenced(triggerId, i));
+        }
+        assertEquals(dropOldest.queueDepth(), 2);
+        assertEquals(dropOldest.droppedCount(), 3);
+        assertEquals(dropOldest.pendingCount(), 2);
+
+        builder.setOverflowPolicy(OverflowPolicy.DROP_NEWEST);
+        EventBus dropNewest = builder.build();
+        for (int i = 0; i < 5; i++) {
+            dropNewest.submit(new Sequenced(triggerId, i));
+        }
+        assertEquals(dropNewest.queueDepth(), 2);
+        assertEquals(dropNewest.droppedCount(), 3);
+
+        builder.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+        try {
+            builder.build();
+            fail("The caller runs policy should be refused by lanes");
+        } catch (IllegalStateException expected) {
+        }
+
+        builder.setOverflowPolicy(OverflowPolicy.BLOCK);
+        builder.setBlockTimeout(10, TimeUnit.MILLISECONDS);
+        EventBus block = builder.build();
+        block.submit(new Sequenced(triggerId, 0));
+        block.submit(new Sequenced(triggerId, 1));
+        try {
+            block.submit(new Sequenced(triggerId, 2));
+            fail("The event should be rejected after timeout");
+        } catch (IllegalStateException e) {
+            assertEquals(block.pendingCount(), 2);
+        }
+
+        tasks.forEach(Runnable::run);
+        assertEquals(dropOldest.pendingCount(), 0);
+        assertEquals(block.queueDepth(), 0);
+        dropOldest.close();
+        dropNewest.close();
+        block.close();
+    }
+
+    @Test public void testCallerRunsWhenDrainingQueueFull() {
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setCapacity(2);
+        builder.setOverflowPolicy(OverflowPolicy.CALLER_RUNS);
+        EventBus eventBus = builder.build();
+        List<Integer> received = new ArrayList<>();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                if (event.index == 0) {
+                    for (int i = 1; i < 5; i++) {
+                        eventBus.submit(new Sequenced(event.triggerId(), i));
+                    }
+                }
+                received.add(event.index);
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        eventBus.submit(new Sequenced(new TriggerId() {
+        }, 0));
+        // the events can't be queued are published by the subscriber
+        assertEquals(received, Arrays.asList(3, 4, 0, 1, 2));
+        assertEquals(eventBus.pendingCount(), 0);
+        eventBus.close();
+    }
+
+    @Test(timeOut = 10000) public void testBlockNotDeadlockDrainingThread()
+            throws Exception {
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setCapacity(2);
+        builder.setOverflowPolicy(OverflowPolicy.BLOCK);
+        EventBus syncBus = builder.build();
+        builder.setLaneCount(1);
+        EventBus laneBus = builder.build();
+        for (EventBus eventBus : Arrays.asList(syncBus, laneBus)) {
+            List<Integer> received = new CopyOnWriteArrayList<>();
+            AtomicInteger rejected = new AtomicInteger();
+            eventBus.subscribe(new Subscriber<Sequenced>() {
+                @Override public Class<? extends Sequenced> subscribeTo() {
+                    return Sequenced.class;
+                }
+
+                @Override public void onEvent(Sequenced event) {
+                    if (event.index == 0) {
+                        for (int i = 1; i < 5; i++) {
+                            try {
+                                eventBus.submit(new Sequenced(
+                                        event.triggerId(), i));
+                            } catch (IllegalStateException e) {
+                                rejected.incrementAndGet();
+                            }
+                        }
+                    }
+                    received.add(event.index);
+                }
+
+                @Override public SubscribeScope scope() {
+                    return SubscribeScope.BUS;
+                }
+            });
+
+            eventBus.submit(new Sequenced(new TriggerId() {
+            }, 0));
+            assertTrue(eventBus.flush(5, TimeUnit.SECONDS));
+            assertEquals(received, Arrays.asList(0, 1, 2));
+            assertEquals(rejected.get(), 2);
+            eventBus.close();
+        }
+    }
+
+    @Test public void testSubmitAllToBatchSubscriber() throws Exception {
+        List<List<Sequenced>> batches = new ArrayList<>();
+        List<Integer> received = new ArrayList<>();
+        BatchSubscriber<Sequenced> batchSubscriber = new BatchSubscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvents(List<Sequenced> events) {
+                batches.add(events);
+                for (Sequenced event : events) {
+                    received.add(event.index);
+                }
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        };
+
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setDrainBatchSize(40);
+        EventBus eventBus = builder.build();
+        eventBus.subscribe(batchSubscriber);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        builder.setExecutor(executor);
+        EventBus asyncBus = builder.build();
+        asyncBus.subscribe(batchSubscriber);
+
+        TriggerId triggerId = new TriggerId() {
+        };
+        List<Sequenced> events = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new Sequenced(triggerId, i));
+        }
+        eventBus.submitAll(events);
+        assertEquals(batches.size(), 3);
+        assertEquals(batches.get(0).size(), 40);
+        assertEquals(batches.get(2).size(), 20);
+        assertEquals(eventBus.pendingCount(), 0);
+        eventBus.close();
+
+        batches.clear();
+        received.clear();
+        asyncBus.submitAll(events);
+        assertTrue(asyncBus.flush(10, TimeUnit.SECONDS));
+        assertEquals(received.size(), 100);
+        for (int i = 0; i < received.size(); i++) {
+            assertEquals((int) received.get(i), i);
+        }
+        for (List<Sequenced> batch : batches) {
+            assertTrue(batch.size() <= 40);
+        }
+        asyncBus.close();
+        executor.shutdown();
+    }
+
+    @Test public void testConflateByTriggerId() {
+        List<Runnable> tasks = new ArrayList<>();
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setExecutor(tasks::add);
+        builder.setEventQueueFactory(ConflatingEventQueue::byTriggerId);
+        EventBus eventBus = builder.build();
+        List<Integer> received = new ArrayList<>();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                received.add(event.index);
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        TriggerId triggerId = new TriggerId() {
+        };
+        for (int i = 0; i < 5; i++) {
+            eventBus.submit(new Sequenced(triggerId, i));
+        }
+        assertEquals(eventBus.pendingCount(), 1);
+        tasks.forEach(Runnable::run);
+        assertEquals(received.size(), 1);
+        assertEquals((int) received.get(0), 4);
+        assertEquals(eventBus.pendingCount(), 0);
+        eventBus.close();
+    }
+
+    @Test public void testSubmitAfter() throws Exception {
+        EventBus eventBus = new EventBus.Builder().build();
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Integer> received = new ArrayList<>();
+        AtomicReference<String> publishingThread = new AtomicReference<>();
+        eventBus.subscribe(new Subscriber<Sequenced>() {
+            @Override public Class<? extends Sequenced> subscribeTo() {
+                return Sequenced.class;
+            }
+
+            @Override public void onEvent(Sequenced event) {
+                received.add(event.index);
+                publishingThread.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        });
+
+        TriggerId triggerId = new TriggerId() {
+        };
+        eventBus.submitAfter(new Sequenced(triggerId, 0), 20,
+                             TimeUnit.MILLISECONDS).cancel();
+        eventBus.submitAt(new Sequenced(triggerId, 1),
+                          System.currentTimeMillis() + 40);
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(received.size(), 1);
+        assertEquals((int) received.get(0), 1);
+        // the subscribers aren't invoked by the thread of timing wheel
+        assertEquals(publishingThread.get(), "event-bus-delayed");
+        eventBus.close();
+    }
+
+    @Test public void testSubscribeAll() {
+        EventBus eventBus = new EventBus.Builder().build();
+        Listener listener = new Listener();
+        List<Subscriber<?>> subscribers = eventBus.subscribeAll(listener);
+        assertEquals(subscribers.size(), 2);
+        for (Subscriber<?> subscriber : subscribers) {
+            assertEquals(subscriber.subscribeTo(), Noticed.class);
+            assertEquals(subscriber.scope(), SubscribeScope.BUS);
+        }
+        // the subscribers of same listener are equal, needn't register again
+        assertEquals(eventBus.subscribeAll(listener), subscribers);
+        assertTrue(eventBus.subscribeAll(new Object()).isEmpty());
+
+        eventBus.submit(new Noticed(new TriggerId() {
+        }));
+        assertEquals(listener.received, 2);
+        eventBus.close();
+    }
+
+    @Test public void testSubscribeAllSuperTypes() {
+        EventBus eventBus = new EventBus.Builder().build();
+        DerivedListener listener = new DerivedListener();
+        // the overridden method is bound once, by the overriding one
+        assertEquals(eventBus.subscribeAll(listener).size(), 2);
+
+        eventBus.submit(new Noticed(new TriggerId() {
+        }));
+        assertEquals(listener.received, 2);
+        eventBus.close();
+    }
+
+    static class Noticed extends AbstractEvent {
+
+        Noticed(TriggerId triggerId) {
+            super(triggerId);
+        }
+    }
+
+    public static class Listener {
+
+        private int received;
+
+        @Subscribe(evenType = Noticed.class, scope = SubscribeScope.BUS)
+        public void onEvent(Event event) {
+            received++;
+        }
+
+        @Subscribe(evenType = Noticed.class, scope = SubscribeScope.BUS)
+        void onNoticed(Noticed event) {
+            received++;
+        }
+    }
+
+    public interface NoticedListener {
+
+        @Subscribe(evenType = Noticed.class, scope = SubscribeScope.BUS)
+        void onNoticed(Noticed event);
+    }
+
+    public static class BaseListener {
+
+        int received;
+
+        @Subscribe(evenType = Noticed.class, scope = SubscribeScope.BUS)
+        public void onOverridden(Noticed event) {
+            throw new AssertionError("overridden");
+        }
+    }
+
+    public static class DerivedListener extends BaseListener
+            implements NoticedListener {
+
+        @Subscribe(evenType = Noticed.class, scope = SubscribeScope.BUS)
+        @Override public void onOverridden(Noticed event) {
+            received++;
+        }
+
+        @Override public void onNoticed(Noticed event) {
+            received++;
+        }
+    }
+
+    private static class Sequenced extends AbstractEvent {
+
+        private final int index;
+
+        Sequenced(TriggerId triggerId, int index) {
+            super(triggerId);
+            this.index = index;
+        }
+    }
+
     private class E extends AbstractEvent {
 
         E(String id) {
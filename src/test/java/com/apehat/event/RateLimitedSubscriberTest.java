@@ -0,0 +1,175 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class RateLimitedSubscriberTest {
+
+    private final TriggerId first = new TriggerId() {
+    };
+    private final TriggerId second = new TriggerId() {
+    };
+
+    @Test public void testDebounceLastOfBurstPerTrigger() throws Exception {
+        Recorder recorder = new Recorder();
+        RateLimitedSubscriber<Indexed> subscriber = RateLimitedSubscriber
+                .debounce(recorder, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            subscriber.onEvent(new Indexed(first, i));
+        }
+        subscriber.onEvent(new Indexed(second, 10));
+        assertTrue(recorder.received.isEmpty());
+        waitFor(recorder, 2);
+        assertTrue(recorder.received.contains(4));
+        assertTrue(recorder.received.contains(10));
+    }
+
+    @Test public void testThrottleFirstOfInterval() throws Exception {
+        Recorder recorder = new Recorder();
+        RateLimitedSubscriber<Indexed> subscriber = RateLimitedSubscriber
+                .throttle(recorder, 200, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 5; i++) {
+            subscriber.onEvent(new Indexed(first, i));
+        }
+        assertEquals(recorder.received.toString(), "[0]");
+
+        Thread.sleep(250);
+        subscriber.onEvent(new Indexed(first, 5));
+        assertEquals(recorder.received.toString(), "[0, 5]");
+    }
+
+    @Test public void testSampleGlobally() throws Exception {
+        Recorder recorder = new Recorder();
+        RateLimitedSubscriber<Indexed> subscriber = RateLimitedSubscriber
+                .sample(recorder, 50, TimeUnit.MILLISECONDS).global();
+        subscriber.onEvent(new Indexed(first, 0));
+        subscriber.onEvent(new Indexed(second, 1));
+        waitFor(recorder, 1);
+        Thread.sleep(100);
+        assertEquals(recorder.received.toString(), "[1]");
+    }
+
+    @Test public void testDelayedEventHandedBackToBus() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        List<Subscriber<?>> failed = new CopyOnWriteArrayList<>();
+        AtomicReference<String> passingThread = new AtomicReference<>();
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setSubscribeExceptionHandler(new SubscribeExceptionHandler() {
+            @Override
+            public <T extends Event> void handle(Exception e, T event,
+                                                 Subscriber<? super T> subscriber) {
+                failed.add(subscriber);
+                latch.countDown();
+            }
+        });
+        EventBus eventBus = builder.build();
+        RateLimitedSubscriber<Indexed> subscriber = RateLimitedSubscriber
+                .debounce(new Recorder() {
+                    @Override public void onEvent(Indexed event) {
+                        passingThread.set(Thread.currentThread().getName());
+                        throw new IllegalStateException("failed");
+                    }
+
+                    @Override public SubscribeScope scope() {
+                        return SubscribeScope.BUS;
+                    }
+                }, 20, TimeUnit.MILLISECONDS);
+        eventBus.subscribe(subscriber);
+
+        eventBus.submit(new Indexed(first, 0));
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(failed.size(), 1);
+        assertSame(failed.get(0), subscriber);
+        // handed back to the bus, rather than passed by the timing wheel
+        assertEquals(passingThread.get(), "event-bus-delayed");
+        assertTrue(eventBus.flush(10, TimeUnit.SECONDS));
+        eventBus.close();
+    }
+
+    @Test public void testDelayedEventPublishedByLane() throws Exception {
+        EventBus.Builder builder = new EventBus.Builder();
+        builder.setLaneCount(2);
+        EventBus eventBus = builder.build();
+        List<String> passingThreads = new CopyOnWriteArrayList<>();
+        Recorder recorder = new Recorder() {
+            @Override public void onEvent(Indexed event) {
+                passingThreads.add(Thread.currentThread().getName());
+                super.onEvent(event);
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        };
+        eventBus.subscribe(RateLimitedSubscriber.sample(
+                recorder, 20, TimeUnit.MILLISECONDS));
+
+        eventBus.submit(new Indexed(first, 0));
+        eventBus.submit(new Indexed(first, 1));
+        waitFor(recorder, 1);
+        assertEquals(recorder.received.toString(), "[1]");
+        assertTrue(passingThreads.get(0).startsWith("event-bus-lane-"),
+                   passingThreads.toString());
+        eventBus.close();
+    }
+
+    private static void waitFor(Recorder recorder, int count)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (recorder.received.size() < count
+               && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(recorder.received.size(), count);
+    }
+
+    private static class Recorder implements Subscriber<Indexed> {
+
+        private final List<Integer> received = new CopyOnWriteArrayList<>();
+
+        @Override public Class<? extends Indexed> subscribeTo() {
+            return Indexed.class;
+        }
+
+        @Override public void onEvent(Indexed event) {
+            received.add(event.index);
+        }
+    }
+
+    private static class Indexed extends AbstractEvent {
+
+        private final int index;
+
+        Indexed(TriggerId triggerId, int index) {
+            super(triggerId);
+            this.index = index;
+        }
+    }
+}
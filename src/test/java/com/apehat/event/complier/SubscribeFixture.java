@@ -0,0 +1,90 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.complier;
+
+import com.apehat.event.AbstractEvent;
+import com.apehat.event.Event;
+import com.apehat.event.SubscribeScope;
+import com.apehat.event.Subscriber;
+import com.apehat.event.TriggerId;
+import com.apehat.event.annotation.Subscribe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The type declares {@link Subscribe} methods, be processed when compile
+ * tests.
+ *
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SubscribeFixture {
+
+    static final List<Event> STATIC_RECEIVED = new ArrayList<>();
+
+    final List<Event> received = new ArrayList<>();
+
+    @Subscribe(evenType = Created.class, scope = SubscribeScope.BUS)
+    void onCreated(Created event) {
+        received.add(event);
+    }
+
+    @Subscribe(evenType = Created.class)
+    @Subscribe(evenType = Removed.class)
+    public void onAny(Event event) {
+        received.add(event);
+    }
+
+    /** The overload is more specific, but isn't annotated */
+    public void onAny(Created event) {
+        throw new AssertionError("The overload mustn't be invoked");
+    }
+
+    @Subscribe(evenType = Removed.class)
+    static void onRemoved(Removed event) {
+        STATIC_RECEIVED.add(event);
+    }
+
+    @Subscribe(evenType = Removed.class, by = RemovedSubscriber.class)
+    void declareSubscriber() {
+    }
+
+    static class Created extends AbstractEvent {
+
+        Created(TriggerId triggerId) {
+            super(triggerId);
+        }
+    }
+
+    static class Removed extends AbstractEvent {
+
+        Removed(TriggerId triggerId) {
+            super(triggerId);
+        }
+    }
+
+    public static class RemovedSubscriber implements Subscriber<Removed> {
+
+        @Override public Class<? extends Removed> subscribeTo() {
+            return Removed.class;
+        }
+
+        @Override public void onEvent(Removed event) {
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.complier;
+
+import com.apehat.event.Event;
+import com.apehat.event.SubscribeScope;
+import com.apehat.event.Subscriber;
+import com.apehat.event.TriggerId;
+import com.apehat.event.complier.SubscribeFixture.Created;
+import com.apehat.event.complier.SubscribeFixture.Removed;
+import com.apehat.event.complier.SubscribeFixture.RemovedSubscriber;
+import com.apehat.event.register.SubscriberIndexLoader;
+import com.apehat.event.register.SubscriberRAMRegister;
+import com.apehat.event.register.SubscriberRegister;
+import org.testng.annotations.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SubscribeProcessorTest {
+
+    private final TriggerId triggerId = new TriggerId() {
+    };
+
+    @Test public void testGeneratedSubscribers() {
+        SubscribeFixture fixture = new SubscribeFixture();
+        List<Subscriber<?>> subscribers = SubscribeFixture_Subscribers
+                .subscribersOf(fixture);
+        assertEquals(subscribers.size(), 5);
+        // the adapters of equal target are equal
+        assertEquals(SubscribeFixture_Subscribers.subscribersOf(fixture)
+                                                 .subList(0, 4),
+                     subscribers.subList(0, 4));
+        assertNotEquals(SubscribeFixture_Subscribers
+                                .subscribersOf(new SubscribeFixture()).get(0),
+                        subscribers.get(0));
+
+        Created created = new Created(triggerId);
+        Removed removed = new Removed(triggerId);
+        for (Subscriber<?> subscriber : subscribers) {
+            if (subscriber.subscribeTo() == Created.class) {
+                onEvent(subscriber, created);
+            } else {
+                assertEquals(subscriber.subscribeTo(), Removed.class);
+                onEvent(subscriber, removed);
+            }
+        }
+        assertEquals(fixture.received.size(), 3);
+        assertTrue(SubscribeFixture.STATIC_RECEIVED.contains(removed));
+        assertEquals(subscribers.get(0).scope(), SubscribeScope.BUS);
+        assertEquals(subscribers.get(1).scope(), SubscribeScope.THREAD);
+        assertTrue(subscribers.get(4) instanceof RemovedSubscriber);
+    }
+
+    @Test public void testIndexRegisteredInOnePass() throws Exception {
+        SubscriberIndexLoader loader = SubscriberIndexLoader.load(
+                getClass().getClassLoader());
+        List<SubscriberIndexLoader.Entry> indexed = loader.entries().stream()
+                .filter(entry -> entry.registration().equals(
+                        SubscribeFixture_Subscribers.class.getName()))
+                .collect(Collectors.toList());
+        assertEquals(indexed.size(), 5);
+        assertEquals(indexed.get(0).scope(), SubscribeScope.BUS);
+        assertNull(indexed.get(4).scope());
+
+        SubscriberRegister register = new SubscriberRAMRegister();
+        try {
+            // only the subscribers needn't a target, without target
+            assertEquals(loader.registerAll(register), 2);
+            SubscribeFixture fixture = new SubscribeFixture();
+            assertEquals(loader.registerAll(register, type -> type
+                    == SubscribeFixture.class ? fixture : null), 5);
+
+            Created created = new Created(triggerId);
+            Removed removed = new Removed(triggerId);
+            // the declared subscriber is created per registration
+            for (Subscriber<?> subscriber : SubscribeFixture_Subscribers
+                    .subscribersOf(fixture).subList(0, 4)) {
+                assertTrue(register.contains(subscriber));
+            }
+            assertTrue(register.subscribersOf(created).containsAll(
+                    SubscribeFixture_Subscribers.subscribersOf(fixture)
+                                                .subList(0, 2)));
+            register.forEachSubscriber(created, SubscribeProcessorTest::visit);
+            register.forEachSubscriber(removed, SubscribeProcessorTest::visit);
+            assertEquals(fixture.received.size(), 3);
+        } finally {
+            register.clear();
+        }
+    }
+
+    @Test public void testRejectInvalidMethod() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        File output = Files.createTempDirectory("subscribe-processor").toFile();
+        try (StandardJavaFileManager fileManager = compiler
+                .getStandardFileManager(diagnostics, null, null)) {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT,
+                                    Collections.singleton(output));
+            fileManager.setLocation(StandardLocation.SOURCE_OUTPUT,
+                                    Collections.singleton(output));
+            JavaFileObject source = new SimpleJavaFileObject(
+                    URI.create("string:///Invalid.java"),
+                    JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreErrors) {
+                    return "public class Invalid {\n"
+                           + "    @com.apehat.event.annotation.Subscribe("
+                           + "evenType = com.apehat.event.Event.class)\n"
+                           + "    void onEvent(String event) {}\n"
+                           + "}\n";
+                }
+            };
+            JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, fileManager, diagnostics,
+                    java.util.Arrays.asList("-classpath", System.getProperty(
+                            "java.class.path")), null,
+                    Collections.singletonList(source));
+            task.setProcessors(Collections.singletonList(
+                    new SubscribeProcessor()));
+            assertFalse(task.call());
+        }
+        boolean reported = false;
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics
+                .getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && diagnostic
+                    .getMessage(null).contains("exactly one parameter")) {
+                reported = true;
+            }
+        }
+        assertTrue(reported);
+    }
+
+    private static <T extends Event> void visit(
+            T event, Subscriber<? super T> subscriber) {
+        subscriber.onEvent(event);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void onEvent(Subscriber<?> subscriber, Object event) {
+        ((Subscriber<com.apehat.event.Event>) subscriber)
+                .onEvent((com.apehat.event.Event) event);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.AbstractEvent;
+import com.apehat.event.Event;
+import com.apehat.event.Subscriber;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class AbstractTimeStampedSubscriberRegisterTest {
+
+    @Test public void testIndexAllSubscribers() {
+        CollectionRegister register = new CollectionRegister();
+        Subscriber<Event> registered = new NoopSubscriber();
+        register.subscribers.add(
+                new AbstractTimeStampedSubscriberRegister.TimeStampedSubscriber<>(
+                        registered));
+        assertTrue(register.contains(registered));
+
+        Subscriber<Event> subscriber = new NoopSubscriber();
+        register.register(subscriber);
+        assertEquals(register.subscribers.size(), 2);
+        assertEquals(register.subscribersOf(new Noticed()).size(), 2);
+
+        register.unregister(registered);
+        assertEquals(register.subscribers.size(), 1);
+        assertEquals(register.subscribersOf(new Noticed()).size(), 1);
+        assertTrue(register.contains(subscriber));
+    }
+
+    /** The register holds the subscribers by it's own collection */
+    private static class CollectionRegister
+            extends AbstractTimeStampedSubscriberRegister {
+
+        private final List<TimeStampedSubscriber<?>> subscribers = new ArrayList<>();
+
+        @Override
+        protected Collection<TimeStampedSubscriber<?>> allSubscribers() {
+            return subscribers;
+        }
+
+        @Override public boolean registrable(Subscriber<?> subscriber) {
+            return true;
+        }
+    }
+
+    private static class NoopSubscriber implements Subscriber<Event> {
+
+        @Override public Class<? extends Event> subscribeTo() {
+            return Event.class;
+        }
+
+        @Override public void onEvent(Event event) {
+        }
+    }
+
+    private static class Noticed extends AbstractEvent {
+
+        Noticed() {
+            super(new TriggerId() {
+            });
+        }
+    }
+}
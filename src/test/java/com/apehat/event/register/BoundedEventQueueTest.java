@@ -0,0 +1,105 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class BoundedEventQueueTest {
+
+    @Test public void testRefuseWhenFull() {
+        BoundedEventQueue queue = new BoundedEventQueue(new EventRAMQueue(), 2);
+        assertTrue(queue.offer(new E()));
+        assertTrue(queue.offer(new E()));
+        assertEquals(queue.remainingCapacity(), 0);
+        assertFalse(queue.offer(new E()));
+
+        assertNotNull(queue.poll());
+        assertEquals(queue.remainingCapacity(), 1);
+        assertTrue(queue.offer(new E()));
+    }
+
+    @Test public void testDuplicateReleaseSlot() {
+        BoundedEventQueue queue = new BoundedEventQueue(new EventRAMQueue(), 2);
+        Event event = new E();
+        assertTrue(queue.offer(event));
+        assertFalse(queue.offer(event));
+        assertEquals(queue.remainingCapacity(), 1);
+    }
+
+    @Test public void testInsertReportRefusedReason() throws Exception {
+        BoundedEventQueue queue = new BoundedEventQueue(new EventRAMQueue(), 2);
+        Event event = new E();
+        assertEquals(queue.insert(event), EventQueue.OfferResult.QUEUED);
+        assertEquals(queue.insert(event), EventQueue.OfferResult.DUPLICATE);
+        assertEquals(queue.insert(new E()), EventQueue.OfferResult.QUEUED);
+        assertEquals(queue.insert(new E()), EventQueue.OfferResult.FULL);
+        assertEquals(queue.insert(new E(), 1, TimeUnit.MILLISECONDS),
+                     EventQueue.OfferResult.FULL);
+    }
+
+    @Test public void testBlockedOfferTimeout() throws Exception {
+        BoundedEventQueue queue = new BoundedEventQueue(new EventRAMQueue(), 1);
+        queue.offer(new E());
+        assertFalse(queue.offer(new E(), 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test public void testBlockedOfferSignaledByPoll() throws Exception {
+        BoundedEventQueue queue = new BoundedEventQueue(new EventRAMQueue(), 1);
+        queue.offer(new E());
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean queued = new AtomicBoolean();
+        Thread producer = new Thread(() -> {
+            started.countDown();
+            try {
+                queued.set(queue.offer(new E(), 10, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        started.await();
+        queue.drain(event -> {
+        }, 1);
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(queued.get());
+        assertEquals(queue.size(), 1);
+    }
+
+    private static final class E implements Event {
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+}
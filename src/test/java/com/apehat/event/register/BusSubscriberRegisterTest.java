@@ -14,7 +14,7 @@
  * limitations under the License.
  */
 
-package com.apehat.event.internal.subscriber;
+package com.apehat.event.register;
 
 import com.apehat.event.Event;
 import com.apehat.event.SubscribeScope;
@@ -38,7 +38,7 @@ public class BusSubscriberRegisterTest {
     private static int invocationCount = 800;
 
     @AfterClass public static void afterClass() {
-        AbstractTimestampSubscriberRegister subscriberRegister = (AbstractTimestampSubscriberRegister) register;
+        AbstractTimeStampedSubscriberRegister subscriberRegister = (AbstractTimeStampedSubscriberRegister) register;
         int                                 size               = subscriberRegister
                 .allSubscribers().size();
         System.out.println("Expected: " + invocationCount);
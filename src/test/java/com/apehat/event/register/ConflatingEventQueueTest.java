@@ -0,0 +1,91 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ConflatingEventQueueTest {
+
+    private final TriggerId first = new TriggerId() {
+    };
+    private final TriggerId second = new TriggerId() {
+    };
+
+    @Test public void testReplaceInPlace() {
+        ConflatingEventQueue queue = ConflatingEventQueue.byTriggerId();
+        Event firstOld = new Status(first);
+        Event secondEvent = new Status(second);
+        Event firstNew = new Status(first);
+        assertTrue(queue.offer(firstOld));
+        assertTrue(queue.offer(secondEvent));
+        assertFalse(queue.offer(firstNew));
+
+        assertEquals(queue.size(), 2);
+        assertEquals(queue.conflatedCount(), 1);
+        assertSame(queue.poll(), firstNew);
+        assertSame(queue.poll(), secondEvent);
+        assertNull(queue.poll());
+        assertTrue(queue.offer(firstOld));
+    }
+
+    @Test public void testConflateByTriggerIdAndType() {
+        ConflatingEventQueue queue = ConflatingEventQueue.byTriggerIdAndType();
+        assertTrue(queue.offer(new Status(first)));
+        assertTrue(queue.offer(new Position(first)));
+        assertFalse(queue.offer(new Status(first)));
+        assertEquals(queue.size(), 2);
+    }
+
+    @Test public void testNotConflateWithoutTriggerId() {
+        ConflatingEventQueue queue = ConflatingEventQueue.byTriggerId();
+        assertTrue(queue.offer(new Status(null)));
+        assertTrue(queue.offer(new Status(null)));
+        assertEquals(queue.size(), 2);
+    }
+
+    private static class Status implements Event {
+
+        private final TriggerId triggerId;
+
+        Status(TriggerId triggerId) {
+            this.triggerId = triggerId;
+        }
+
+        @Override public TriggerId triggerId() {
+            return triggerId;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+
+    private static class Position extends Status {
+
+        Position(TriggerId triggerId) {
+            super(triggerId);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class EventRAMQueueTest {
+
+    @Test public void testRefuseQueuedEvent() {
+        EventRAMQueue queue = new EventRAMQueue();
+        Event event = new E();
+        assertTrue(queue.offer(event));
+        assertFalse(queue.offer(event));
+        assertSame(queue.poll(), event);
+        assertTrue(queue.offer(event));
+    }
+
+    @Test public void testRefuseWithinWindow() {
+        EventRAMQueue queue = new EventRAMQueue(2);
+        Event first = new E();
+        queue.offer(first);
+        queue.poll();
+        assertFalse(queue.offer(first));
+
+        queue.offer(new E());
+        queue.poll();
+        assertFalse(queue.offer(first));
+
+        queue.offer(new E());
+        queue.poll();
+        assertTrue(queue.offer(first));
+    }
+
+    @Test public void testRemoveByIterator() {
+        EventRAMQueue queue = new EventRAMQueue();
+        Event event = new E();
+        queue.offer(event);
+        assertTrue(queue.remove(event));
+        assertTrue(queue.offer(event));
+    }
+
+    private static final class E implements Event {
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+}
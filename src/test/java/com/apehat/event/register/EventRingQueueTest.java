@@ -0,0 +1,218 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class EventRingQueueTest {
+
+    private static final int PRODUCER_COUNT = 4;
+    private static final int EVENTS_PER_PRODUCER = 50_000;
+
+    @Test public void testCapacityRoundUpToPowerOfTwo() {
+        assertEquals(EventRingQueue.singleConsumer(1000).capacity(), 1024);
+        assertEquals(EventRingQueue.singleConsumer(1024).capacity(), 1024);
+    }
+
+    @Test public void testOfferRefusedWhenFull() {
+        EventRingQueue queue = EventRingQueue.singleConsumer(2);
+        assertTrue(queue.offer(new E(0)));
+        assertTrue(queue.offer(new E(1)));
+        assertFalse(queue.offer(new E(2)));
+        assertEquals(queue.remainingCapacity(), 0);
+        assertEquals(((E) queue.poll()).index, 0);
+        assertTrue(queue.offer(new E(3)));
+    }
+
+    @Test public void testDrainInOrder() {
+        EventRingQueue queue = EventRingQueue.singleConsumer(8);
+        for (int i = 0; i < 6; i++) {
+            queue.offer(new E(i));
+        }
+        List<Event> drained = new ArrayList<>();
+        assertEquals(queue.drain(drained::add, 4), 4);
+        assertEquals(queue.drain(drained::add, 4), 2);
+        for (int i = 0; i < drained.size(); i++) {
+            assertEquals(((E) drained.get(i)).index, i);
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test public void testMultiConsumer() throws Exception {
+        EventRingQueue queue = EventRingQueue.multiConsumer(1024);
+        AtomicLong sum = new AtomicLong();
+        AtomicLong count = new AtomicLong();
+        int total = PRODUCER_COUNT * EVENTS_PER_PRODUCER;
+        Thread[] consumers = new Thread[2];
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = new Thread(()->{
+                while (count.get() < total) {
+                    Event event = queue.poll();
+                    if (event != null) {
+                        sum.addAndGet(((E) event).index);
+                        count.incrementAndGet();
+                    }
+                }
+            });
+            consumers[i].start();
+        }
+        produce(queue);
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+        long expected = (long) PRODUCER_COUNT * EVENTS_PER_PRODUCER * (EVENTS_PER_PRODUCER - 1) / 2;
+        assertEquals(sum.get(), expected);
+    }
+
+    @Test public void testSingleConsumerKeepProducerOrder() throws Exception {
+        EventRingQueue queue = EventRingQueue.singleConsumer(1024);
+        int total = PRODUCER_COUNT * EVENTS_PER_PRODUCER;
+        int[] next = new int[PRODUCER_COUNT];
+        AtomicLong outOfOrder = new AtomicLong();
+        Thread consumer = new Thread(()->{
+            int count = 0;
+            while (count < total) {
+                count += queue.drain(event->{
+                    E e = (E) event;
+                    if (e.index != next[e.producer]++) {
+                        outOfOrder.incrementAndGet();
+                    }
+                }, Integer.MAX_VALUE);
+            }
+        });
+        consumer.start();
+        produce(queue);
+        consumer.join();
+        assertEquals(outOfOrder.get(), 0);
+        for (int count : next) {
+            assertEquals(count, EVENTS_PER_PRODUCER);
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Compare the throughput of multi producers and single consumer with
+     * {@link EventRAMQueue}. Be excluded by default, run by {@code
+     * -Dgroups=benchmark -DexcludedGroups=}.
+     */
+    @Test(groups = "benchmark")
+    public void testThroughputAgainstEventRAMQueue() throws Exception {
+        // warm up
+        for (int i = 0; i < 3; i++) {
+            measure(new EventRAMQueue());
+            measure(EventRingQueue.singleConsumer(1024));
+        }
+        long ramQueueNanos = Long.MAX_VALUE;
+        long ringQueueNanos = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            ramQueueNanos = Math.min(ramQueueNanos,
+                                     measure(new EventRAMQueue()));
+            ringQueueNanos = Math.min(ringQueueNanos, measure(
+                    EventRingQueue.singleConsumer(1024)));
+        }
+        int total = PRODUCER_COUNT * EVENTS_PER_PRODUCER;
+        String result = String.format(
+                "EventRAMQueue: %.0f events/ms, EventRingQueue: %.0f events/ms",
+                total / (ramQueueNanos / 1e6), total / (ringQueueNanos / 1e6));
+        System.out.println(result);
+        assertTrue(ringQueueNanos <= ramQueueNanos, result);
+    }
+
+    private static long measure(EventQueue queue) throws Exception {
+        int total = PRODUCER_COUNT * EVENTS_PER_PRODUCER;
+        long start = System.nanoTime();
+        Thread consumer = new Thread(()->{
+            int count = 0;
+            while (count < total) {
+                int drained = queue.drain(event->{
+                }, Integer.MAX_VALUE);
+                if (drained == 0) {
+                    Thread.yield();
+                }
+                count += drained;
+            }
+        });
+        consumer.start();
+        produce(queue);
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+
+    private static void produce(EventQueue queue) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCER_COUNT];
+        for (int i = 0; i < producers.length; i++) {
+            E[] events = new E[EVENTS_PER_PRODUCER];
+            for (int j = 0; j < events.length; j++) {
+                events[j] = new E(i, j);
+            }
+            producers[i] = new Thread(()->{
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                for (E event : events) {
+                    while (!queue.offer(event)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producers[i].start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+    }
+
+    private static final class E implements Event {
+
+        private final int producer;
+        private final int index;
+
+        private E(int index) {
+            this(0, index);
+        }
+
+        private E(int producer, int index) {
+            this.producer = producer;
+            this.index = index;
+        }
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class PriorityEventQueueTest {
+
+    @Test public void testHighPriorityFirst() {
+        PriorityEventQueue queue = byType();
+        Event low = new Analytics();
+        Event high = new Domain();
+        queue.offer(low);
+        queue.offer(high);
+        assertEquals(queue.sizeOf(0), 1);
+        assertEquals(queue.sizeOf(1), 1);
+        assertSame(queue.poll(), high);
+        assertSame(queue.poll(), low);
+        assertNull(queue.poll());
+    }
+
+    @Test public void testWeightedDrainNotStarveLowPriority() {
+        PriorityEventQueue queue = byType();
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Domain());
+            queue.offer(new Analytics());
+        }
+        StringBuilder order = new StringBuilder();
+        Event event;
+        while ((event = queue.poll()) != null) {
+            order.append(event instanceof Domain ? 'H' : 'L');
+        }
+        assertEquals(order.toString(), "HHHLHHHLHHHLHLLLLLLL");
+    }
+
+    @Test public void testPeekSameAsPoll() {
+        PriorityEventQueue queue = byType();
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Domain());
+            queue.offer(new Analytics());
+        }
+        Event peeked;
+        while ((peeked = queue.peek()) != null) {
+            assertSame(queue.poll(), peeked);
+        }
+        assertNull(queue.poll());
+    }
+
+    @Test public void testPriorityByFunctionClamped() {
+        PriorityEventQueue queue = new PriorityEventQueue(e -> 5, 1, 1);
+        queue.offer(new Domain());
+        assertEquals(queue.sizeOf(1), 1);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectNonPositiveWeight() {
+        new PriorityEventQueue(e -> 0, 1, 0);
+    }
+
+    private static PriorityEventQueue byType() {
+        Map<Class<? extends Event>, Integer> priorities = new HashMap<>();
+        priorities.put(Critical.class, 0);
+        return PriorityEventQueue.byType(priorities, 1, 3, 1);
+    }
+
+    private interface Critical extends Event {
+    }
+
+    private static class Domain implements Critical {
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+
+    private static class Analytics implements Event {
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+}
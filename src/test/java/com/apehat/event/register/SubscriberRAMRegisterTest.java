@@ -0,0 +1,137 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.AbstractEvent;
+import com.apehat.event.Event;
+import com.apehat.event.SubscribeScope;
+import com.apehat.event.Subscriber;
+import com.apehat.event.TriggerId;
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SubscriberRAMRegisterTest {
+
+    private static final int DISPATCH_COUNT = 100_000;
+
+    private int visited;
+
+    @Test public void testDuplicateNotRegisteredAcrossScopes() {
+        SubscriberRAMRegister register = new SubscriberRAMRegister();
+        Subscriber<E> subscriber = new ScopedSubscriber(SubscribeScope.BUS);
+        register.register(subscriber);
+        register.register(subscriber);
+
+        visited = 0;
+        register.forEachSubscriber(new E(), this::countVisit);
+        assertEquals(visited, 1);
+        register.unregister(subscriber);
+    }
+
+    @Test public void testForEachSubscriberAllocationFree() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory
+                .getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new SkipException("Thread allocated bytes unsupported");
+        }
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean
+                .isThreadAllocatedMemoryEnabled()) {
+            throw new SkipException("Thread allocated bytes unsupported");
+        }
+
+        SubscriberRAMRegister register = new SubscriberRAMRegister();
+        Subscriber<E> threadSubscriber = new ScopedSubscriber(
+                SubscribeScope.THREAD);
+        Subscriber<E> busSubscriber = new ScopedSubscriber(SubscribeScope.BUS);
+        Subscriber<E> globalSubscriber = new ScopedSubscriber(
+                SubscribeScope.GLOBAL);
+        register.register(threadSubscriber);
+        register.register(busSubscriber);
+        register.register(globalSubscriber);
+
+        E event = new E();
+        visited = 0;
+        SubscriberVisitor visitor = this::countVisit;
+        // warm up, let the lookup cache be filled and the code be compiled
+        for (int i = 0; i < DISPATCH_COUNT; i++) {
+            register.forEachSubscriber(event, visitor);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < DISPATCH_COUNT; i++) {
+            register.forEachSubscriber(event, visitor);
+        }
+        long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+        register.unregister(threadSubscriber);
+        register.unregister(busSubscriber);
+        register.unregister(globalSubscriber);
+        assertEquals(visited, 3 * 2 * DISPATCH_COUNT);
+        // allow the allocation of measurement itself
+        assertTrue(allocated < DISPATCH_COUNT / 10,
+                   "Allocated " + allocated + " bytes");
+    }
+
+    private <T extends Event> void countVisit(T event,
+                                              Subscriber<? super T> subscriber) {
+        // the global subscribers registered by other tests are ignored
+        if (subscriber instanceof ScopedSubscriber) {
+            visited++;
+        }
+    }
+
+    private static final class ScopedSubscriber implements Subscriber<E> {
+
+        private final SubscribeScope scope;
+
+        private ScopedSubscriber(SubscribeScope scope) {
+            this.scope = scope;
+        }
+
+        @Override public Class<? extends E> subscribeTo() {
+            return E.class;
+        }
+
+        @Override public void onEvent(E event) {
+        }
+
+        @Override public SubscribeScope scope() {
+            return scope;
+        }
+    }
+
+    private static final class E extends AbstractEvent {
+
+        private static final TriggerId TRIGGER_ID = new TriggerId() {
+        };
+
+        private E() {
+            super(TRIGGER_ID);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.Sequence;
+import com.apehat.event.Subscriber;
+import com.apehat.event.TriggerId;
+import com.apehat.event.register.AbstractTimeStampedSubscriberRegister.TimeStampedSubscriber;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SubscriberTypeIndexTest {
+
+    @Test public void testSubscribersOfResolveInterfaces() {
+        SubscriberTypeIndex index = new SubscriberTypeIndex();
+        TimeStampedSubscriber<Event> eventSubscriber = subscriber(Event.class);
+        TimeStampedSubscriber<Marked> markedSubscriber = subscriber(
+                Marked.class);
+        TimeStampedSubscriber<Other> otherSubscriber = subscriber(Other.class);
+        index.add(eventSubscriber);
+        index.add(markedSubscriber);
+        index.add(otherSubscriber);
+
+        TimeStampedSubscriber<?>[] subscribers = index
+                .subscribersOf(MarkedEvent.class);
+        assertEquals(subscribers.length, 2);
+        assertSame(subscribers[0], eventSubscriber);
+        assertSame(subscribers[1], markedSubscriber);
+        assertSame(index.subscribersOf(MarkedEvent.class), subscribers);
+    }
+
+    @Test public void testIndexInvalidatedOnRegisterAndUnregister() {
+        SubscriberTypeIndex index = new SubscriberTypeIndex();
+        assertEquals(index.subscribersOf(MarkedEvent.class).length, 0);
+
+        TimeStampedSubscriber<Marked> markedSubscriber = subscriber(
+                Marked.class);
+        index.add(markedSubscriber);
+        assertEquals(index.subscribersOf(MarkedEvent.class).length, 1);
+
+        index.remove(markedSubscriber);
+        assertEquals(index.subscribersOf(MarkedEvent.class).length, 0);
+    }
+
+    @Test public void testIndexRetainedForUnaffectedTypes() {
+        SubscriberTypeIndex index = new SubscriberTypeIndex();
+        TimeStampedSubscriber<Other> otherSubscriber = subscriber(Other.class);
+        index.add(otherSubscriber);
+        index.add(subscriber(Marked.class));
+        TimeStampedSubscriber<?>[] others = index.subscribersOf(
+                OtherEvent.class);
+        TimeStampedSubscriber<?>[] marked = index.subscribersOf(
+                MarkedEvent.class);
+
+        index.add(subscriber(Marked.class));
+        assertSame(index.subscribersOf(OtherEvent.class), others);
+        assertEquals(index.subscribersOf(MarkedEvent.class).length, 2);
+        assertEquals(marked.length, 1);
+
+        index.remove(otherSubscriber);
+        assertEquals(index.subscribersOf(OtherEvent.class).length, 0);
+        assertEquals(index.subscribers().size(), 2);
+        assertFalse(index.contains(otherSubscriber));
+    }
+
+    @Test public void testSnapshotUnchangedByWriters() {
+        SubscriberTypeIndex index = new SubscriberTypeIndex();
+        index.add(subscriber(Event.class));
+        long version = index.version();
+        Collection<TimeStampedSubscriber<?>> subscribers = index.subscribers();
+        TimeStampedSubscriber<?>[] resolved = index
+                .subscribersOf(MarkedEvent.class);
+
+        index.add(subscriber(Marked.class));
+        assertEquals(subscribers.size(), 1);
+        assertEquals(resolved.length, 1);
+        assertEquals(index.version(), version + 1);
+        assertEquals(index.subscribersOf(MarkedEvent.class).length, 2);
+    }
+
+    @Test public void testAddAllPublishOneSnapshot() {
+        SubscriberTypeIndex index = new SubscriberTypeIndex();
+        TimeStampedSubscriber<Event> eventSubscriber = subscriber(Event.class);
+        index.add(eventSubscriber);
+        long version = index.version();
+        TimeStampedSubscriber<Other> otherSubscriber = subscriber(Other.class);
+        TimeStampedSubscriber<Marked> markedSubscriber = subscriber(
+                Marked.class);
+
+        assertEquals(index.addAll(Arrays.asList(
+                markedSubscriber, eventSubscriber, otherSubscriber)), 2);
+        assertEquals(index.version(), version + 1);
+        TimeStampedSubscriber<?>[] subscribers = index
+                .subscribersOf(MarkedEvent.class);
+        assertEquals(subscribers.length, 2);
+        assertSame(subscribers[0], eventSubscriber);
+        assertSame(subscribers[1], markedSubscriber);
+        assertEquals(index.addAll(Arrays.asList(eventSubscriber)), 0);
+        assertEquals(index.version(), version + 1);
+    }
+
+    @Test public void testCutoffBySequence() {
+        SubscriberTypeIndex index = new SubscriberTypeIndex();
+        index.add(subscriber(Event.class));
+        long sequence = Sequence.next();
+        index.add(subscriber(Marked.class));
+
+        TimeStampedSubscriber<?>[] subscribers = index
+                .subscribersOf(MarkedEvent.class);
+        assertEquals(AbstractTimeStampedSubscriberRegister
+                             .cutoff(subscribers, sequence), 1);
+        assertEquals(AbstractTimeStampedSubscriberRegister
+                             .cutoff(subscribers, Long.MAX_VALUE), 2);
+        assertEquals(AbstractTimeStampedSubscriberRegister
+                             .cutoff(subscribers, 0), 0);
+    }
+
+    private static <T extends Event> TimeStampedSubscriber<T> subscriber(
+            Class<T> type) {
+        return new TimeStampedSubscriber<>(new Subscriber<T>() {
+            @Override public Class<? extends T> subscribeTo() {
+                return type;
+            }
+
+            @Override public void onEvent(T event) {
+            }
+        });
+    }
+
+    private interface Marked extends Event {
+    }
+
+    private interface Other extends Event {
+    }
+
+    private static class OtherEvent implements Other {
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+
+    private static class MarkedEvent implements Marked {
+
+        @Override public TriggerId triggerId() {
+            return null;
+        }
+
+        @Override public long occurredOn() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.register;
+
+import com.apehat.event.Event;
+import com.apehat.event.Subscriber;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ThreadSubscriberRegisterTest {
+
+    @Test public void testSubscribersConfinedToThread() throws Exception {
+        ThreadSubscriberRegister register = new ThreadSubscriberRegister();
+        Subscriber<Event> subscriber = new Subscriber<Event>() {
+            @Override public Class<? extends Event> subscribeTo() {
+                return Event.class;
+            }
+
+            @Override public void onEvent(Event event) {
+            }
+        };
+        register.register(subscriber);
+        assertTrue(register.contains(subscriber));
+
+        AtomicBoolean containsInOtherThread = new AtomicBoolean(true);
+        Thread thread = new Thread(
+                ()->containsInOtherThread.set(register.contains(subscriber)));
+        thread.start();
+        thread.join();
+        assertFalse(containsInOtherThread.get());
+
+        register.clear();
+        assertFalse(register.contains(subscriber));
+        assertSame(register.subscriberIndex(),
+                   new ThreadSubscriberRegister().subscriberIndex());
+    }
+}
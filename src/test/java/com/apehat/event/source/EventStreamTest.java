@@ -0,0 +1,85 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.source.FileEventStoreTest.Named;
+import com.apehat.event.source.FileEventStoreTest.Trigger;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class EventStreamTest {
+
+    @Test public void testTree() {
+        EventStream stream = new EventStream(EventStreamId.of("order-1"));
+        Named placed = new Named(new Trigger("1"), "placed");
+        Named paid = new Named(placed, "paid");
+        Named packed = new Named(placed, "packed");
+        Named shipped = new Named(packed, "shipped");
+        stream.append(placed).append(paid).append(packed).append(shipped);
+
+        List<EventNode> roots = stream.roots();
+        assertEquals(roots.size(), 1);
+        EventNode root = roots.get(0);
+        assertTrue(root.isRoot());
+        assertSame(root.event(), placed);
+        // both derived from the root
+        List<EventNode> children = stream.children(root);
+        assertEquals(children.size(), 2);
+        assertSame(children.get(0).event(), paid);
+        assertEquals(children.get(1).parent(), root);
+        assertEquals(stream.children(children.get(1)).get(0).version(), 3);
+        assertTrue(stream.children(children.get(0)).isEmpty());
+        assertEquals(stream.nodes().size(), 4);
+    }
+
+    @Test public void testAppendToExplicitParent() {
+        EventStream stream = new EventStream(EventStreamId.of("order-1"));
+        Named first = new Named(new Trigger("1"), "first");
+        Named second = new Named(new Trigger("1"), "second");
+        stream.append(first).append(second);
+        stream.append(stream.node(0), new Named(first, "derived"));
+
+        assertEquals(stream.node(2).parent().ordinal(), 0);
+        assertEquals(stream.children(stream.node(1)).size(), 0);
+        assertEquals(stream.uncommitted().size(), 3);
+        assertEquals(stream.events(), Arrays.asList(
+                first, second, stream.node(2).event()));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectUnexpectedVersion() {
+        EventStream stream = new EventStream(EventStreamId.of("order-1"));
+        Named first = new Named(new Trigger("1"), "first");
+        stream.append(first);
+        stream.append(stream.node(0), new Named(new Named(first, "d"), "dd"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRejectOrphan() {
+        EventStream stream = new EventStream(EventStreamId.of("order-1"));
+        stream.append(new Named(new Named(new Trigger("1"), "first"), "d"));
+    }
+}
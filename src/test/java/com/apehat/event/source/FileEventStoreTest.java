@@ -0,0 +1,467 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.AbstractEvent;
+import com.apehat.event.Event;
+import com.apehat.event.TriggerId;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class FileEventStoreTest {
+
+    private Path directory;
+
+    @BeforeMethod public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-event-store");
+    }
+
+    @AfterMethod public void tearDown() throws IOException {
+        delete(directory);
+    }
+
+    @Test public void testStoreAndReopen() throws IOException {
+        EventStreamId id = EventStreamId.of("user-1");
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            EventStream stream = new EventStream(id);
+            Named created = new Named(new Trigger("1"), "created");
+            stream.append(created).append(new Named(created, "renamed"));
+            store.store(stream);
+            assertEquals(stream.version(), 2);
+            assertTrue(stream.uncommitted().isEmpty());
+
+            List<EventRecord> records = store.records(id);
+            assertEquals(records.size(), 2);
+            assertEquals(records.get(1).version(), 2);
+            assertTrue(records.get(0).payload().isReadOnly());
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            EventStream stream = store.find(id);
+            assertEquals(stream.version(), 2);
+            assertEquals(((Named) stream.events().get(1)).name, "renamed");
+            assertEquals(stream.events().get(1).version(), 2);
+            assertNull(store.find(EventStreamId.of("user-2")));
+
+            stream.append(new Named(new Trigger("1"), "removed"));
+            store.store(stream);
+            assertEquals(store.find(id).version(), 3);
+        }
+    }
+
+    @Test public void testRollOverSegments() throws IOException {
+        FileEventStore.Builder builder = new FileEventStore.Builder();
+        builder.setSegmentSize(4096);
+        int count = 200;
+        try (FileEventStore store = builder.build(directory)) {
+            for (int i = 0; i < count; i++) {
+                EventStreamId id = EventStreamId.of("stream-" + (i % 3));
+                EventStream stream = store.find(id);
+                store.store((stream == null ? new EventStream(id) : stream)
+                                    .append(new Named(new Trigger("t"),
+                                                      String.valueOf(i))));
+            }
+            assertTrue(store.segmentCount() > 1);
+        }
+        try (FileEventStore store = builder.build(directory)) {
+            assertTrue(store.segmentCount() > 1);
+            assertEquals(store.streamIds().size(), 3);
+            List<Event> events = store.find(EventStreamId.of("stream-1"))
+                                      .events();
+            assertEquals(events.size(), 67);
+            for (int i = 0; i < events.size(); i++) {
+                assertEquals(((Named) events.get(i)).name,
+                             String.valueOf(i * 3 + 1));
+            }
+        }
+    }
+
+    @Test(expectedExceptions = ConcurrentModificationException.class)
+    public void testRejectStaleStream() throws IOException {
+        EventStreamId id = EventStreamId.of("user-1");
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            store.store(new EventStream(id).append(
+                    new Named(new Trigger("1"), "created")));
+            store.store(new EventStream(id).append(
+                    new Named(new Trigger("1"), "created")));
+        }
+    }
+
+    @Test public void testDiscardBrokenTail() throws IOException {
+        EventStreamId id = EventStreamId.of("user-1");
+        long position;
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            EventStream stream = new EventStream(id);
+            store.store(stream.append(new Named(new Trigger("1"), "first")));
+            position = store.position();
+            store.store(stream.append(new Named(new Trigger("1"), "second")));
+        }
+        // corrupt the body of the last record
+        Path segment = directory.resolve(Segment.fileName(0));
+        try (FileChannel channel = FileChannel.open(
+                segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), position + 20);
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            assertEquals(store.position(), position);
+            EventStream stream = store.find(id);
+            assertEquals(stream.version(), 1);
+            store.store(stream.append(new Named(new Trigger("1"), "third")));
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            assertEquals(((Named) store.find(id).events().get(1)).name,
+                         "third");
+        }
+    }
+
+    @Test public void testDiscardIncompleteStore() throws IOException {
+        EventStreamId id = EventStreamId.of("user-1");
+        EventStreamId other = EventStreamId.of("user-2");
+        long position;
+        long last;
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            store.store(new EventStream(other).append(
+                    new Named(new Trigger("2"), "created")));
+            position = store.position();
+            Named created = new Named(new Trigger("1"), "created");
+            Named renamed = new Named(created, "renamed");
+            store.store(new EventStream(id).append(created).append(renamed)
+                                           .append(new Named(renamed,
+                                                             "removed")));
+            last = store.records(id).get(2).position();
+        }
+        // crashed before the length of the last record be written
+        try (FileChannel channel = FileChannel.open(
+                directory.resolve(Segment.fileName(0)),
+                StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(4), last);
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            assertEquals(store.position(), position);
+            assertNull(store.find(id));
+            assertEquals(store.find(other).version(), 1);
+            store.store(new EventStream(id).append(
+                    new Named(new Trigger("1"), "created")));
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            assertEquals(store.find(id).version(), 1);
+        }
+    }
+
+    @Test(timeOut = 10000) public void testErrorNotStallCommitter()
+            throws IOException {
+        EventStreamId id = EventStreamId.of("user-1");
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            long position = store.position();
+            try {
+                store.store(new EventStream(id).append(
+                        new Named(new UnhashableTrigger(), "created")));
+                fail();
+            } catch (AssertionError e) {
+                assertEquals(e.getMessage(), "unhashable");
+            }
+            assertEquals(store.position(), position);
+            assertNull(store.find(id));
+            store.store(new EventStream(id).append(
+                    new Named(new Trigger("1"), "created")));
+            assertEquals(store.find(id).version(), 1);
+        }
+    }
+
+    @Test public void testDiscardLastSegmentWithoutHeader()
+            throws IOException {
+        FileEventStore.Builder builder = new FileEventStore.Builder();
+        builder.setSegmentSize(4096);
+        EventStreamId id = EventStreamId.of("user-1");
+        try (FileEventStore store = builder.build(directory)) {
+            store.store(new EventStream(id).append(
+                    new Named(new Trigger("1"), "created")));
+        }
+        // the rolled segment, of which the header hadn't be persisted
+        Path rolled = directory.resolve(Segment.fileName(4096));
+        Files.write(rolled, new byte[4096]);
+        try (FileEventStore store = builder.build(directory)) {
+            assertEquals(store.segmentCount(), 1);
+            assertFalse(Files.exists(rolled));
+            EventStream stream = store.find(id);
+            for (int i = 0; i < 100; i++) {
+                stream.append(new Named((Named) stream.node(i).event(),
+                                        "renamed"));
+            }
+            store.store(stream);
+            assertTrue(store.segmentCount() > 1);
+        }
+        try (FileEventStore store = builder.build(directory)) {
+            assertEquals(store.find(id).version(), 101);
+        }
+    }
+
+    @Test public void testFindByEvent() throws IOException {
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            store.store(new EventStream(EventStreamId.of("a")).append(
+                    new Named(new Trigger("a"), "a")));
+            store.store(new EventStream(EventStreamId.of("b")).append(
+                    new Named(new Trigger("b"), "b")));
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            EventStream stream = store.find(new Named(new Trigger("b"), "?"));
+            assertEquals(stream.id(), EventStreamId.of("b"));
+            assertNull(store.find(new Named(new Trigger("c"), "?")));
+        }
+    }
+
+    @Test public void testGroupCommit() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        FileEventStore.Builder builder = new FileEventStore.Builder();
+        builder.setCommitExecutor(tasks::add);
+        builder.setMaxBatchSize(4);
+        try (FileEventStore store = builder.build(directory)) {
+            List<CompletableFuture<EventStream>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(store.storeAsync(
+                        new EventStream(EventStreamId.of("s" + i)).append(
+                                new Named(new Trigger("t" + i), "e"))));
+            }
+            CompletableFuture<EventStream> stale = store.storeAsync(
+                    new EventStream(EventStreamId.of("s0")).append(
+                            new Named(new Trigger("t0"), "e")));
+            // the stores are committed by one leader
+            assertEquals(tasks.size(), 1);
+            assertFalse(futures.get(0).isDone());
+            tasks.remove(0).run();
+            assertTrue(tasks.isEmpty());
+            for (CompletableFuture<EventStream> future : futures) {
+                assertEquals(future.get().version(), 1);
+            }
+            assertTrue(stale.isCompletedExceptionally());
+            assertEquals(store.streamIds().size(), 10);
+        }
+    }
+
+    @Test(timeOut = 10000) public void testCommitInlineWhenExecutorRejected()
+            throws Exception {
+        FileEventStore.Builder builder = new FileEventStore.Builder();
+        builder.setCommitExecutor(task->{
+            throw new RejectedExecutionException();
+        });
+        try (FileEventStore store = builder.build(directory)) {
+            for (int i = 0; i < 3; i++) {
+                CompletableFuture<EventStream> future = store.storeAsync(
+                        new EventStream(EventStreamId.of("s" + i)).append(
+                                new Named(new Trigger("t" + i), "e")));
+                assertEquals(future.get().version(), 1);
+            }
+            assertEquals(store.streamIds().size(), 3);
+        }
+    }
+
+    @Test public void testDurabilityModes() throws Exception {
+        for (Durability durability : Durability.values()) {
+            Path path = directory.resolve(durability.name());
+            FileEventStore.Builder builder = new FileEventStore.Builder();
+            builder.setDurability(durability);
+            builder.setBatchWindow(1, TimeUnit.MILLISECONDS);
+            builder.setSegmentSize(4096);
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            try (FileEventStore store = builder.build(path)) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    EventStreamId id = EventStreamId.of("s" + i);
+                    futures.add(executor.submit(() -> {
+                        EventStream stream = new EventStream(id);
+                        for (int j = 0; j < 20; j++) {
+                            store.store(stream.append(
+                                    new Named(new Trigger(id.value()), "e")));
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(10, TimeUnit.SECONDS);
+                }
+            } finally {
+                executor.shutdown();
+            }
+            try (FileEventStore store = builder.build(path)) {
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(store.find(EventStreamId.of("s" + i))
+                                      .version(), 20, durability.name());
+                }
+            }
+        }
+    }
+
+    @Test public void testLoadTreeLazily() throws IOException {
+        AtomicInteger deserialized = new AtomicInteger();
+        JavaEventSerializer java = new JavaEventSerializer();
+        FileEventStore.Builder builder = new FileEventStore.Builder();
+        builder.setSerializer(new EventSerializer() {
+            @Override public byte[] serialize(Event event) {
+                return java.serialize(event);
+            }
+
+            @Override public Event deserialize(ByteBuffer payload) {
+                deserialized.incrementAndGet();
+                return java.deserialize(payload);
+            }
+        });
+        EventStreamId id = EventStreamId.of("order-1");
+        try (FileEventStore store = builder.build(directory)) {
+            Named placed = new Named(new Trigger("1"), "placed");
+            EventStream stream = new EventStream(id).append(placed);
+            for (int i = 0; i < 100; i++) {
+                stream.append(stream.node(0), new Named(placed, "item" + i));
+            }
+            store.store(stream);
+        }
+        try (FileEventStore store = builder.build(directory)) {
+            EventStream stream = store.find(id);
+            assertEquals(stream.version(), 101);
+            EventNode root = stream.roots().get(0);
+            assertEquals(stream.children(root).size(), 100);
+            assertEquals(stream.node(100).parent(), root);
+            assertEquals(deserialized.get(), 0);
+
+            int index = -1;
+            for (Event event : stream) {
+                assertEquals(((Named) event).name,
+                             index < 0 ? "placed" : "item" + index);
+                index++;
+            }
+            assertEquals(deserialized.get(), 101);
+
+            stream.append(stream.node(100), new Named(
+                    (Named) stream.node(100).event(), "checked"));
+            // the appended child follows the committed children
+            stream.append(root, new Named(placed(stream), "item100"));
+            List<EventNode> items = stream.children(root);
+            assertEquals(items.size(), 101);
+            assertEquals(items.get(100).ordinal(), 102);
+            store.store(stream);
+            EventStream found = store.find(id);
+            assertEquals(found.node(101).parent().ordinal(), 100);
+            assertEquals(found.children(found.node(100)).size(), 1);
+
+            // the snapshot doesn't see the children stored after it
+            EventStream older = store.find(id);
+            store.store(found.append(found.node(102), new Named(
+                    (Named) found.node(102).event(), "checked")));
+            assertTrue(older.children(older.node(102)).isEmpty());
+            EventStream newer = store.find(id);
+            assertEquals(newer.children(newer.node(102)).size(), 1);
+        }
+    }
+
+    private static Named placed(EventStream stream) {
+        return (Named) stream.roots().get(0).event();
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted((a, b) -> b.compareTo(a)).forEach(path -> {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+    }
+
+    static final class Trigger implements TriggerId, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        Trigger(String value) {
+            this.value = value;
+        }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Trigger && value.equals(((Trigger) o).value);
+        }
+
+        @Override public int hashCode() {
+            return value.hashCode();
+        }
+    }
+
+    private static final class UnhashableTrigger
+            implements TriggerId, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override public int hashCode() {
+            throw new AssertionError("unhashable");
+        }
+    }
+
+    static final class Named extends AbstractEvent {
+
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+
+        Named(TriggerId triggerId, String name) {
+            super(triggerId);
+            this.name = name;
+        }
+
+        Named(Named parent, String name) {
+            super(parent.occurredOn(), parent.version(), parent.triggerId());
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.EventBus;
+import com.apehat.event.SubscribeScope;
+import com.apehat.event.Subscriber;
+import com.apehat.event.source.FileEventStoreTest.Named;
+import com.apehat.event.source.FileEventStoreTest.Trigger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class ReplayEngineTest {
+
+    private static final int STREAMS = 16;
+    private static final int EVENTS = 40;
+
+    private final Map<Object, List<String>> replayed = new ConcurrentHashMap<>();
+    private ForkJoinPool pool;
+    private Path directory;
+    private FileEventStore store;
+
+    @BeforeMethod public void setUp() throws IOException {
+        pool = new ForkJoinPool(4);
+        replayed.clear();
+        directory = Files.createTempDirectory("replay-engine");
+        FileEventStore.Builder builder = new FileEventStore.Builder();
+        builder.setSegmentSize(16 << 10);
+        store = builder.build(directory);
+        List<EventStream> streams = new ArrayList<>();
+        for (int i = 0; i < STREAMS; i++) {
+            streams.add(new EventStream(EventStreamId.of("stream-" + i)));
+        }
+        // interleave the streams in the log
+        for (int n = 0; n < EVENTS; n++) {
+            for (int i = 0; i < STREAMS; i++) {
+                EventStream stream = streams.get(i);
+                Named event = n == 0
+                        ? new Named(new Trigger("stream-" + i), "e0")
+                        : new Named((Named) stream.node(n - 1).event(),
+                                    "e" + n);
+                store.store(stream.append(event));
+            }
+        }
+    }
+
+    @AfterMethod public void tearDown() throws IOException {
+        pool.shutdown();
+        store.close();
+        FileEventStoreTest.delete(directory);
+    }
+
+    @Test public void testReplayInOrderPerStream() {
+        assertTrue(store.segmentCount() > 1);
+        List<ReplayProgress> reports = new ArrayList<>();
+        ReplayEngine.Builder builder = new ReplayEngine.Builder();
+        builder.setPool(pool);
+        builder.setMaxInFlight(64);
+        builder.setSubscribers(Collections.singleton(recorder()));
+        builder.setProgressListener(reports::add);
+        builder.setProgressInterval(100);
+        ReplayEngine engine = builder.build(store);
+
+        ReplayProgress progress = engine.replay();
+        assertTrue(progress.isDone());
+        assertEquals(progress.readCount(), STREAMS * EVENTS);
+        assertEquals(progress.deliveredCount(), STREAMS * EVENTS);
+        assertEquals(progress.position(), store.position());
+        assertEquals(progress.fraction(), 1.0);
+        assertEquals(reports.size(), STREAMS * EVENTS / 100 + 1);
+        assertSame(reports.get(reports.size() - 1), progress);
+        assertReplayedInOrder(EVENTS);
+    }
+
+    @Test public void testReplayToEventBus() throws InterruptedException {
+        EventBus eventBus = new EventBus.Builder().build();
+        AtomicInteger count = new AtomicInteger();
+        Subscriber<Named> subscriber = new Subscriber<Named>() {
+            @Override public Class<? extends Named> subscribeTo() {
+                return Named.class;
+            }
+
+            @Override public void onEvent(Named event) {
+                count.incrementAndGet();
+            }
+
+            @Override public SubscribeScope scope() {
+                return SubscribeScope.BUS;
+            }
+        };
+        eventBus.subscribe(subscriber);
+        try {
+            ReplayEngine.Builder builder = new ReplayEngine.Builder();
+            builder.setPool(pool);
+            builder.setEventBus(eventBus);
+            builder.setStreamFilter(id->id.value().equals("stream-1"));
+
+            ReplayProgress progress = builder.build(store).replay();
+            assertEquals(progress.readCount(), STREAMS * EVENTS);
+            assertEquals(progress.deliveredCount(), EVENTS);
+            assertTrue(eventBus.flush(5, TimeUnit.SECONDS));
+            assertEquals(count.get(), EVENTS);
+        } finally {
+            eventBus.close();
+        }
+    }
+
+    @Test public void testCancelAndResume() {
+        ReplayEngine.Builder builder = new ReplayEngine.Builder();
+        builder.setPool(pool);
+        builder.setSubscribers(Collections.singleton(recorder()));
+        builder.setProgressInterval(STREAMS * 10);
+        ReplayEngine[] engine = new ReplayEngine[1];
+        builder.setProgressListener(progress->engine[0].cancel());
+        engine[0] = builder.build(store);
+
+        ReplayProgress cancelled = engine[0].replay();
+        assertFalse(cancelled.isDone());
+        assertEquals(cancelled.readCount(), STREAMS * 10);
+        assertEquals(cancelled.deliveredCount(), STREAMS * 10);
+        assertReplayedInOrder(10);
+
+        builder.setProgressListener(null);
+        ReplayProgress resumed = builder.build(store)
+                                        .replay(cancelled.position());
+        assertTrue(resumed.isDone());
+        assertEquals(resumed.deliveredCount(), STREAMS * (EVENTS - 10));
+        assertReplayedInOrder(EVENTS);
+    }
+
+    @Test public void testRejectPositionNotOfRecord() {
+        ReplayEngine.Builder builder = new ReplayEngine.Builder();
+        builder.setPool(pool);
+        builder.setSubscribers(Collections.singleton(recorder()));
+        ReplayEngine engine = builder.build(store);
+        long second = store.positionOf(EventStreamId.of("stream-1"), 0);
+        for (long position : new long[]{-1, Segment.HEADER_SIZE + 1,
+                                         second - 1, store.position() + 1}) {
+            try {
+                engine.replay(position);
+                fail("Replayed from " + position);
+            } catch (IllegalArgumentException expected) {
+                // the position isn't of a record
+            }
+        }
+        assertTrue(engine.replay(store.position()).isDone());
+    }
+
+    @Test public void testRateLimit() {
+        ReplayEngine.Builder builder = new ReplayEngine.Builder();
+        builder.setPool(pool);
+        builder.setSubscribers(Collections.singleton(recorder()));
+        builder.setMaxEventsPerSecond(2000);
+        builder.setStreamFilter(id->id.value().compareTo("stream-2") < 0);
+
+        ReplayProgress progress = builder.build(store).replay();
+        // stream-0, stream-1, stream-10 ~ stream-15
+        assertEquals(progress.deliveredCount(), 8 * EVENTS);
+        assertTrue(progress.elapsed(TimeUnit.MILLISECONDS) >= 150,
+                   progress.toString());
+        assertTrue(progress.eventsPerSecond() <= 2200, progress.toString());
+    }
+
+    private void assertReplayedInOrder(int count) {
+        assertEquals(replayed.size(), STREAMS);
+        replayed.forEach((stream, names)->{
+            assertEquals(names.size(), count);
+            for (int n = 0; n < count; n++) {
+                assertEquals(names.get(n), "e" + n);
+            }
+        });
+    }
+
+    private Subscriber<Named> recorder() {
+        return new Subscriber<Named>() {
+            @Override public Class<? extends Named> subscribeTo() {
+                return Named.class;
+            }
+
+            @Override public void onEvent(Named event) {
+                replayed.computeIfAbsent(event.triggerId(),
+                                         k->Collections.synchronizedList(
+                                                 new ArrayList<>()))
+                        .add(event.name);
+            }
+        };
+    }
+}
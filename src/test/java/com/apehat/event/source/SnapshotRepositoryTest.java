@@ -0,0 +1,127 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.apehat.event.source;
+
+import com.apehat.event.source.FileEventStoreTest.Named;
+import com.apehat.event.source.FileEventStoreTest.Trigger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class SnapshotRepositoryTest {
+
+    private final EventStreamId id = EventStreamId.of("user-1");
+    private final AtomicInteger applied = new AtomicInteger();
+    private Path directory;
+
+    @BeforeMethod public void setUp() throws IOException {
+        directory = Files.createTempDirectory("snapshot-repository");
+    }
+
+    @AfterMethod public void tearDown() throws IOException {
+        FileEventStoreTest.delete(directory);
+    }
+
+    @Test public void testReplayAfterSnapshot() throws IOException {
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            SnapshotRepository<ArrayList<String>> repository = repository(
+                    store, 0);
+            EventStream stream = new EventStream(id);
+            for (int i = 0; i < 25; i++) {
+                repository.store(stream.append(
+                        new Named(new Trigger("1"), "e" + i)));
+            }
+            assertEquals(snapshotCount(), 1);
+
+            applied.set(0);
+            ArrayList<String> state = repository.load(id);
+            assertEquals(state.size(), 25);
+            assertEquals(state.get(24), "e24");
+            // only the events after the snapshot of 20 events
+            assertEquals(applied.get(), 5);
+
+            assertEquals(repository.snapshot(id).version(), 25);
+            applied.set(0);
+            assertEquals(repository.replay(id).version(), 25);
+            assertEquals(applied.get(), 0);
+        }
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            applied.set(0);
+            assertEquals(repository(store, 0).load(id).size(), 25);
+            assertEquals(applied.get(), 0);
+        }
+    }
+
+    @Test public void testInvalidateStaleSnapshot() throws IOException {
+        try (FileEventStore store = new FileEventStore.Builder()
+                .build(directory)) {
+            SnapshotRepository<ArrayList<String>> repository = repository(
+                    store, 0);
+            EventStream stream = new EventStream(id);
+            for (int i = 0; i < 12; i++) {
+                stream.append(new Named(new Trigger("1"), "e" + i));
+            }
+            repository.store(stream);
+            assertEquals(snapshotCount(), 1);
+
+            // the state format changed
+            applied.set(0);
+            assertEquals(repository(store, 1).load(id).size(), 12);
+            assertEquals(applied.get(), 12);
+            assertEquals(snapshotCount(), 0);
+            assertTrue(repository(store, 1).load(
+                    EventStreamId.of("user-2")).isEmpty());
+        }
+    }
+
+    private SnapshotRepository<ArrayList<String>> repository(
+            FileEventStore store, int stateVersion) {
+        SnapshotRepository.Builder<ArrayList<String>> builder = new SnapshotRepository.Builder<>();
+        builder.setInitialState(ArrayList::new);
+        builder.setApplier((state, event) -> {
+            applied.incrementAndGet();
+            state.add(((Named) event).name);
+            return state;
+        });
+        builder.setInterval(10);
+        builder.setStateVersion(stateVersion);
+        return builder.build(store);
+    }
+
+    private long snapshotCount() throws IOException {
+        try (Stream<Path> files = Files.list(
+                directory.resolve(SnapshotStore.DIRECTORY))) {
+            return files.count();
+        }
+    }
+}
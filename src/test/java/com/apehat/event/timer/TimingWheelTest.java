@@ -0,0 +1,93 @@
+/*
+ * Copyright Apehat.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.apehat.event.timer;
+
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author hanpengfei
+ * @since 1.0
+ */
+public class TimingWheelTest {
+
+    @Test public void testExpireInOrderAcrossLevels() throws Exception {
+        // 4 buckets per level, so the delays span 3 levels
+        try (TimingWheel wheel = new TimingWheel(
+                1, TimeUnit.MILLISECONDS, 4, 3,
+                Executors.defaultThreadFactory())) {
+            List<Integer> expired = new CopyOnWriteArrayList<>();
+            CountDownLatch latch = new CountDownLatch(4);
+            int[] delays = {45, 3, 20, 9};
+            for (int delay : delays) {
+                wheel.schedule(() -> {
+                    expired.add(delay);
+                    latch.countDown();
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertEquals(expired.toString(), "[3, 9, 20, 45]");
+            assertEquals(wheel.pendingCount(), 0);
+        }
+    }
+
+    @Test public void testNotExpireBeforeDeadline() throws Exception {
+        try (TimingWheel wheel = new TimingWheel()) {
+            CountDownLatch latch = new CountDownLatch(1);
+            long start = System.nanoTime();
+            long[] elapsed = new long[1];
+            wheel.schedule(() -> {
+                elapsed[0] = System.nanoTime() - start;
+                latch.countDown();
+            }, 50, TimeUnit.MILLISECONDS);
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertTrue(elapsed[0] >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    @Test public void testCancel() throws Exception {
+        try (TimingWheel wheel = new TimingWheel()) {
+            CountDownLatch latch = new CountDownLatch(1);
+            Timeout cancelled = wheel.schedule(
+                    () -> fail("The cancelled task run"), 20,
+                    TimeUnit.MILLISECONDS);
+            Timeout expired = wheel.schedule(latch::countDown, 40,
+                                             TimeUnit.MILLISECONDS);
+            assertTrue(cancelled.cancel());
+            assertFalse(cancelled.cancel());
+            assertTrue(cancelled.isCancelled());
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertTrue(expired.isExpired());
+            assertFalse(expired.cancel());
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testScheduleAfterClose() {
+        TimingWheel wheel = new TimingWheel();
+        wheel.close();
+        wheel.schedule(() -> {
+        }, 1, TimeUnit.MILLISECONDS);
+    }
+}